@@ -28,6 +28,24 @@ public sealed interface AsyncGroup permits AsyncGroupImpl {
   /** Indicates that a registered {@link Runner} task execution was interrupted. */
   record RunnerInterrupted() {}
 
+  /**
+   * Indicates that a registered {@link Runner} task was cancelled, either interrupted while running
+   * or prevented from starting, because another task in the same group failed.
+   */
+  record RunnerCancelled() {}
+
+  /**
+   * Indicates that a registered {@link Runner} task did not finish by the deadline of the phase in
+   * which it was run, and was interrupted and given up.
+   */
+  record RunnerTimedOut() {}
+
+  /**
+   * Indicates that a {@link Runner} task added with {@link #schedule(Runner, Handle...)} was not
+   * run because one of its prerequisites failed, was cancelled, timed out, or was skipped.
+   */
+  record RunnerSkipped() {}
+
   /**
    * Indicates that an unhandled runtime exception was thrown during the execution of a registered
    * {@link Runner} task.
@@ -38,9 +56,34 @@ public sealed interface AsyncGroup permits AsyncGroupImpl {
    * Adds a background task to be executed asynchronously by this group.
    *
    * <p>The task is encapsulated in a {@link Runner} functional interface and scheduled for parallel
-   * asynchronous execution.
+   * asynchronous execution. This method can also be called from within a running task of this
+   * group, and errors of a task added in that way are reported under the same data source or data
+   * connection as the task which added it.
    *
    * @param runner the {@link Runner} task to be added and executed asynchronously
    */
   void add(Runner runner);
+
+  /**
+   * Adds a background task to be executed asynchronously by this group after the specified
+   * prerequisite tasks have succeeded.
+   *
+   * <p>Tasks are scheduled with maximal parallelism: each task starts as soon as all of its
+   * prerequisites have finished without errors, and tasks without unfinished prerequisites run in
+   * parallel with the others. If any prerequisite does not succeed, this task is not run and an
+   * error with the reason {@link RunnerSkipped} is reported for it, which in turn makes its own
+   * dependents skipped. A task without prerequisites behaves like one added by {@link #add(Runner)}.
+   *
+   * @param runner the {@link Runner} task to be added and executed asynchronously
+   * @param prerequisites the handles of tasks of this group which must succeed before this task
+   * @return the handle of the added task, which can be used as a prerequisite of other tasks
+   * @throws IllegalArgumentException if a handle was not returned by this group
+   */
+  Handle schedule(Runner runner, Handle... prerequisites);
+
+  /**
+   * An opaque handle of a {@link Runner} task added by {@link #schedule(Runner, Handle...)}, used
+   * to declare it as a prerequisite of other tasks.
+   */
+  interface Handle {}
 }
@@ -0,0 +1,86 @@
+/*
+ * Backoff.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+import com.github.sttk.sabi.internal.AsyncGroupImpl;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Determines whether and when a failed transaction is retried, used with {@link
+ * DataHub#retryTxnOnFailure(Backoff)}.
+ */
+@FunctionalInterface
+public interface Backoff {
+
+  /** The value returned by {@link #delayNanos(int)} to give up retrying. */
+  long GIVE_UP = -1L;
+
+  /**
+   * Returns the delay before the specified retry.
+   *
+   * @param retry the number of the retry, starting from 1
+   * @return the delay in nanoseconds, or a negative value such as {@link #GIVE_UP} to give up
+   */
+  long delayNanos(int retry);
+
+  /**
+   * Returns a backoff which retries up to the specified times, with a delay starting from the
+   * initial one and doubled on each retry up to the maximum.
+   *
+   * @param maxRetries the maximum number of retries
+   * @param initial the delay before the first retry
+   * @param max the maximum delay
+   * @return the exponential backoff
+   */
+  static Backoff exponential(int maxRetries, Duration initial, Duration max) {
+    long initialNanos = AsyncGroupImpl.toNanos(initial);
+    long maxNanos = Math.max(AsyncGroupImpl.toNanos(max), initialNanos);
+    return retry -> {
+      if (retry > maxRetries) {
+        return GIVE_UP;
+      }
+      long delay = initialNanos;
+      for (int i = 1; i < retry && delay < maxNanos; i++) {
+        delay = (delay > Long.MAX_VALUE / 2) ? Long.MAX_VALUE : delay * 2;
+      }
+      return Math.min(delay, maxNanos);
+    };
+  }
+
+  /**
+   * Returns a backoff which randomizes the delays of this backoff between zero and them, so that
+   * transactions failed by the same conflict do not retry at the same time.
+   *
+   * @return the jittered backoff
+   */
+  default Backoff withJitter() {
+    return retry -> {
+      long delay = delayNanos(retry);
+      if (delay <= 0L) {
+        return delay;
+      }
+      return ThreadLocalRandom.current().nextLong(delay == Long.MAX_VALUE ? delay : delay + 1);
+    };
+  }
+
+  /**
+   * Returns a backoff which gives up retrying when the specified budget has no room, in addition
+   * to when this backoff gives up. Sharing one budget among hubs limits the rate of retries across
+   * them.
+   *
+   * @param budget the budget of retries
+   * @return the budgeted backoff
+   */
+  default Backoff withBudget(RetryBudget budget) {
+    return retry -> {
+      long delay = delayNanos(retry);
+      if (delay < 0L || !budget.tryAcquire()) {
+        return GIVE_UP;
+      }
+      return delay;
+    };
+  }
+}
@@ -32,4 +32,21 @@ public interface DataAcc {
    *     fails or yields null, or if the connection cannot be cast to the target type
    */
   <C extends DataConn> C getDataConn(String name, Class<C> cls) throws Err;
+
+  /**
+   * Retrieves a data connection associated with the name of the specified key and casts it to the
+   * class of the key.
+   *
+   * <p>This method works like {@link #getDataConn(String, Class)}, and an implementation such as
+   * {@link DataHub} can find the connection faster with the key.
+   *
+   * @param <C> the expected type of {@link DataConn}
+   * @param key the key of the data connection
+   * @return the data connection instance associated with the key
+   * @throws Err if no data source with the name of the key is found, if creating the connection
+   *     fails or yields null, or if the connection cannot be cast to the type of the key
+   */
+  default <C extends DataConn> C getDataConn(DataConnKey<C> key) throws Err {
+    return getDataConn(key.name(), key.type());
+  }
 }
@@ -75,6 +75,24 @@ public interface DataConn {
    */
   default void postCommit(AsyncGroup ag) throws Err {}
 
+  /**
+   * Checks whether this connection only reads data, so that committing and rolling it back are not
+   * needed.
+   *
+   * <p>This method is called once when the connection is created. For a read-only connection,
+   * {@link #commit(AsyncGroup)}, {@link #isCommitted()} and {@link #rollback(AsyncGroup)} are not
+   * called, and its {@link TxnFailureReport} on a failure has the rollback state {@link
+   * TxnFailureRollbackState#NoneByRolledBack}. Likewise, {@link #preCommit(AsyncGroup)}, {@link
+   * #postCommit(AsyncGroup)} and {@link #onTxnFailure(AsyncGroup, List)} are not called for a class
+   * which does not override them, and a phase in which no connection has anything to do is skipped
+   * entirely. The default implementation returns {@code false}.
+   *
+   * @return {@code true} if this connection is read-only; {@code false} otherwise
+   */
+  default boolean isReadOnly() {
+    return false;
+  }
+
   /**
    * Checks whether this connection has been successfully committed.
    *
@@ -104,6 +122,72 @@ public interface DataConn {
    */
   default void onTxnFailure(AsyncGroup ag, List<TxnFailureReport> reports) {}
 
+  /**
+   * Sets a savepoint at the specified depth of nested transaction scopes, which is called when a
+   * scope is begun by {@link DataHub#nestedTxn(Logic)} after this connection was created.
+   *
+   * <p>The default implementation does nothing. A connection supporting savepoints must override
+   * {@link #rollbackToSavepoint(AsyncGroup, int)} as well.
+   *
+   * @param depth the depth of the scope, starting from 1 for the outermost nested scope
+   * @throws Err if setting the savepoint fails
+   */
+  default void setSavepoint(int depth) throws Err {}
+
+  /**
+   * Rolls back the changes made through this connection after the savepoint at the specified
+   * depth, which is called when the nested transaction scope of the depth fails.
+   *
+   * <p>Whether a class of connections supports savepoints is detected by whether it overrides this
+   * method. The default implementation is never called.
+   *
+   * @param ag the asynchronous group for registering background tasks
+   * @param depth the depth of the scope
+   * @throws Err if rolling back to the savepoint fails
+   */
+  default void rollbackToSavepoint(AsyncGroup ag, int depth) throws Err {}
+
+  /**
+   * Releases the savepoint at the specified depth, which is called when the nested transaction
+   * scope of the depth succeeds. The changes after the savepoint become part of the enclosing
+   * scope. The default implementation does nothing.
+   *
+   * @param depth the depth of the scope
+   */
+  default void releaseSavepoint(int depth) {}
+
+  /**
+   * Returns a record from which the post-commit of this connection can be rerun later, possibly
+   * in another process.
+   *
+   * <p>This method is called by a {@link PostCommitDispatcher} after the post-commit of this
+   * connection has failed in the background, and the record is stored in its queue file and passed
+   * to the {@link PostCommitDispatcher.Rerun} registered for the name of this connection. The
+   * default implementation returns {@code null}, which means the post-commit is not retried.
+   *
+   * @return the record to rerun the post-commit, or {@code null} if it cannot be rerun
+   */
+  default String postCommitRecord() {
+    return null;
+  }
+
+  /**
+   * Resets this connection so that it is reused by the next logic in the same {@link DataHub},
+   * instead of being closed.
+   *
+   * <p>This method is called at the end of a logic, after the commit or rollback, when the hub
+   * reuses data connections by {@link DataHub#reuseDataConns(int, java.time.Duration)}. A
+   * connection returning {@code true} is kept open and returned by the next {@link
+   * DataAcc#getDataConn(String, Class)} of the same name without creating a new one, and one
+   * returning {@code false} or throwing a runtime exception is closed as usual. The default
+   * implementation returns {@code false}.
+   *
+   * @return {@code true} if this connection has been reset and can be reused
+   */
+  default boolean resetForReuse() {
+    return false;
+  }
+
   /** Closes and disposes of this data connection, releasing any held resources. */
   void close();
 }
@@ -0,0 +1,54 @@
+/*
+ * DataConnKey.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+import com.github.sttk.sabi.internal.DataConnKeyImpl;
+
+/**
+ * A typed key of a data connection, which combines the name of a data source and the class of its
+ * data connections.
+ *
+ * <p>A key is created once, typically as a constant, and passed to {@link
+ * DataAcc#getDataConn(DataConnKey)}. Each key is resolved to a dense slot number when created, so
+ * that a {@link DataHub} finds the data connection of the key in an array instead of a map by name,
+ * and does not check the class of the connection again while it is the same instance.
+ *
+ * <pre>{@code
+ * static final DataConnKey<FooDataConn> FOO = DataConnKey.of("foo", FooDataConn.class);
+ *
+ * var conn = data.getDataConn(FOO);
+ * }</pre>
+ *
+ * @param <C> the type of the data connection
+ */
+public sealed interface DataConnKey<C extends DataConn> permits DataConnKeyImpl {
+
+  /**
+   * Gets the key with the specified name and class of data connections. The same key is returned
+   * for the same name and class.
+   *
+   * @param <C> the type of the data connection
+   * @param name the registered logical name of the data source
+   * @param cls the {@link Class} representing the connection type {@code C}
+   * @return the key
+   */
+  static <C extends DataConn> DataConnKey<C> of(String name, Class<C> cls) {
+    return DataConnKeyImpl.of(name, cls);
+  }
+
+  /**
+   * Gets the name of the data source of this key.
+   *
+   * @return the registered logical name of the data source
+   */
+  String name();
+
+  /**
+   * Gets the class of the data connections of this key.
+   *
+   * @return the {@link Class} representing the connection type
+   */
+  Class<C> type();
+}
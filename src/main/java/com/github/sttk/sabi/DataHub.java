@@ -6,9 +6,10 @@ package com.github.sttk.sabi;
 
 import com.github.sttk.errs.Err;
 import com.github.sttk.sabi.internal.DataHubInner;
-import com.github.sttk.sabi.internal.TxnFailureReportBuilder;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Manages local data sources and data connections, and executes business logic in transactional or
@@ -80,10 +81,38 @@ public class DataHub implements DataAcc, AutoCloseable {
   /** Represents an error when an unhandled runtime exception occurs during logic execution. */
   public record RuntimeExceptionOccurred() {}
 
+  /**
+   * Represents an error when a nested transaction scope is begun while a data connection which
+   * does not support savepoints has been created in the transaction.
+   *
+   * @param name the logical name of the data connection
+   * @param dataConnType the class name of the data connection
+   */
+  public record SavepointNotSupported(String name, String dataConnType) {}
+
+  /**
+   * Represents an error when the changes in a failed nested transaction scope cannot be rolled
+   * back, after which the transaction can no longer be committed.
+   *
+   * @param errors the list of error entries of the data connections which failed to roll back
+   */
+  public record FailToRollbackToSavepoint(List<ErrEntry> errors) {}
+
+  /**
+   * Represents an error when some of the logics run by {@link #txnBatch(Iterable)} fail.
+   *
+   * @param errors the list of error entries, each of which has the position of the failed logic in
+   *     the given sequence as its index and {@code null} as its name
+   */
+  public record FailToRunLogicsInBatch(List<ErrEntry> errors) {}
+
   ///
 
   private final DataHubInner inner;
 
+  // The completion of the last asynchronous execution, after which the next one starts.
+  private CompletableFuture<Void> lastAsync = CompletableFuture.completedFuture(null);
+
   /** Constructs a new, default {@code DataHub} instance. */
   public DataHub() {
     this.inner = new DataHubInner();
@@ -126,12 +155,280 @@ public class DataHub implements DataAcc, AutoCloseable {
     this.inner.disuseLocal(name);
   }
 
-  /** Closes all local data sources registered in this hub and releases their resources. */
+  /**
+   * Limits the number of {@link Runner} tasks that may run at the same time within each {@link
+   * AsyncGroup} used by this hub, such as those passed to the pre-commit, commit and post-commit
+   * phases of its data connections.
+   *
+   * <p>Runners added beyond this limit are queued and started as running ones finish. This limit
+   * applies in addition to the process-wide limit set by {@link Sabi#limitConcurrentRunners(int)}.
+   * Calls made while a logic is running in this hub are ignored.
+   *
+   * @param max the maximum number of concurrently running runners per group; zero or a negative
+   *     value means unlimited
+   */
+  public void limitConcurrentRunners(int max) {
+    this.inner.limitRunners(max);
+  }
+
+  /**
+   * Enables or disables running the last {@link Runner} added to each {@link AsyncGroup} of this
+   * hub directly on the calling thread.
+   *
+   * <p>When enabled, a runner added to a group is not started until another runner is added or the
+   * group is waited for. So a lone runner, or the last one added in a phase, runs on the thread
+   * executing the phase without starting a virtual thread, and the other runners run in parallel
+   * with it as usual. This reduces the latency of transactions in which most data connections add
+   * zero or one runner per phase. Calls made while a logic is running in this hub are ignored.
+   *
+   * @param enabled {@code true} to run the last runner of each group on the calling thread
+   */
+  public void runLastRunnerInline(boolean enabled) {
+    this.inner.runLastRunnerInline(enabled);
+  }
+
+  /**
+   * Enables or disables cancelling the other {@link Runner} tasks of a pre-commit or commit phase as
+   * soon as one data connection fails in that phase.
+   *
+   * <p>When enabled, the first failure in the pre-commit or commit phase interrupts the runners
+   * still running in the phase and prevents the ones not yet started from running, so that the
+   * rollback begins without waiting for them. The error entries of these runners have the reason
+   * {@link AsyncGroup.RunnerCancelled}, and the {@link TxnFailureReport}s of their data connections
+   * have the cause state {@link TxnFailureCauseState#NoneByCancelled}. The post-commit phase always
+   * runs all runners to the end. Calls made while a logic is running in this hub are ignored.
+   *
+   * @param enabled {@code true} to cancel the other runners on the first failure
+   */
+  public void failFastCommit(boolean enabled) {
+    this.inner.failFastCommit(enabled);
+  }
+
+  /**
+   * Sets the {@link RunnerExecutor} which executes the {@link Runner} tasks added to the {@link
+   * AsyncGroup}s of this hub, overriding the one set by {@link
+   * Sabi#useRunnerExecutor(RunnerExecutor)}. Calls made while a logic is running in this hub are
+   * ignored.
+   *
+   * @param executor the executor of runners; {@code null} means the global one
+   */
+  public void useRunnerExecutor(RunnerExecutor executor) {
+    this.inner.useRunnerExecutor(executor);
+  }
+
+  /**
+   * Sets the {@link RunnerExecutor} which executes the {@link Runner} tasks added by the data source
+   * and the data connection with the specified name, overriding the one set for this hub. This is
+   * useful for routing CPU-bound work of a specific data connection, such as serialization in its
+   * post-commit, to a platform thread pool. Calls made while a logic is running in this hub are
+   * ignored.
+   *
+   * @param name the name of the data source and data connection
+   * @param executor the executor of their runners; {@code null} removes the one set for the name
+   */
+  public void useRunnerExecutor(String name, RunnerExecutor executor) {
+    this.inner.useRunnerExecutor(name, executor);
+  }
+
+  /**
+   * Limits the time to wait for the {@link Runner} tasks added to the {@link AsyncGroup} of the
+   * specified phase.
+   *
+   * <p>Runners not finished when the time has passed are interrupted and given up, and their error
+   * entries have the reason {@link AsyncGroup.RunnerTimedOut}. A time out in the setup phase makes
+   * the logic fail, and one in the pre-commit or commit phase makes the transaction roll back with
+   * the {@link TxnFailureCause}s of the timed out data connections having the error entries. The
+   * time of the rollback and failure notification phases is limited only by this setting and not
+   * by the time limit of the transaction, so that they can run even after it. Calls made while a
+   * logic is running in this hub are ignored.
+   *
+   * @param phase the phase of which the time is limited
+   * @param timeout the maximum time to wait for the runners of the phase; {@code null}, zero or a
+   *     negative duration means unlimited
+   */
+  public void limitPhaseDuration(Phase phase, Duration timeout) {
+    this.inner.limitPhaseDuration(phase, timeout);
+  }
+
+  /**
+   * Makes transactions of this hub run their post-commit phases in the background with the
+   * specified {@link PostCommitDispatcher}.
+   *
+   * <p>When set, {@link #txn(Logic)} returns right after the commit phase has succeeded, and the
+   * dispatcher runs the post-commits of the data connections and closes them. So failures of
+   * post-commits are not thrown to the caller, but notified to the data connections and retried by
+   * the dispatcher. If the dispatcher has been closed, post-commits are run in the foreground as
+   * usual. The data connections of local data sources can also be handed over, because {@link
+   * #close()} waits for them to be closed. Calls made while a logic is running in this hub are
+   * ignored.
+   *
+   * @param dispatcher the dispatcher running post-commits; {@code null} means the foreground
+   */
+  public void offloadPostCommit(PostCommitDispatcher dispatcher) {
+    this.inner.offloadPostCommit(dispatcher);
+  }
+
+  /**
+   * Makes transactions of this hub be retried automatically with the specified {@link Backoff}
+   * when they fail in a way which is safe to retry.
+   *
+   * <p>A failed transaction is retried when it failed in the pre-commit or commit phase and the
+   * {@link TxnFailureReport#recoveryForCommit()} of every data connection is {@link
+   * TxnFailureRecovery#RerunLogicAndCommit} or {@link
+   * TxnFailureRecovery#ResolveCauseThenRerunLogicAndCommit}, where the cause is assumed to be
+   * transient, such as a conflict with another transaction. Failures of the logic itself, ones
+   * after which some data connections have already committed, and ones which may have left
+   * inconsistency are not retried. The logic is run again from the start with
+   * new data connections, and the time limit of {@link #txn(Logic, Duration)} applies to each run.
+   * The data connections are notified of each failure with {@link DataConn#onTxnFailure} as usual,
+   * and the last error is thrown when the backoff gives up. The counts of retries are available by
+   * {@link Sabi#retryMetrics()}. Calls made while a logic is running in this hub are ignored.
+   *
+   * @param backoff the backoff of retries; {@code null} means no retry
+   */
+  public void retryTxnOnFailure(Backoff backoff) {
+    this.inner.retryTxnOnFailure(backoff);
+  }
+
+  /**
+   * Limits the number of logics committed together by {@link #txnBatch(Iterable)}. Calls made while
+   * a logic is running in this hub are ignored.
+   *
+   * @param max the maximum number of logics in a batch; zero or a negative value means unlimited
+   */
+  public void limitBatchSize(int max) {
+    this.inner.limitBatchSize(max);
+  }
+
+  /**
+   * Limits the time for which {@link #txnBatch(Iterable)} waits for more logics before committing a
+   * batch, counted from when the first logic of the batch is taken.
+   *
+   * <p>This is useful when the logics are taken from a sequence which blocks until the next one
+   * arrives, such as one over a queue, so that the logics already taken are not kept uncommitted
+   * for long. The time is checked before asking the iterator of the sequence whether it has the
+   * next logic, and cannot interrupt {@link java.util.Iterator#hasNext()} once it has blocked, so
+   * the batch is committed only after that call returns. Calls made while a logic is running in
+   * this hub are ignored.
+   *
+   * @param linger the maximum time to gather a batch; {@code null}, zero or a negative duration
+   *     means unlimited
+   */
+  public void limitBatchLinger(Duration linger) {
+    this.inner.limitBatchLinger(linger);
+  }
+
+  /**
+   * Makes this hub create the data connections of the specified names in parallel at the start of
+   * each logic, before the logic runs.
+   *
+   * <p>These names are created together with the ones declared by {@link Logic#dataConnNames()}.
+   * If the data source of a name is not found, the logic fails with {@link
+   * NoDataSrcToCreateDataConn} without creating any connection. If some creations fail, the logic
+   * fails with the {@link FailToCreateDataConn} or {@link CreatedDataConnIsNull} of the first
+   * failed name in the declared order, and the connections created by the others are rolled back
+   * and closed as usual. The data connection type of these reasons is the name of {@link
+   * DataConn}, because the declarations have no type. Calls made while a logic is running in this
+   * hub are ignored.
+   *
+   * @param names the names of the data connections to create before each logic
+   */
+  public void prefetchDataConns(String... names) {
+    this.inner.prefetchDataConns(names);
+  }
+
+  /**
+   * Makes this hub keep data connections open across logics, so that a hub running many logics
+   * one after another does not create them each time.
+   *
+   * <p>At the end of a logic, the data connections are reset with {@link DataConn#resetForReuse()}
+   * instead of being closed, and a connection reset successfully is returned by the next {@link
+   * #getDataConn(String, Class)} of the same name in this hub. A connection which has been used by
+   * the specified number of logics is closed instead, and a kept connection which has been unused
+   * for longer than the specified time is closed when the next logic begins or this hub is reset,
+   * even if no logic gets a connection of its name any more. The kept connections
+   * are closed when this hub is closed, when the data source of their name is replaced or removed,
+   * or when reuse is disabled, and the ones of global data sources are also closed by {@link
+   * #reset()}. Calls made while a logic is running in this hub are ignored.
+   *
+   * @param maxUses the maximum number of logics using a connection; zero or a negative value
+   *     disables reuse
+   * @param maxIdle the maximum time for which a connection is kept unused; {@code null}, zero or a
+   *     negative duration means unlimited
+   */
+  public void reuseDataConns(int maxUses, Duration maxIdle) {
+    this.inner.reuseDataConns(maxUses, maxIdle);
+  }
+
+  /**
+   * Makes this hub allow the logic to get data connections from several threads at once, such as
+   * virtual threads the logic starts by itself.
+   *
+   * <p>When enabled, {@link #getDataConn(String, Class)} creates the data connection of each name
+   * exactly once even if threads get it at the same time, and connections of different names are
+   * created in parallel, because the creation is guarded by one of several locks chosen by the
+   * name. The connections are registered for the commit one at a time under another lock, so the
+   * commit sees them in one consistent order. The logic must wait for the threads it has started
+   * before it returns, and nested transaction scopes must not be used by those threads. Calls made
+   * while a logic is running in this hub are ignored.
+   *
+   * @param enabled {@code true} to allow concurrent data access
+   */
+  public void allowConcurrentDataAccess(boolean enabled) {
+    this.inner.allowConcurrentDataAccess(enabled);
+  }
+
+  /**
+   * Creates a {@link FanOut}, which runs several data access calls of a logic in parallel and
+   * collects their typed results.
+   *
+   * <p>The tasks of the fan-out run with the {@link RunnerExecutor}s and the limit of concurrent
+   * runners set for this hub. While the tasks are running, this hub creates data connections under
+   * a lock, so that the tasks can get them concurrently.
+   *
+   * @return a new fan-out bound to this hub
+   */
+  public FanOut fanOut() {
+    return this.inner.fanOut();
+  }
+
+  /**
+   * Closes all local data sources registered in this hub and releases their resources.
+   *
+   * <p>If post-commits of this hub have been dispatched to a {@link PostCommitDispatcher}, this
+   * method waits for the data connections handed over to it to be closed before closing the local
+   * data sources.
+   */
   @Override
   public void close() {
     this.inner.closeLocals();
   }
 
+  /**
+   * Makes this hub ready to run logics for another unit of work, such as the next request, so that
+   * hubs can be recycled instead of constructed for each one.
+   *
+   * <p>The local data sources of this hub are kept set up, and its settings are kept. The data
+   * connections kept open by {@link #reuseDataConns(int, Duration)} are kept too, except the ones
+   * of global data sources, which are closed so that this hub does not keep global data sources
+   * replaced meanwhile from being closed. This method waits for the asynchronous executions of this
+   * hub to finish. A subclass holding the state of a
+   * unit of work should override this method to clear the state and call this method of the
+   * superclass. {@link DataHubPool} calls this method when a hub is released to it, and hubs can
+   * also be recycled in other ways, such as by keeping one per platform thread.
+   *
+   * @throws IllegalStateException if a logic is running in this hub
+   */
+  public void reset() {
+    CompletableFuture<Void> last;
+    synchronized (this) {
+      last = this.lastAsync;
+      this.lastAsync = CompletableFuture.completedFuture(null);
+    }
+    last.handle((v, t) -> null).join();
+    this.inner.reset();
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -143,6 +440,21 @@ public class DataHub implements DataAcc, AutoCloseable {
     return this.inner.getDataConn(name, cls);
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This hub keeps the data connection of each key in an array indexed by the slot of the key,
+   * so the connection already got in the current transaction is returned without looking up its
+   * name nor checking its class again.
+   *
+   * @throws Err if the data source is not found, connection creation fails or returns null, or
+   *     casting to the type of the key fails
+   */
+  @Override
+  public <C extends DataConn> C getDataConn(DataConnKey<C> key) throws Err {
+    return this.inner.getDataConn(key);
+  }
+
   /**
    * Executes business logic in a non-transactional scope.
    *
@@ -157,11 +469,32 @@ public class DataHub implements DataAcc, AutoCloseable {
    *     RuntimeExceptionOccurred})
    */
   public <D> void run(Logic<D> logic) throws Err {
+    run(logic, null);
+  }
+
+  /**
+   * Executes business logic in a non-transactional scope with a time limit.
+   *
+   * <p>This method works like {@link #run(Logic)}, except that the setup of the local data sources
+   * gives up the {@link Runner} tasks not finished by the deadline, which is the given time after
+   * this method is called. The logic itself is not interrupted at the deadline.
+   *
+   * @param <D> the type of data context expected by the logic, typically {@code DataHub} or a
+   *     subclass/interface
+   * @param logic the business logic to execute
+   * @param timeout the time from now to the deadline; {@code null}, zero or a negative duration
+   *     means no deadline
+   * @throws Err if the logic throws {@code Err}, if casting to {@code D} fails (wrapping {@link
+   *     FailToCastDataHub}), or if an unhandled runtime exception occurs (wrapping {@link
+   *     RuntimeExceptionOccurred})
+   */
+  public <D> void run(Logic<D> logic, Duration timeout) throws Err {
     try {
       @SuppressWarnings("unchecked")
       D data = (D) this;
 
-      this.inner.begin();
+      this.inner.begin(timeout);
+      this.inner.prefetch(logic.dataConnNames());
       logic.run(data);
     } catch (Err err) {
       throw err;
@@ -188,30 +521,350 @@ public class DataHub implements DataAcc, AutoCloseable {
    *     {@code D} fails, or a runtime exception occurs
    */
   public <D> void txn(Logic<D> logic) throws Err {
-    final var reportBuilders = new ArrayList<TxnFailureReportBuilder>(0);
+    txn(logic, null);
+  }
+
+  /**
+   * Executes business logic within a transactional boundary with a time limit.
+   *
+   * <p>This method works like {@link #txn(Logic)}, except that the setup of the local data sources
+   * and the pre-commit, commit and post-commit phases give up the {@link Runner} tasks not finished
+   * by the deadline, which is the given time after this method is called. Runners given up in the
+   * setup, pre-commit or commit phase make the transaction roll back, and the {@link
+   * TxnFailureReport}s passed to data connections carry the error entries with the reason {@link
+   * AsyncGroup.RunnerTimedOut} as their causes. The logic itself and the synchronous parts of the
+   * phases are not interrupted at the deadline. The time limits of individual phases can be set
+   * with {@link #limitPhaseDuration(Phase, Duration)}.
+   *
+   * @param <D> the type of data context expected by the logic
+   * @param logic the business logic to execute transactionally
+   * @param timeout the time from now to the deadline; {@code null}, zero or a negative duration
+   *     means no deadline
+   * @throws Err if the logic throws {@code Err}, connection commit or rollback fails, casting to
+   *     {@code D} fails, or a runtime exception occurs
+   */
+  public <D> void txn(Logic<D> logic, Duration timeout) throws Err {
+    for (int retry = 1; ; retry++) {
+      try {
+        txnOnce(logic, timeout);
+      } catch (Err err) {
+        if (this.inner.waitToRetry(retry)) {
+          continue;
+        }
+        throw err;
+      }
+      this.inner.countRecovery(retry);
+      return;
+    }
+  }
+
+  private <D> void txnOnce(Logic<D> logic, Duration timeout) throws Err {
     try {
+      @SuppressWarnings("unchecked")
+      D data = (D) this;
+
+      this.inner.beginTxn(timeout);
+      this.inner.prefetch(logic.dataConnNames());
+      logic.run(data);
+
+      this.inner.commit();
+    } catch (Err err) {
+      this.inner.rollback();
+      this.inner.judgeRetry(err);
+      throw err;
+    } catch (ClassCastException e) {
+      this.inner.rollback();
+      throw new Err(new FailToCastDataHub(this.getClass().getName()), e);
+    } catch (RuntimeException re) {
+      this.inner.rollback();
+      throw new Err(new RuntimeExceptionOccurred(), re);
+    } finally {
+      this.inner.end();
+    }
+  }
+
+  /**
+   * Executes a sequence of business logics in batches, each of which is run with one set of data
+   * connections and committed at once.
+   *
+   * <p>This amortizes the cost of the pre-commit, commit and post-commit phases over the logics of
+   * a batch. A batch is closed when it reaches the size set by {@link #limitBatchSize(int)} or the
+   * time set by {@link #limitBatchLinger(Duration)} has passed. If a logic of a batch fails, the
+   * batch is rolled back and run again without it. If the commit of a batch fails before any data
+   * connection has committed, the batch is rolled back and bisected until the logics causing the
+   * failure are isolated, and the others are committed. So the logics must have no effects other
+   * than through the data connections, since they may be run more than once. The remaining
+   * batches are run even after some logics have failed, and the failures are thrown together at
+   * the end.
+   *
+   * <p>A batch is never run again once some of its data connections have committed. If its
+   * post-commit phase fails, the batch is committed and the error is reported for every logic of
+   * the batch. If its commit phase fails after some connections have committed, the batch is left
+   * partially committed, its error is reported for every logic of the batch, and no more logics are
+   * run.
+   *
+   * @param <D> the type of data context expected by the logics
+   * @param logics the logics to execute transactionally; {@code null} elements are not allowed
+   * @throws Err if some logics fail (wrapping {@link FailToRunLogicsInBatch}), or if the setup of
+   *     the local data sources fails, in which case the logics not yet committed are not run
+   */
+  public <D> void txnBatch(Iterable<? extends Logic<D>> logics) throws Err {
+    var iter = logics.iterator();
+    var batch = new ArrayList<Logic<D>>();
+    var errors = new ArrayList<ErrEntry>();
+    int base = 0;
+    while (iter.hasNext()) {
+      this.inner.fillBatch(iter, batch);
+      txnBatch(batch, 0, batch.size(), base, errors);
+      base += batch.size();
+      batch.clear();
+    }
+    if (!errors.isEmpty()) {
+      throw new Err(new FailToRunLogicsInBatch(errors));
+    }
+  }
+
+  // Runs the logics in the range [from, to) of the batch in one transaction. A logic which fails is
+  // removed from the batch by replacing it with null and the rest are run again, and a failure of
+  // the commit is isolated by running each half of the range separately unless some connections
+  // have already committed, in which case running them again would apply their writes twice.
+  private <D> void txnBatch(
+      ArrayList<Logic<D>> batch, int from, int to, int base, List<ErrEntry> errors) throws Err {
+    while (true) {
+      int n = 0, last = -1;
+      for (int i = from; i < to; i++) {
+        if (batch.get(i) != null) {
+          n++;
+          last = i;
+        }
+      }
+      if (n == 0) {
+        return;
+      }
+
+      boolean begun = false;
+      boolean committed = false;
+      int failed = -1;
+      Err err;
       try {
         @SuppressWarnings("unchecked")
         D data = (D) this;
 
-        this.inner.begin();
-        logic.run(data);
+        this.inner.beginTxn(null);
+        begun = true;
+        this.inner.prefetch(List.of());
+        for (int i = from; i < to; i++) {
+          var logic = batch.get(i);
+          if (logic != null) {
+            failed = i;
+            logic.run(data);
+          }
+        }
+        failed = -1;
+
+        this.inner.commit();
+        return;
+      } catch (Err e) {
+        this.inner.rollback();
+        committed = this.inner.anyCommitted();
+        err = e;
+      } catch (ClassCastException e) {
+        this.inner.rollback();
+        committed = this.inner.anyCommitted();
+        err = new Err(new FailToCastDataHub(this.getClass().getName()), e);
+      } catch (RuntimeException re) {
+        this.inner.rollback();
+        committed = this.inner.anyCommitted();
+        err = new Err(new RuntimeExceptionOccurred(), re);
       } finally {
-        this.inner.prepareTxnFailureReportBuilders(reportBuilders);
+        this.inner.end();
       }
 
-      this.inner.commit(reportBuilders);
+      if (!begun) {
+        throw err;
+      }
+      if (committed) {
+        for (int i = from; i < to; i++) {
+          if (batch.get(i) != null) {
+            errors.add(new ErrEntry(base + i, null, err));
+          }
+        }
+        if (err.getReason() instanceof DataConn.FailToPostCommitDataConn) {
+          return;
+        }
+        throw new Err(new FailToRunLogicsInBatch(errors));
+      }
+      if (failed >= 0) {
+        errors.add(new ErrEntry(base + failed, null, err));
+        batch.set(failed, null);
+        continue;
+      }
+      if (n == 1) {
+        errors.add(new ErrEntry(base + last, null, err));
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      txnBatch(batch, from, mid, base, errors);
+      txnBatch(batch, mid, to, base, errors);
+      return;
+    }
+  }
+
+  /**
+   * Executes business logic in a non-transactional scope asynchronously.
+   *
+   * <p>This method works like {@link #run(Logic)} on a virtual thread, and returns a future which
+   * is completed when the logic and the closing of the data connections have finished. If the
+   * execution fails, the future is completed exceptionally with the {@link Err} which {@link
+   * #run(Logic)} would throw.
+   *
+   * <p>Asynchronous executions on the same hub are run one after another in the order they were
+   * requested, because a hub holds the data connections of one execution at a time. The hub must
+   * not be used synchronously, nor configured, until the future of the last one has completed.
+   *
+   * @param <D> the type of data context expected by the logic
+   * @param logic the business logic to execute
+   * @return the future completed when the execution has finished
+   */
+  public <D> CompletableFuture<Void> runAsync(Logic<D> logic) {
+    return runAsync(logic, null);
+  }
+
+  /**
+   * Executes business logic in a non-transactional scope asynchronously with a time limit.
+   *
+   * <p>This method works like {@link #runAsync(Logic)}, except that the time limit works like that
+   * of {@link #run(Logic, Duration)} and is counted from when the execution starts.
+   *
+   * @param <D> the type of data context expected by the logic
+   * @param logic the business logic to execute
+   * @param timeout the time from the start of the execution to the deadline; {@code null}, zero or
+   *     a negative duration means no deadline
+   * @return the future completed when the execution has finished
+   */
+  public <D> CompletableFuture<Void> runAsync(Logic<D> logic, Duration timeout) {
+    return submitAsync(() -> run(logic, timeout));
+  }
+
+  /**
+   * Executes business logic within a transactional boundary asynchronously.
+   *
+   * <p>This method works like {@link #txn(Logic)} on a virtual thread, so that a caller such as an
+   * event loop can submit many transactions without waiting through their commit phases. A hub
+   * holds the data connections of one transaction at a time, so transactions submitted to the same
+   * hub are run one after another in the order they were requested, and transactions to be run
+   * concurrently need a hub each, such as one taken from a {@link DataHubPool} for each.
+   *
+   * <p>The returned future is completed when the post-commit phase, or the rollback and the failure
+   * notification, have finished. If the transaction fails, the future is completed exceptionally
+   * with the {@link Err} which {@link #txn(Logic)} would throw, such as one with the reason {@link
+   * DataConn.FailToCommitDataConn}. The hub must not be used synchronously, nor configured, until
+   * the future of the last transaction submitted to it has completed.
+   *
+   * @param <D> the type of data context expected by the logic
+   * @param logic the business logic to execute transactionally
+   * @return the future completed when the transaction has finished
+   */
+  public <D> CompletableFuture<Void> txnAsync(Logic<D> logic) {
+    return txnAsync(logic, null);
+  }
+
+  /**
+   * Executes business logic within a transactional boundary asynchronously with a time limit.
+   *
+   * <p>This method works like {@link #txnAsync(Logic)}, except that the time limit works like that
+   * of {@link #txn(Logic, Duration)} and is counted from when the transaction starts.
+   *
+   * @param <D> the type of data context expected by the logic
+   * @param logic the business logic to execute transactionally
+   * @param timeout the time from the start of the transaction to the deadline; {@code null}, zero
+   *     or a negative duration means no deadline
+   * @return the future completed when the transaction has finished
+   */
+  public <D> CompletableFuture<Void> txnAsync(Logic<D> logic, Duration timeout) {
+    return submitAsync(() -> txn(logic, timeout));
+  }
+
+  // The body of an asynchronous execution, which is run on its virtual thread.
+  @FunctionalInterface
+  private interface AsyncBody {
+    void run() throws Err;
+  }
+
+  private synchronized CompletableFuture<Void> submitAsync(AsyncBody body) {
+    var future = new CompletableFuture<Void>();
+    var prev = this.lastAsync;
+    this.lastAsync = future;
+    prev.whenComplete(
+        (v, t) ->
+            Thread.startVirtualThread(
+                () -> {
+                  try {
+                    body.run();
+                    future.complete(null);
+                  } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                  }
+                }));
+    return future;
+  }
+
+  /**
+   * Executes business logic in a nested transaction scope within the logic of the enclosing
+   * transaction.
+   *
+   * <p>When the scope is begun, a savepoint is set with {@link DataConn#setSavepoint(int)} on each
+   * data connection already created in the transaction. If the logic of the scope fails, only the
+   * changes made in the scope are rolled back: the data connections created before the scope are
+   * rolled back to their savepoints with {@link DataConn#rollbackToSavepoint(AsyncGroup, int)}, and
+   * the ones created in the scope are rolled back entirely and closed. Then the error of the logic
+   * is thrown, and the enclosing logic can catch it and continue the transaction without
+   * re-executing its earlier steps. If the logic succeeds, the savepoints are released and the
+   * changes become part of the enclosing scope. Scopes can be nested.
+   *
+   * <p>Read-only data connections do not need savepoints. If a data connection created before the
+   * scope needs a rollback but does not support savepoints, the scope is not begun. If rolling back
+   * the scope fails, the transaction can no longer be committed. When called outside a transaction,
+   * including within the logic of {@link #run(Logic)}, this method works like {@link #txn(Logic)}.
+   * Within such a logic, the transaction takes over the data connections the logic has got, and
+   * closes them at its end.
+   *
+   * @param <D> the type of data context expected by the logic
+   * @param logic the business logic to execute in the scope
+   * @throws Err if the logic fails (after the scope is rolled back), if a data connection does not
+   *     support savepoints (wrapping {@link SavepointNotSupported}), or if rolling back the scope
+   *     fails (wrapping {@link FailToRollbackToSavepoint} with the error of the logic as its cause)
+   */
+  public <D> void nestedTxn(Logic<D> logic) throws Err {
+    if (!this.inner.inTxn()) {
+      txn(logic);
+      return;
+    }
+
+    int depth;
+    try {
+      depth = this.inner.beginScope();
+    } catch (RuntimeException re) {
+      throw new Err(new RuntimeExceptionOccurred(), re);
+    }
+
+    try {
+      @SuppressWarnings("unchecked")
+      D data = (D) this;
+
+      logic.run(data);
     } catch (Err err) {
-      this.inner.rollback(reportBuilders);
+      this.inner.rollbackScope(depth, err);
       throw err;
     } catch (ClassCastException e) {
-      this.inner.rollback(reportBuilders);
-      throw new Err(new FailToCastDataHub(this.getClass().getName()), e);
+      var err = new Err(new FailToCastDataHub(this.getClass().getName()), e);
+      this.inner.rollbackScope(depth, err);
+      throw err;
     } catch (RuntimeException re) {
-      this.inner.rollback(reportBuilders);
-      throw new Err(new RuntimeExceptionOccurred(), re);
-    } finally {
-      this.inner.end();
+      var err = new Err(new RuntimeExceptionOccurred(), re);
+      this.inner.rollbackScope(depth, err);
+      throw err;
     }
+    this.inner.endScope(depth);
   }
 }
@@ -0,0 +1,162 @@
+/*
+ * DataHubPool.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+import com.github.sttk.errs.Err;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A lock-free pool of {@link DataHub} instances, which recycles hubs instead of constructing one
+ * for each unit of work.
+ *
+ * <p>A hub allocates its maps of data sources and data connections when it is constructed and
+ * sets up its local data sources at its first logic, so recycling hubs avoids this work and the
+ * garbage of it. The data connections of local data sources kept open by {@link
+ * DataHub#reuseDataConns(int, java.time.Duration)} are also reused across units of work. A hub
+ * taken by {@link #acquire()} is returned with {@link #release(DataHub)}, which resets it with
+ * {@link DataHub#reset()}, or a logic is run with a pooled hub by {@link #txn(Logic)} or {@link
+ * #run(Logic)}. The pool holds at most the specified number of idle hubs; hubs are created by the
+ * factory when none is idle, and ones released to a full pool are closed. A hub which cannot be
+ * reset because a logic is still running in it is neither pooled nor closed, since closing it would
+ * close the data sources and connections the logic is using; the one running the logic should
+ * close the hub after the logic ends.
+ *
+ * @param <H> the type of the pooled hubs, which is {@code DataHub} or a subclass of it
+ */
+public final class DataHubPool<H extends DataHub> implements AutoCloseable {
+  private final Supplier<? extends H> factory;
+  private final AtomicReferenceArray<H> slots;
+  private volatile boolean closed;
+
+  /**
+   * Creates a pool with the factory of hubs and the maximum number of idle hubs.
+   *
+   * @param factory the factory creating a hub with its local data sources and settings
+   * @param capacity the maximum number of idle hubs held by the pool
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  public DataHubPool(Supplier<? extends H> factory, int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.factory = factory;
+    this.slots = new AtomicReferenceArray<>(capacity);
+  }
+
+  // Threads start scanning the slots at different positions, so that they rarely contend.
+  private int start() {
+    return (int) (Thread.currentThread().threadId() % this.slots.length());
+  }
+
+  /**
+   * Takes an idle hub from this pool, or creates a new one if there is none.
+   *
+   * @return the hub, which should be returned with {@link #release(DataHub)}
+   */
+  public H acquire() {
+    int n = this.slots.length();
+    int start = start();
+    for (int i = 0; i < n; i++) {
+      int idx = (start + i) % n;
+      var hub = this.slots.get(idx);
+      if (hub != null && this.slots.compareAndSet(idx, hub, null)) {
+        return hub;
+      }
+    }
+    return this.factory.get();
+  }
+
+  /**
+   * Resets the hub and returns it to this pool. If the pool is full or closed, the hub is closed.
+   * If the hub cannot be reset because a logic is still running in it, the hub is dropped from this
+   * pool without being closed.
+   *
+   * @param hub the hub taken by {@link #acquire()}
+   * @throws IllegalStateException if a logic is running in the hub
+   */
+  public void release(H hub) {
+    hub.reset();
+    if (!this.closed) {
+      int n = this.slots.length();
+      int start = start();
+      for (int i = 0; i < n; i++) {
+        int idx = (start + i) % n;
+        if (this.slots.get(idx) == null && this.slots.compareAndSet(idx, null, hub)) {
+          if (this.closed && this.slots.compareAndSet(idx, hub, null)) {
+            break;
+          }
+          return;
+        }
+      }
+    }
+    hub.close();
+  }
+
+  /**
+   * Executes business logic within a transactional boundary with a hub of this pool.
+   *
+   * @param <D> the type of data context expected by the logic
+   * @param logic the business logic to execute transactionally
+   * @throws Err if {@link DataHub#txn(Logic)} of the hub throws it
+   * @throws IllegalStateException if the hub cannot be released because a logic is still running
+   *     in it, in which case the hub is dropped without being closed, unless the logic has failed,
+   *     in which case this is suppressed by its error
+   */
+  public <D> void txn(Logic<D> logic) throws Err {
+    var hub = acquire();
+    try {
+      hub.txn(logic);
+    } catch (Throwable e) {
+      releaseAfter(hub, e);
+      throw e;
+    }
+    release(hub);
+  }
+
+  /**
+   * Executes business logic in a non-transactional scope with a hub of this pool.
+   *
+   * @param <D> the type of data context expected by the logic
+   * @param logic the business logic to execute
+   * @throws Err if {@link DataHub#run(Logic)} of the hub throws it
+   * @throws IllegalStateException if the hub cannot be released because a logic is still running
+   *     in it, in which case the hub is dropped without being closed, unless the logic has failed,
+   *     in which case this is suppressed by its error
+   */
+  public <D> void run(Logic<D> logic) throws Err {
+    var hub = acquire();
+    try {
+      hub.run(logic);
+    } catch (Throwable e) {
+      releaseAfter(hub, e);
+      throw e;
+    }
+    release(hub);
+  }
+
+  // The error of the logic is thrown instead of the one of the release.
+  private void releaseAfter(H hub, Throwable e) {
+    try {
+      release(hub);
+    } catch (RuntimeException re) {
+      e.addSuppressed(re);
+    }
+  }
+
+  /**
+   * Closes the idle hubs of this pool. Hubs released after this are closed instead of pooled.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    for (int i = 0, n = this.slots.length(); i < n; i++) {
+      var hub = this.slots.getAndSet(i, null);
+      if (hub != null) {
+        hub.close();
+      }
+    }
+  }
+}
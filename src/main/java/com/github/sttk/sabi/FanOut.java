@@ -0,0 +1,97 @@
+/*
+ * FanOut.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.internal.FanOutImpl;
+import java.util.List;
+
+/**
+ * Runs several data access calls of a logic in parallel and collects their typed results.
+ *
+ * <p>An instance of this interface is obtained with {@link DataHub#fanOut()} inside a {@link
+ * Logic}. Each {@link Task} added by {@link #add(String, Task)} starts right away on the executor
+ * of the hub, and returns a {@link Result} through which its value can be received. {@link #join()}
+ * waits for all the tasks and aggregates their errors, so the latency of independent reads becomes
+ * the maximum of them instead of the sum.
+ *
+ * <pre>{@code
+ * var fan = hub.fanOut();
+ * var user = fan.add("user", () -> data.getUser(id));
+ * var orders = fan.add("orders", () -> data.getOrders(id));
+ * fan.join();
+ * render(user.get(), orders.get());
+ * }</pre>
+ *
+ * <p>Tasks may acquire data connections through the hub while running. All tasks should be joined
+ * before the logic returns. Tasks left running are joined before the transaction is committed, and
+ * are cancelled when the logic fails or ends without a commit, before the data connections are
+ * rolled back or closed.
+ */
+public sealed interface FanOut permits FanOutImpl {
+
+  /**
+   * Represents an error reason when some of the tasks of a fan-out fail.
+   *
+   * @param errors the list of {@link ErrEntry} objects holding the index and the name of the
+   *     failed tasks and their errors
+   */
+  record FailToRunInParallel(List<ErrEntry> errors) {}
+
+  /**
+   * Functional interface representing a task of a fan-out, which returns a value.
+   *
+   * @param <T> the type of the value
+   */
+  @FunctionalInterface
+  interface Task<T> {
+
+    /**
+     * Runs this task.
+     *
+     * @return the value of this task
+     * @throws Err if an error occurs during task execution
+     */
+    T run() throws Err;
+  }
+
+  /**
+   * A future-like handle of the value of a {@link Task}.
+   *
+   * @param <T> the type of the value
+   */
+  sealed interface Result<T> permits FanOutImpl.ResultImpl {
+
+    /**
+     * Waits for the task to finish if necessary and returns its value.
+     *
+     * @return the value returned by the task
+     * @throws Err if the task failed, or the waiting thread was interrupted (wrapping {@link
+     *     AsyncGroup.RunnerInterrupted})
+     */
+    T get() throws Err;
+  }
+
+  /**
+   * Adds a task and starts it in parallel with the other tasks.
+   *
+   * @param <T> the type of the value of the task
+   * @param name the name identifying the task in error entries; the {@link RunnerExecutor} set for
+   *     this name in the hub is used for the task
+   * @param task the task to run
+   * @return the handle of the value of the task
+   */
+  <T> Result<T> add(String name, Task<T> task);
+
+  /**
+   * Waits for all the added tasks to finish.
+   *
+   * <p>After this method returns, this fan-out can be reused for other tasks.
+   *
+   * @throws Err if any task failed (wrapping {@link FailToRunInParallel} whose error entries are
+   *     indexed in the order in which the tasks were added)
+   */
+  void join() throws Err;
+}
@@ -0,0 +1,135 @@
+/*
+ * Histogram.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+/**
+ * A snapshot of a histogram of durations in nanoseconds, passed to {@link MetricsExporter}.
+ *
+ * <p>The values are counted in buckets whose widths grow logarithmically: values below 8 have a
+ * bucket each, and each range between successive powers of two above them is divided into 8
+ * buckets. So a value estimated from the buckets differs from the recorded one by at most 12.5%.
+ */
+public final class Histogram {
+  /** The number of the buckets of a histogram. */
+  public static final int BUCKETS = 8 + 60 * 8;
+
+  private final long[] counts;
+  private final long count;
+  private final long sum;
+  private final long max;
+
+  /**
+   * Creates a snapshot with the counts of the buckets, the sum and the maximum of the values.
+   *
+   * @param counts the counts of the buckets, whose length is {@link #BUCKETS}
+   * @param sum the sum of the recorded values
+   * @param max the maximum of the recorded values
+   * @throws IllegalArgumentException if the length of the counts is not {@link #BUCKETS}
+   */
+  public Histogram(long[] counts, long sum, long max) {
+    if (counts.length != BUCKETS) {
+      throw new IllegalArgumentException("counts must have " + BUCKETS + " buckets");
+    }
+    this.counts = counts.clone();
+    long count = 0L;
+    for (long c : counts) {
+      count += c;
+    }
+    this.count = count;
+    this.sum = sum;
+    this.max = max;
+  }
+
+  /**
+   * Gets the index of the bucket in which the specified value is counted.
+   *
+   * @param value the value
+   * @return the index of the bucket
+   */
+  public static int bucketOf(long value) {
+    if (value < 8L) {
+      return (value < 0L) ? 0 : (int) value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) ((value >>> (exp - 3)) & 7);
+    return 8 + (exp - 3) * 8 + sub;
+  }
+
+  /**
+   * Gets the largest value counted in the bucket of the specified index.
+   *
+   * @param index the index of the bucket
+   * @return the upper bound of the bucket
+   */
+  public static long bucketUpperBound(int index) {
+    if (index < 8) {
+      return index;
+    }
+    int exp = (index - 8) / 8 + 3;
+    int sub = (index - 8) % 8;
+    long width = 1L << (exp - 3);
+    return ((8L + sub) << (exp - 3)) + width - 1L;
+  }
+
+  /**
+   * Gets the number of values counted in the bucket of the specified index.
+   *
+   * @param index the index of the bucket
+   * @return the count of the bucket
+   */
+  public long bucketCount(int index) {
+    return this.counts[index];
+  }
+
+  /**
+   * Gets the number of the recorded values.
+   *
+   * @return the count of values
+   */
+  public long count() {
+    return this.count;
+  }
+
+  /**
+   * Gets the sum of the recorded values.
+   *
+   * @return the sum of values
+   */
+  public long sum() {
+    return this.sum;
+  }
+
+  /**
+   * Gets the maximum of the recorded values.
+   *
+   * @return the maximum value, or zero if no value is recorded
+   */
+  public long max() {
+    return this.max;
+  }
+
+  /**
+   * Estimates the value at the specified percentile.
+   *
+   * @param percentile the percentile from 0 to 100
+   * @return the upper bound of the bucket of the value, no larger than the maximum; or zero if no
+   *     value is recorded
+   */
+  public long valueAtPercentile(double percentile) {
+    if (this.count == 0L) {
+      return 0L;
+    }
+    double p = Math.min(Math.max(percentile, 0.0), 100.0);
+    long rank = Math.max(1L, (long) Math.ceil(p / 100.0 * this.count));
+    long seen = 0L;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), this.max);
+      }
+    }
+    return this.max;
+  }
+}
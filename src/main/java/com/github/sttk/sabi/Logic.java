@@ -5,6 +5,7 @@
 package com.github.sttk.sabi;
 
 import com.github.sttk.errs.Err;
+import java.util.List;
 
 /**
  * Functional interface representing a unit of business logic executed within a {@link DataHub}
@@ -27,4 +28,20 @@ public interface Logic<D> {
    * @throws Err if an error occurs during logic execution
    */
   void run(D data) throws Err;
+
+  /**
+   * Returns the names of the data connections this logic uses, which a {@link DataHub} creates in
+   * parallel before running this logic.
+   *
+   * <p>Data connections are otherwise created one by one when the logic first gets them, so a logic
+   * using several data sources can declare them here to overlap the latencies of their creation.
+   * The declared connections are created even if the logic does not get them, and are committed or
+   * rolled back with the others. Logics run by {@link DataHub#txnBatch(Iterable)} are not asked for
+   * this.
+   *
+   * @return the names of the data connections to create before running; empty by default
+   */
+  default List<String> dataConnNames() {
+    return List.of();
+  }
 }
@@ -0,0 +1,54 @@
+/*
+ * MetricsExporter.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+import java.util.Map;
+
+/**
+ * Receives the metrics recorded by this library, passed to {@link
+ * Sabi#exportMetrics(MetricsExporter)}.
+ *
+ * <p>An implementation of this interface bridges the metrics to a monitoring system. Each metric
+ * has a name and tags, and its value is cumulative since the metrics are enabled by {@link
+ * Sabi#enableMetrics()}. The following metrics are exported:
+ *
+ * <ul>
+ *   <li>{@code sabi.txn.duration} (histogram, tag {@code outcome}): the durations of {@link
+ *       DataHub#txn(Logic)} and {@link DataHub#run(Logic)}, whose outcome is {@code Committed},
+ *       {@code RolledBack}, or {@code Completed} for a run.
+ *   <li>{@code sabi.dataconn.duration} (histogram, tags {@code name} and {@code phase}): the
+ *       durations of the calls to data connections in each {@link Phase}, excluding the {@link
+ *       Runner}s they add.
+ *   <li>{@code sabi.dataconn.failures} (counter, tags {@code name} and {@code phase}): the number
+ *       of failures of data connections in each phase, including those of their runners.
+ *   <li>{@code sabi.txn.failure.cause} (counter, tag {@code state}): the number of data connections
+ *       in failed transactions by {@link TxnFailureCauseState}.
+ *   <li>{@code sabi.txn.failure.recovery} (counter, tags {@code intent} and {@code recovery}): the
+ *       number of data connections in failed transactions by {@link TxnFailureRecovery}, for the
+ *       intent {@code commit} and {@code rollback}.
+ *   <li>{@code sabi.txn.retries}, {@code sabi.txn.retry.recovered} and {@code
+ *       sabi.txn.retry.exhausted} (counters): the values of {@link Sabi#retryMetrics()}.
+ * </ul>
+ */
+public interface MetricsExporter {
+
+  /**
+   * Receives the value of a counter.
+   *
+   * @param name the name of the metric
+   * @param tags the tags of the metric
+   * @param value the cumulative count
+   */
+  void counter(String name, Map<String, String> tags, long value);
+
+  /**
+   * Receives the snapshot of a histogram of durations in nanoseconds.
+   *
+   * @param name the name of the metric
+   * @param tags the tags of the metric
+   * @param histogram the cumulative histogram
+   */
+  void histogram(String name, Map<String, String> tags, Histogram histogram);
+}
@@ -0,0 +1,33 @@
+/*
+ * Phase.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+/**
+ * Defines the lifecycle phases of data sources and data connections in which {@link AsyncGroup}
+ * tasks are run.
+ */
+public enum Phase {
+
+  /** The phase setting up data sources, in which {@link DataSrc#setup(AsyncGroup)} is called. */
+  Setup,
+
+  /** The pre-commit phase, in which {@link DataConn#preCommit(AsyncGroup)} is called. */
+  PreCommit,
+
+  /** The commit phase, in which {@link DataConn#commit(AsyncGroup)} is called. */
+  Commit,
+
+  /** The post-commit phase, in which {@link DataConn#postCommit(AsyncGroup)} is called. */
+  PostCommit,
+
+  /** The rollback phase, in which {@link DataConn#rollback(AsyncGroup)} is called. */
+  Rollback,
+
+  /**
+   * The phase notifying transaction failures, in which {@link DataConn#onTxnFailure(AsyncGroup,
+   * java.util.List)} is called.
+   */
+  OnTxnFailure,
+}
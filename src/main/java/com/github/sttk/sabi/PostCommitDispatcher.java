@@ -0,0 +1,160 @@
+/*
+ * PostCommitDispatcher.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.internal.PostCommitDispatcherImpl;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Runs the post-commit phases of transactions in the background, and retries failed ones with a
+ * durable queue.
+ *
+ * <p>A {@link DataHub} given a dispatcher with {@link DataHub#offloadPostCommit(PostCommitDispatcher)}
+ * returns from {@link DataHub#txn(Logic)} right after the commit phase, and the dispatcher runs
+ * {@link DataConn#postCommit(AsyncGroup)} of the committed data connections and closes them. If the
+ * post-commit of a data connection fails, the data connection is notified with {@link
+ * DataConn#onTxnFailure(AsyncGroup, java.util.List)} as in the foreground. Then, if it returns a
+ * record from {@link DataConn#postCommitRecord()} and a {@link Rerun} is registered for its name,
+ * the record is appended to the queue file and the rerun is retried with an exponential backoff
+ * until it succeeds, or until the maximum number of attempts when one is specified, after which the
+ * record is handed to a {@link DeadLetter} and removed from the queue. Records left in the queue
+ * file are retried again when a dispatcher is opened with the file after a restart of the process.
+ */
+public sealed interface PostCommitDispatcher extends AutoCloseable permits PostCommitDispatcherImpl {
+
+  /**
+   * Represents an error reason when the queue file cannot be opened or read.
+   *
+   * @param file the path of the queue file
+   */
+  record FailToOpenPostCommitQueue(Path file) {}
+
+  /**
+   * Represents an error reason when a record cannot be written to the queue file.
+   *
+   * @param file the path of the queue file
+   */
+  record FailToWritePostCommitQueue(Path file) {}
+
+  /**
+   * Represents an error reason when the rerun of a post-commit has failed the maximum number of
+   * times.
+   *
+   * @param name the name of the data connection
+   * @param record the record of the post-commit
+   * @param attempts the number of the reruns which have failed
+   */
+  record PostCommitRetriesExhausted(String name, String record, int attempts) {}
+
+  /**
+   * Functional interface which reruns the post-commit of a data connection from its record, used
+   * for the retries of failed post-commits.
+   */
+  @FunctionalInterface
+  interface Rerun {
+
+    /**
+     * Reruns the post-commit described by the record.
+     *
+     * @param record the record returned by {@link DataConn#postCommitRecord()}
+     * @throws Err if the post-commit fails again
+     */
+    void rerun(String record) throws Err;
+  }
+
+  /**
+   * Functional interface which receives the post-commits whose retries have been exhausted, for
+   * example to store them for an operator.
+   */
+  @FunctionalInterface
+  interface DeadLetter {
+
+    /**
+     * Receives a post-commit whose retries have been exhausted. If this throws an exception, the
+     * record is kept in the queue file and retried again after the dispatcher is reopened.
+     *
+     * @param err the error with the reason {@link PostCommitRetriesExhausted}, caused by the error
+     *     of the last rerun
+     */
+    void deadLetter(Err err);
+  }
+
+  /**
+   * Opens a dispatcher with the specified queue file and reruns, retrying with the backoff from
+   * one second up to one minute.
+   *
+   * @param file the path of the queue file, which is created if it does not exist
+   * @param reruns the reruns of post-commits mapped by the names of data connections
+   * @return the opened dispatcher
+   * @throws Err if the queue file cannot be opened (wrapping {@link FailToOpenPostCommitQueue})
+   */
+  static PostCommitDispatcher open(Path file, Map<String, Rerun> reruns) throws Err {
+    return open(file, reruns, Duration.ofSeconds(1), Duration.ofMinutes(1));
+  }
+
+  /**
+   * Opens a dispatcher with the specified queue file, reruns and backoff of retries, which retries
+   * each record until it succeeds.
+   *
+   * <p>The records left in the queue file are retried right after opening.
+   *
+   * @param file the path of the queue file, which is created if it does not exist
+   * @param reruns the reruns of post-commits mapped by the names of data connections
+   * @param initialBackoff the delay before the first retry, which doubles on each failure
+   * @param maxBackoff the maximum delay between retries
+   * @return the opened dispatcher
+   * @throws Err if the queue file cannot be opened (wrapping {@link FailToOpenPostCommitQueue})
+   */
+  static PostCommitDispatcher open(
+      Path file, Map<String, Rerun> reruns, Duration initialBackoff, Duration maxBackoff)
+      throws Err {
+    return PostCommitDispatcherImpl.open(file, reruns, initialBackoff, maxBackoff, 0, null);
+  }
+
+  /**
+   * Opens a dispatcher with the specified queue file, reruns, backoff of retries and maximum number
+   * of attempts, which hands the records whose reruns have failed that many times to the dead
+   * letter.
+   *
+   * <p>The records left in the queue file are retried right after opening, counting their attempts
+   * from zero.
+   *
+   * @param file the path of the queue file, which is created if it does not exist
+   * @param reruns the reruns of post-commits mapped by the names of data connections
+   * @param initialBackoff the delay before the first retry, which doubles on each failure
+   * @param maxBackoff the maximum delay between retries
+   * @param maxAttempts the maximum number of reruns of a record
+   * @param deadLetter the receiver of the records whose reruns have failed that many times
+   * @return the opened dispatcher
+   * @throws Err if the queue file cannot be opened (wrapping {@link FailToOpenPostCommitQueue})
+   * @throws IllegalArgumentException if the maximum number of attempts is not positive
+   */
+  static PostCommitDispatcher open(
+      Path file,
+      Map<String, Rerun> reruns,
+      Duration initialBackoff,
+      Duration maxBackoff,
+      int maxAttempts,
+      DeadLetter deadLetter)
+      throws Err {
+    if (maxAttempts <= 0) {
+      throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+    }
+    Objects.requireNonNull(deadLetter, "deadLetter");
+    return PostCommitDispatcherImpl.open(
+        file, reruns, initialBackoff, maxBackoff, maxAttempts, deadLetter);
+  }
+
+  /**
+   * Waits for the post-commits being run to finish, and stops the retries. The records not yet
+   * retried successfully are kept in the queue file.
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,78 @@
+/*
+ * RetryBudget.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the rate of retries of transactions, used with {@link Backoff#withBudget(RetryBudget)}.
+ *
+ * <p>A budget is a token bucket which is refilled at the specified rate and can hold the tokens of
+ * one second. Each retry takes a token, and a retry is given up when there is no token. A budget
+ * shared by all hubs of a process prevents retries from amplifying the load while a data store is
+ * overloaded.
+ */
+public final class RetryBudget {
+  // The bucket is held as the time when it becomes empty if no more tokens are taken, so that a
+  // token is taken by one compare-and-set without locking. A token is taken when that time plus the
+  // interval of tokens is not after now, and the time is not before now minus the span of a full
+  // bucket.
+  private final long interval;
+  private final long span;
+  private final AtomicLong emptyAt;
+  private final LongAdder denied = new LongAdder();
+
+  private RetryBudget(double perSecond) {
+    // Bounded so that the times computed from it do not overflow
+    this.interval = Math.clamp((long) (1_000_000_000.0 / perSecond), 1L, Long.MAX_VALUE / 4);
+    this.span = Math.max(1_000_000_000L, this.interval);
+    this.emptyAt = new AtomicLong(System.nanoTime() - this.span);
+  }
+
+  /**
+   * Creates a budget which allows the specified number of retries per second.
+   *
+   * @param retries the number of retries allowed per second
+   * @return the created budget
+   * @throws IllegalArgumentException if the number is not positive
+   */
+  public static RetryBudget perSecond(double retries) {
+    if (!(retries > 0.0)) {
+      throw new IllegalArgumentException("retries must be positive: " + retries);
+    }
+    return new RetryBudget(retries);
+  }
+
+  /**
+   * Takes a token of this budget if there is one.
+   *
+   * @return {@code true} if a token is taken; {@code false} if the retry should be given up
+   */
+  public boolean tryAcquire() {
+    long now = System.nanoTime();
+    while (true) {
+      long prev = this.emptyAt.get();
+      long base = (prev - (now - this.span) < 0L) ? now - this.span : prev;
+      long next = base + this.interval;
+      if (next - now > 0L) {
+        this.denied.increment();
+        return false;
+      }
+      if (this.emptyAt.compareAndSet(prev, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of retries given up because this budget had no token.
+   *
+   * @return the number of denied retries
+   */
+  public long denied() {
+    return this.denied.sum();
+  }
+}
@@ -0,0 +1,15 @@
+/*
+ * RetryMetrics.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+/**
+ * A snapshot of the counts of transaction retries in this process, returned by {@link
+ * Sabi#retryMetrics()}.
+ *
+ * @param retries the number of retries made
+ * @param recovered the number of transactions which succeeded after retries
+ * @param exhausted the number of retryable transactions given up by their {@link Backoff}s
+ */
+public record RetryMetrics(long retries, long recovered, long exhausted) {}
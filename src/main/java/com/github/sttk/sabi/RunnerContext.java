@@ -0,0 +1,36 @@
+/*
+ * RunnerContext.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+import com.github.sttk.sabi.internal.AsyncGroupImpl;
+
+/**
+ * The context in which a lifecycle method of a data source or data connection, or a {@link Runner}
+ * task added by it, is running.
+ *
+ * <p>The context is carried from the lifecycle method to the runners it adds to an {@link
+ * AsyncGroup}, even when they run on other threads, and errors of the runners are reported under
+ * the index and name of the context. It is available with {@link #current()} inside the lifecycle
+ * methods and the runners, for example to enrich logs and metrics.
+ *
+ * @param txnId the sequence number of the {@link DataHub#run(Logic)} or {@link DataHub#txn(Logic)}
+ *     call in this process, or zero for the setup of global data sources
+ * @param phase the phase being executed, or {@code null} for tasks of a {@link FanOut}
+ * @param index the order of the data source or data connection in the phase, or of the task in a
+ *     {@link FanOut}
+ * @param name the name of the data source or data connection, or of the task in a {@link FanOut}
+ */
+public record RunnerContext(long txnId, Phase phase, int index, String name) {
+
+  /**
+   * Returns the context of the current thread.
+   *
+   * @return the context of the lifecycle method or the runner running on the current thread, or
+   *     {@code null} if the current thread is running neither of them
+   */
+  public static RunnerContext current() {
+    return AsyncGroupImpl.currentContext();
+  }
+}
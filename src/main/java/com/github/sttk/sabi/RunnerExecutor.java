@@ -0,0 +1,73 @@
+/*
+ * RunnerExecutor.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Strategy interface deciding on which threads the {@link Runner} tasks added to an {@link
+ * AsyncGroup} are executed.
+ *
+ * <p>By default, each runner is executed on its own virtual thread. An implementation of this
+ * interface can route runners elsewhere, for example CPU-bound post-commit work to a platform thread
+ * pool or a {@link java.util.concurrent.ForkJoinPool}. It is selectable globally with {@link
+ * Sabi#useRunnerExecutor(RunnerExecutor)}, per hub with {@link
+ * DataHub#useRunnerExecutor(RunnerExecutor)}, and per data connection name with {@link
+ * DataHub#useRunnerExecutor(String, RunnerExecutor)}.
+ */
+@FunctionalInterface
+public interface RunnerExecutor {
+
+  /**
+   * Executes the given task, which wraps a {@link Runner} and records its result, at some time in
+   * the future.
+   *
+   * <p>The task must be executed exactly once. If this method throws a runtime exception, the
+   * runner is treated as failed with the exception.
+   *
+   * @param task the task to execute
+   * @param name the name of the data source or data connection which added the runner
+   * @param phase the phase in which the runner was added, or {@code null} if it is unknown
+   */
+  void execute(Runnable task, String name, Phase phase);
+
+  /**
+   * Returns the default executor, which starts a new virtual thread for each runner.
+   *
+   * @return the executor running each runner on a new virtual thread
+   */
+  static RunnerExecutor virtualThreads() {
+    return (task, name, phase) -> Thread.startVirtualThread(task);
+  }
+
+  /**
+   * Returns an executor which starts a new thread created by the given builder for each runner,
+   * and names the thread by the name of the data connection and the phase, like {@code
+   * "foo/Commit"}.
+   *
+   * @param builder the builder creating threads, for example {@link Thread#ofVirtual()} or {@link
+   *     Thread#ofPlatform()}
+   * @return the executor running each runner on a new named thread
+   */
+  static RunnerExecutor namedThreads(Thread.Builder builder) {
+    var factory = builder.factory();
+    return (task, name, phase) -> {
+      var thread = factory.newThread(task);
+      thread.setName((phase != null) ? name + "/" + phase : name);
+      thread.start();
+    };
+  }
+
+  /**
+   * Returns an executor which delegates runners to the given {@link Executor}, such as a thread
+   * pool.
+   *
+   * @param executor the executor to which runners are delegated
+   * @return the executor delegating runners to the given executor
+   */
+  static RunnerExecutor of(Executor executor) {
+    return (task, name, phase) -> executor.execute(task);
+  }
+}
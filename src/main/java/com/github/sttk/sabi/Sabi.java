@@ -29,6 +29,107 @@ public final class Sabi {
     DataHubInner.useGlobal(name, ds);
   }
 
+  /**
+   * Adds or replaces a global data source with the specified logical name, which can be done even
+   * after the global data sources have been set up.
+   *
+   * <p>Before {@link #setup()}, this works like {@link #uses(String, DataSrc)}, except that the
+   * data sources already registered with the same name are discarded. After that, the data source
+   * is set up at once and published with a new snapshot of the global data sources, which is copied
+   * from the current one. Logics already running keep using the snapshot taken when they began,
+   * and logics beginning after this method returns use the new one. The replaced data source is
+   * closed after no {@link DataHub} uses a snapshot including it, which is after the data
+   * connections created from it have been closed.
+   *
+   * @param name the logical name for the global data source
+   * @param ds the {@link DataSrc} instance to add or to replace the current one with
+   * @throws Err if setting up the data source fails (wrapping {@link
+   *     DataHub.FailToSetupGlobalDataSrcs}), in which case the current data sources remain
+   */
+  public static void replace(String name, DataSrc ds) throws Err {
+    DataHubInner.replaceGlobal(name, ds);
+  }
+
+  /**
+   * Removes the global data source with the specified logical name, which can be done even after
+   * the global data sources have been set up.
+   *
+   * <p>After {@link #setup()}, the data source is removed by publishing a new snapshot of the
+   * global data sources like {@link #replace(String, DataSrc)}, and is closed after no {@link
+   * DataHub} uses a snapshot including it. Logics beginning after this method returns cannot get
+   * data connections of the name.
+   *
+   * @param name the logical name of the global data source to remove
+   */
+  public static void retire(String name) {
+    DataHubInner.retireGlobal(name);
+  }
+
+  /**
+   * Limits the number of {@link Runner} tasks that may run at the same time across all {@link
+   * AsyncGroup} instances in this process, including those of every {@link DataHub}.
+   *
+   * <p>Runners added beyond this limit are queued and started as running ones finish. The error
+   * entries reported for queued runners keep the index and name of the data source or connection
+   * that added them. This method must be called before global data sources are set up or any
+   * {@link DataHub} is created; calls after that are ignored.
+   *
+   * @param max the maximum number of concurrently running runners; zero or a negative value means
+   *     unlimited
+   */
+  public static void limitConcurrentRunners(int max) {
+    DataHubInner.limitGlobalRunners(max);
+  }
+
+  /**
+   * Sets the {@link RunnerExecutor} which executes the {@link Runner} tasks added to {@link
+   * AsyncGroup}s, unless another one is set for a {@link DataHub} or a data connection name.
+   *
+   * <p>This method must be called before {@link #setup()} and the creation of any {@link DataHub};
+   * calls made after that are ignored.
+   *
+   * @param executor the executor of runners; {@code null} means the default, which runs each runner
+   *     on a new virtual thread
+   */
+  public static void useRunnerExecutor(RunnerExecutor executor) {
+    DataHubInner.useGlobalRunnerExecutor(executor);
+  }
+
+  /**
+   * Returns the counts of the retries of transactions made in this process by {@link
+   * DataHub#retryTxnOnFailure(Backoff)}.
+   *
+   * @return the snapshot of the counts of retries
+   */
+  public static RetryMetrics retryMetrics() {
+    return DataHubInner.retryMetrics();
+  }
+
+  /**
+   * Starts recording the metrics of transactions in this process.
+   *
+   * <p>The metrics are not recorded until this method is called, so that transactions are not
+   * slowed down by measuring them when nobody reads them. Once enabled, they are recorded until the
+   * process ends and are read with {@link #exportMetrics(MetricsExporter)}.
+   */
+  public static void enableMetrics() {
+    DataHubInner.enableMetrics();
+  }
+
+  /**
+   * Passes the current values of the metrics of transactions in this process to the specified
+   * exporter, which bridges them to a monitoring system.
+   *
+   * <p>This method can be called at any time from any thread, for example periodically or when a
+   * monitoring system scrapes the application. See {@link MetricsExporter} for the exported
+   * metrics.
+   *
+   * @param exporter the exporter receiving the metrics
+   */
+  public static void exportMetrics(MetricsExporter exporter) {
+    DataHubInner.exportMetrics(exporter);
+  }
+
   /**
    * Sets up all registered global data sources in their registration order.
    *
@@ -21,4 +21,11 @@ public enum TxnFailureCauseState {
 
   /** Indicates that the transaction failed during the post-commit phase of a connection. */
   PostCommitFailure,
+
+  /**
+   * Indicates no failure occurred in the connection itself, but its pre-commit or commit tasks were
+   * cancelled or skipped because another connection or task failed, and the connection remained
+   * uncommitted.
+   */
+  NoneByCancelled,
 }
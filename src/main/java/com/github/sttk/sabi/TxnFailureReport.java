@@ -66,12 +66,13 @@ public class TxnFailureReport {
    * Determines whether this connection was a direct cause of the transaction failure.
    *
    * @return {@code true} if this connection caused the failure; {@code false} if the cause state is
-   *     {@code NoneByCommitted} or {@code NoneByUncommitted}
+   *     {@code NoneByCommitted}, {@code NoneByUncommitted} or {@code NoneByCancelled}
    */
   public boolean isCauseOfFailure() {
     switch (this.cause.state) {
       case NoneByCommitted:
       case NoneByUncommitted:
+      case NoneByCancelled:
         return false;
       default:
         return true;
@@ -87,6 +88,7 @@ public class TxnFailureReport {
   public TxnFailureRecovery recoveryForCommit() {
     switch (this.cause.state) {
       case NoneByUncommitted:
+      case NoneByCancelled:
         switch (this.rollback.state) {
           case NoneByNotRolledBack:
             return TxnFailureRecovery.InvestigateBecauseImpossible;
@@ -147,6 +149,7 @@ public class TxnFailureReport {
   public TxnFailureRecovery recoveryForRollback() {
     switch (this.cause.state) {
       case NoneByUncommitted:
+      case NoneByCancelled:
         switch (this.rollback.state) {
           case NoneByNotRolledBack:
             return TxnFailureRecovery.InvestigateBecauseImpossible;
@@ -4,83 +4,610 @@
  */
 package com.github.sttk.sabi.internal;
 
+import static com.github.sttk.sabi.AsyncGroup.RunnerCancelled;
 import static com.github.sttk.sabi.AsyncGroup.RunnerInterrupted;
+import static com.github.sttk.sabi.AsyncGroup.RunnerSkipped;
+import static com.github.sttk.sabi.AsyncGroup.RunnerTimedOut;
 
 import com.github.sttk.errs.Err;
 import com.github.sttk.sabi.AsyncGroup;
 import com.github.sttk.sabi.ErrEntry;
 import com.github.sttk.sabi.Runner;
+import com.github.sttk.sabi.RunnerContext;
+import com.github.sttk.sabi.RunnerExecutor;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
 
 public final class AsyncGroupImpl implements AsyncGroup {
-  private List<ErrEntry> eeList = new ArrayList<>();
-  private VthEntry vthHead;
-  private VthEntry vthLast;
-  int _index;
-  String _name;
+  // A deadline is a value of System.nanoTime(), and this value means no deadline.
+  static final long NO_DEADLINE = 0L;
 
-  AsyncGroupImpl() {}
+  static final RunnerExecutor DEFAULT_EXECUTOR = RunnerExecutor.virtualThreads();
+
+  static volatile Semaphore globalSlots;
+  static volatile RunnerExecutor globalExecutor;
+
+  // The context given to runners added outside of any context.
+  private static final RunnerContext NO_CONTEXT = new RunnerContext(0L, null, 0, null);
+
+  // The context of the lifecycle method or the runner being run on the current thread, which is
+  // captured by runners added on this thread. This holds a RunnerContext or a ContextScope.
+  private static final ThreadLocal<Object> CONTEXT = new ThreadLocal<>();
+
+  // The runner entry being run on the current thread.
+  private static final ThreadLocal<VthEntry> CURRENT = new ThreadLocal<>();
+
+  private final ConcurrentLinkedQueue<ErrEntry> errors = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<VthEntry> entries = new ConcurrentLinkedQueue<>();
+  private final AtomicReference<VthEntry> pending = new AtomicReference<>();
+  private final AtomicBoolean cancelled = new AtomicBoolean();
+  private volatile VthEntry inlined;
+  private final Semaphore localSlots;
+  private final boolean inlineLast;
+  volatile boolean failFast;
+  RunnerExecutor executor;
+  Map<String, RunnerExecutor> executors;
+
+  AsyncGroupImpl() {
+    this(0, false);
+  }
+
+  AsyncGroupImpl(int maxRunners, boolean inlineLast) {
+    this.localSlots = (maxRunners > 0) ? new Semaphore(maxRunners) : null;
+    this.inlineLast = inlineLast;
+  }
+
+  static void limitGlobally(int maxRunners) {
+    globalSlots = (maxRunners > 0) ? new Semaphore(maxRunners) : null;
+  }
+
+  static void useGlobally(RunnerExecutor executor) {
+    globalExecutor = executor;
+  }
+
+  public static RunnerContext currentContext() {
+    var c = CONTEXT.get();
+    if (c instanceof ContextScope scope) {
+      return scope.get();
+    }
+    return (RunnerContext) c;
+  }
+
+  // Makes the given context current on this thread, and returns the previous one which must be
+  // passed to exit() when the scope ends.
+  static Object enter(RunnerContext ctx) {
+    var prev = CONTEXT.get();
+    CONTEXT.set(ctx);
+    return prev;
+  }
+
+  static Object enter(ContextScope scope) {
+    var prev = CONTEXT.get();
+    CONTEXT.set(scope);
+    return prev;
+  }
+
+  // The entry of the thread local is not removed but set to null, so that entering again does not
+  // allocate it.
+  static void exit(Object prev) {
+    CONTEXT.set(prev);
+  }
+
+  // Returns the earlier of the given deadline and the time after the given timeout in nanoseconds
+  // from now. A timeout of zero or negative means no timeout.
+  static long deadline(long deadline, long timeout) {
+    if (timeout <= 0L) {
+      return deadline;
+    }
+    long d = System.nanoTime() + timeout;
+    if (d == NO_DEADLINE) {
+      d++;
+    }
+    if (deadline == NO_DEADLINE || d - deadline < 0L) {
+      return d;
+    }
+    return deadline;
+  }
+
+  public static long toNanos(Duration timeout) {
+    if (timeout == null || timeout.isNegative()) {
+      return 0L;
+    }
+    try {
+      return timeout.toNanos();
+    } catch (ArithmeticException e) {
+      return Long.MAX_VALUE;
+    }
+  }
 
   @Override
   public void add(Runner runner) {
-    var index = this._index;
-    var name = this._name;
-    var vth =
-        Thread.ofVirtual()
-            .start(
-                () -> {
-                  try {
-                    runner.run();
-                  } catch (Err err) {
-                    addErr(index, name, err);
-                  } catch (RuntimeException e) {
-                    addErr(index, name, e);
-                  }
-                });
-
-    var ve = new VthEntry(index, name, vth);
-    if (this.vthLast == null) {
-      this.vthHead = ve;
-      this.vthLast = ve;
+    var ve = newEntry(runner);
+    if (ve != null) {
+      enqueue(ve);
+    }
+  }
+
+  @Override
+  public Handle schedule(Runner runner, Handle... prerequisites) {
+    var pres = new VthEntry[prerequisites.length];
+    for (int i = 0; i < prerequisites.length; i++) {
+      if (!(prerequisites[i] instanceof VthEntry pe) || pe.group != this) {
+        throw new IllegalArgumentException("A handle not returned by this group");
+      }
+      pres[i] = pe;
+    }
+
+    var ve = newEntry(runner);
+    if (ve == null) {
+      // This entry is never run, and so its dependents are skipped.
+      ve = new VthEntry(this, NO_CONTEXT, runner);
+      ve.complete(false);
+      return ve;
+    }
+    if (pres.length == 0) {
+      enqueue(ve);
+      return ve;
+    }
+
+    // The count of prerequisites is held by one more until all of them are registered, so that this
+    // entry is not released on the way.
+    ve.waiting = pres.length + 1;
+    register(ve);
+    for (var pe : pres) {
+      pe.addDependent(ve);
+    }
+    release(ve, true);
+    return ve;
+  }
+
+  // Schedules the runner without prerequisites in the same way as schedule(), passing its handle
+  // to the given consumer before the runner is started, so that the handle is set before anything
+  // run by the runner can read it.
+  Handle submit(Runner runner, Consumer<Handle> onHandle) {
+    var ve = newEntry(runner);
+    if (ve == null) {
+      ve = new VthEntry(this, NO_CONTEXT, runner);
+      onHandle.accept(ve);
+      ve.complete(false);
+      return ve;
+    }
+    onHandle.accept(ve);
+    enqueue(ve);
+    return ve;
+  }
+
+  private VthEntry newEntry(Runner runner) {
+    var cur = CURRENT.get();
+    if (cur != null && cur.group == this && cur.isTimedOut()) {
+      // A runner already given up by join() cannot add runners to the next join().
+      return null;
+    }
+    var ctx = currentContext();
+    return new VthEntry(this, (ctx != null) ? ctx : NO_CONTEXT, runner);
+  }
+
+  private void enqueue(VthEntry ve) {
+    if (this.cancelled.get()) {
+      addEntry(new ErrEntry(ve.index, ve.name, new Err(new RunnerCancelled())));
+      ve.complete(false);
+      ve.done.countDown();
+      return;
+    }
+
+    if (this.inlineLast) {
+      // The last added runner is kept back to be run on the thread calling join().
+      ve = this.pending.getAndSet(ve);
+      if (ve == null) {
+        return;
+      }
+    }
+
+    start(ve);
+  }
+
+  private void start(VthEntry ve) {
+    register(ve);
+    dispatch(ve);
+  }
+
+  // An entry is registered before it is executed and the cancellation flag is checked after that,
+  // so that either cancel() finds this entry or this entry finds the flag.
+  private void register(VthEntry ve) {
+    this.entries.add(ve);
+    if (this.cancelled.get()) {
+      ve.cancelled = true;
+    }
+  }
+
+  private void dispatch(VthEntry ve) {
+    var local = this.localSlots;
+    var global = globalSlots;
+    try {
+      executorOf(ve.name).execute(() -> execute(ve, local, global), ve.name, ve.ctx.phase());
+    } catch (RuntimeException e) {
+      if (ve.settle()) {
+        addErr(ve.index, ve.name, e);
+      }
+      ve.complete(false);
+      ve.done.countDown();
+    }
+  }
+
+  // Called once for each prerequisite of a scheduled entry when it finishes, and once more when
+  // all prerequisites are registered. The entry is dispatched or skipped on the last call.
+  void release(VthEntry ve, boolean succeeded) {
+    if (!ve.release(succeeded)) {
+      return;
+    }
+    if (ve.blocked) {
+      if (ve.settle()) {
+        addEntry(new ErrEntry(ve.index, ve.name, new Err(new RunnerSkipped())));
+      }
+      ve.complete(false);
+      ve.done.countDown();
+      return;
+    }
+    dispatch(ve);
+  }
+
+  // An executor given for the name of a data connection takes precedence over one given for the
+  // group, which takes precedence over the global one.
+  private RunnerExecutor executorOf(String name) {
+    var map = this.executors;
+    if (map != null && !map.isEmpty()) {
+      var e = map.get(name);
+      if (e != null) {
+        return e;
+      }
+    }
+    var e = this.executor;
+    if (e != null) {
+      return e;
+    }
+    e = globalExecutor;
+    return (e != null) ? e : DEFAULT_EXECUTOR;
+  }
+
+  private void execute(VthEntry ve, Semaphore local, Semaphore global) {
+    ve.attach();
+    boolean succeeded = false;
+    try {
+      succeeded = run(ve, local, global);
+    } finally {
+      ve.detach();
+      ve.complete(succeeded);
+      ve.done.countDown();
+    }
+  }
+
+  // Runners over the limits wait here for slots, and start in the order in which slots are freed.
+  // The slots are held until the error of the runner is recorded, so that a cancellation by the
+  // error is in time for runners waiting for the slots.
+  // The result of a runner is recorded only if the runner settles before join() gives it up at a
+  // deadline. This returns true only if the runner has succeeded and the result is recorded.
+  private boolean run(VthEntry ve, Semaphore local, Semaphore global) {
+    try {
+      acquireSlots(local, global);
+    } catch (InterruptedException e) {
+      if (ve.settle()) {
+        fail(ve, new Err(new RunnerInterrupted(), e));
+      }
+      return false;
+    }
+    var prev = CURRENT.get();
+    CURRENT.set(ve);
+    var prevCtx = enter(ve.ctx);
+    try {
+      if (ve.isTimedOut()) {
+        return false;
+      }
+      if (ve.cancelled) {
+        if (ve.settle()) {
+          addEntry(new ErrEntry(ve.index, ve.name, new Err(new RunnerCancelled())));
+        }
+        return false;
+      }
+      ve.runner.run();
+      return ve.settle();
+    } catch (Err err) {
+      if (ve.settle()) {
+        fail(ve, err);
+      }
+      return false;
+    } catch (RuntimeException e) {
+      if (ve.settle()) {
+        fail(ve, new Err(new AsyncGroup.RuntimeExceptionOccured(), e));
+      }
+      return false;
+    } finally {
+      exit(prevCtx);
+      CURRENT.set(prev);
+      releaseSlots(local, global);
+    }
+  }
+
+  private static void acquireSlots(Semaphore local, Semaphore global) throws InterruptedException {
+    if (local != null) {
+      local.acquire();
+    }
+    if (global != null) {
+      try {
+        global.acquire();
+      } catch (InterruptedException e) {
+        if (local != null) {
+          local.release();
+        }
+        throw e;
+      }
+    }
+  }
+
+  private static void releaseSlots(Semaphore local, Semaphore global) {
+    if (global != null) {
+      global.release();
+    }
+    if (local != null) {
+      local.release();
+    }
+  }
+
+  private void fail(VthEntry ve, Err err) {
+    if (ve.cancelled) {
+      addEntry(new ErrEntry(ve.index, ve.name, new Err(new RunnerCancelled(), err)));
     } else {
-      this.vthLast.next = ve;
-      this.vthLast = ve;
+      addErr(ve.index, ve.name, err);
     }
   }
 
-  synchronized void addErr(int index, String name, Err err) {
-    var ee = new ErrEntry(index, name, err);
-    this.eeList.add(ee);
+  void addErr(int index, String name, Err err) {
+    addEntry(new ErrEntry(index, name, err));
+    if (this.failFast) {
+      cancel();
+    }
   }
 
-  synchronized void addErr(int index, String name, RuntimeException e) {
+  void addErr(int index, String name, RuntimeException e) {
     var err = new Err(new AsyncGroup.RuntimeExceptionOccured(), e);
-    var ee = new ErrEntry(index, name, err);
-    this.eeList.add(ee);
+    addErr(index, name, err);
+  }
+
+  private void addEntry(ErrEntry ee) {
+    this.errors.add(ee);
+  }
+
+  // Interrupts all runners still running and prevents runners not yet started from running. The
+  // errors of these runners are reported with RunnerCancelled.
+  void cancel() {
+    if (!this.cancelled.compareAndSet(false, true)) {
+      return;
+    }
+
+    for (var ve : this.entries) {
+      ve.cancelled = true;
+      ve.interrupt();
+    }
+    var pe = this.pending.get();
+    if (pe != null) {
+      pe.cancelled = true;
+    }
+    pe = this.inlined;
+    if (pe != null) {
+      pe.cancelled = true;
+    }
   }
 
   List<ErrEntry> join() {
-    for (var ve = this.vthHead; ve != null; ve = ve.next) {
-      try {
-        ve.thread.join();
-      } catch (InterruptedException e) {
-        addErr(ve.index, ve.name, new Err(new RunnerInterrupted(), e));
+    return join(NO_DEADLINE);
+  }
+
+  // Waits for all added runners, including ones added by running runners, and returns the errors
+  // of them. After this method returns, this group has no runners and errors and can be reused.
+  //
+  // Runners not finished at the deadline are interrupted and given up with RunnerTimedOut. Their
+  // results after that are discarded. When a deadline is given, the runner kept back to be run
+  // inline is started on its own thread instead, so that the calling thread is not blocked over
+  // the deadline.
+  List<ErrEntry> join(long deadline) {
+    while (true) {
+      var pe = this.pending.getAndSet(null);
+      if (pe != null) {
+        if (deadline != NO_DEADLINE) {
+          start(pe);
+        } else {
+          this.inlined = pe;
+          if (this.cancelled.get()) {
+            pe.cancelled = true;
+          }
+          pe.complete(run(pe, this.localSlots, globalSlots));
+          this.inlined = null;
+        }
+      }
+
+      int n = 0;
+      for (var ve : this.entries) {
+        try {
+          await(ve, deadline);
+        } catch (InterruptedException e) {
+          addErr(ve.index, ve.name, new Err(new RunnerInterrupted(), e));
+        }
+        n++;
+      }
+
+      // Runners joined above may have added runners during this iteration.
+      if (n == this.entries.size() && this.pending.get() == null) {
+        break;
       }
     }
-    return this.eeList;
+
+    this.entries.clear();
+    this.cancelled.set(false);
+
+    if (this.errors.isEmpty()) {
+      return Collections.emptyList();
+    }
+    var list = new ArrayList<ErrEntry>();
+    for (var ee = this.errors.poll(); ee != null; ee = this.errors.poll()) {
+      list.add(ee);
+    }
+    return list;
+  }
+
+  // Waits for the runner of the given handle returned by schedule() to finish.
+  static void awaitHandle(Handle handle) throws InterruptedException {
+    ((VthEntry) handle).done.await();
+  }
+
+  private void await(VthEntry ve, long deadline) throws InterruptedException {
+    if (deadline == NO_DEADLINE) {
+      ve.done.await();
+      return;
+    }
+    long remaining = deadline - System.nanoTime();
+    if (remaining > 0L && ve.done.await(remaining, TimeUnit.NANOSECONDS)) {
+      return;
+    }
+    if (ve.timeOut()) {
+      addEntry(new ErrEntry(ve.index, ve.name, new Err(new RunnerTimedOut())));
+      ve.interrupt();
+    } else {
+      // The runner has settled just now and is about to end.
+      ve.done.await();
+    }
   }
 }
 
-class VthEntry {
+class VthEntry implements AsyncGroup.Handle {
+  private static final int RUNNING = 0;
+  private static final int SETTLED = 1;
+  private static final int TIMED_OUT = 2;
+  private static final AtomicIntegerFieldUpdater<VthEntry> STATE =
+      AtomicIntegerFieldUpdater.newUpdater(VthEntry.class, "state");
+
+  private static final int NOT_INTERRUPTED = 0;
+  private static final int INTERRUPTING = 1;
+  private static final int INTERRUPTED = 2;
+  private static final AtomicIntegerFieldUpdater<VthEntry> INTERRUPT =
+      AtomicIntegerFieldUpdater.newUpdater(VthEntry.class, "interrupt");
+
+  final AsyncGroupImpl group;
+  final RunnerContext ctx;
   final int index;
   final String name;
-  final Thread thread;
-  VthEntry next;
+  final Runner runner;
+  final CountDownLatch done = new CountDownLatch(1);
+  volatile boolean cancelled;
+  private volatile int state;
+  private volatile int interrupt;
+  private volatile Thread thread;
+
+  // The dependents of this entry are pushed onto a lock-free stack, which is closed by replacing it
+  // with the node of the outcome when this entry finishes. The count of the prerequisites not yet
+  // finished is decremented by CAS, and whether any of them has failed is set before that.
+  private static final Dependent SUCCEEDED = new Dependent(null, null);
+  private static final Dependent FAILED = new Dependent(null, null);
+  private static final AtomicReferenceFieldUpdater<VthEntry, Dependent> DEPENDENTS =
+      AtomicReferenceFieldUpdater.newUpdater(VthEntry.class, Dependent.class, "dependents");
+  private static final AtomicIntegerFieldUpdater<VthEntry> WAITING =
+      AtomicIntegerFieldUpdater.newUpdater(VthEntry.class, "waiting");
+  private volatile Dependent dependents;
+  volatile int waiting;
+  volatile boolean blocked;
+
+  private record Dependent(VthEntry entry, Dependent next) {}
+
+  VthEntry(AsyncGroupImpl group, RunnerContext ctx, Runner runner) {
+    this.group = group;
+    this.ctx = ctx;
+    this.index = ctx.index();
+    this.name = ctx.name();
+    this.runner = runner;
+  }
+
+  void addDependent(VthEntry dep) {
+    while (true) {
+      var head = this.dependents;
+      if (head == SUCCEEDED || head == FAILED) {
+        this.group.release(dep, head == SUCCEEDED);
+        return;
+      }
+      if (DEPENDENTS.compareAndSet(this, head, new Dependent(dep, head))) {
+        return;
+      }
+    }
+  }
+
+  void complete(boolean succeeded) {
+    var head = DEPENDENTS.getAndSet(this, succeeded ? SUCCEEDED : FAILED);
+    if (head == null || head == SUCCEEDED || head == FAILED) {
+      return;
+    }
+    // Released in the order in which they were added
+    Dependent reversed = null;
+    for (var n = head; n != null; n = n.next) {
+      reversed = new Dependent(n.entry, reversed);
+    }
+    for (var n = reversed; n != null; n = n.next) {
+      this.group.release(n.entry, succeeded);
+    }
+  }
+
+  // Returns true if this is the last call for the prerequisites of this entry.
+  boolean release(boolean succeeded) {
+    if (!succeeded) {
+      this.blocked = true;
+    }
+    return WAITING.decrementAndGet(this) == 0;
+  }
+
+  void attach() {
+    this.thread = Thread.currentThread();
+  }
+
+  // Because the thread may be reused by an executor for other tasks, an interruption for this
+  // entry must not be left on it. So this waits for an interruption in progress to complete and
+  // clears it.
+  void detach() {
+    this.thread = null;
+    while (this.interrupt == INTERRUPTING) {
+      Thread.onSpinWait();
+    }
+    if (this.interrupt == INTERRUPTED) {
+      Thread.interrupted();
+    }
+  }
+
+  void interrupt() {
+    if (INTERRUPT.compareAndSet(this, NOT_INTERRUPTED, INTERRUPTING)) {
+      var t = this.thread;
+      if (t != null) {
+        t.interrupt();
+      }
+      this.interrupt = INTERRUPTED;
+    }
+  }
+
+  boolean settle() {
+    return STATE.compareAndSet(this, RUNNING, SETTLED);
+  }
+
+  boolean timeOut() {
+    return STATE.compareAndSet(this, RUNNING, TIMED_OUT);
+  }
 
-  VthEntry(int index, String name, Thread thread) {
-    this.index = index;
-    this.name = name;
-    this.thread = thread;
+  boolean isTimedOut() {
+    return this.state == TIMED_OUT;
   }
 }
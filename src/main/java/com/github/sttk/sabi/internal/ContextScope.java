@@ -0,0 +1,35 @@
+/*
+ * ContextScope.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi.internal;
+
+import com.github.sttk.sabi.Phase;
+import com.github.sttk.sabi.RunnerContext;
+
+// A mutable context reused for the lifecycle methods called one after another on a thread. The
+// immutable RunnerContext is created only when it is needed by a runner or RunnerContext.current().
+final class ContextScope {
+  private long txnId;
+  private Phase phase;
+  int index;
+  String name;
+  private RunnerContext ctx;
+
+  void set(long txnId, Phase phase, int index, String name) {
+    this.txnId = txnId;
+    this.phase = phase;
+    this.index = index;
+    this.name = name;
+    this.ctx = null;
+  }
+
+  RunnerContext get() {
+    var ctx = this.ctx;
+    if (ctx == null) {
+      ctx = new RunnerContext(this.txnId, this.phase, this.index, this.name);
+      this.ctx = ctx;
+    }
+    return ctx;
+  }
+}
@@ -4,14 +4,80 @@
  */
 package com.github.sttk.sabi.internal;
 
+import com.github.sttk.sabi.AsyncGroup;
 import com.github.sttk.sabi.DataConn;
+import java.util.List;
 
 public class DataConnContainer {
+  static final int PRE_COMMIT = 1;
+  static final int COMMIT = 1 << 1;
+  static final int POST_COMMIT = 1 << 2;
+  static final int ROLLBACK = 1 << 3;
+  static final int ON_TXN_FAILURE = 1 << 4;
+  static final int SAVEPOINT = 1 << 5;
+
+  // The phases in which the methods of a class of data connections do something, detected once per
+  // class by whether the default methods of DataConn are overridden.
+  private static final ClassValue<Integer> PHASES =
+      new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> cls) {
+          int phases = COMMIT | ROLLBACK;
+          if (overrides(cls, "preCommit", AsyncGroup.class)) {
+            phases |= PRE_COMMIT;
+          }
+          if (overrides(cls, "postCommit", AsyncGroup.class)) {
+            phases |= POST_COMMIT;
+          }
+          if (overrides(cls, "onTxnFailure", AsyncGroup.class, List.class)) {
+            phases |= ON_TXN_FAILURE;
+          }
+          if (overrides(cls, "rollbackToSavepoint", AsyncGroup.class, int.class)) {
+            phases |= SAVEPOINT;
+          }
+          return phases;
+        }
+      };
+
+  private static boolean overrides(Class<?> cls, String name, Class<?>... params) {
+    try {
+      return cls.getMethod(name, params).getDeclaringClass() != DataConn.class;
+    } catch (NoSuchMethodException | SecurityException e) {
+      return true;
+    }
+  }
+
   final String name;
-  final DataConn conn;
+  DataConn conn;
+  int phases;
+  // The depth of the nested transaction scope in which the connection was created.
+  int depth;
+  // The duration of the call in the current phase while metrics are enabled, or -1 if not called.
+  long elapsed = -1L;
+  Metrics.DataConnStats stats;
+  // The connection kept open for the next logic after it has been reset, the number of logics
+  // which have used the connection, and the time when it was reset if the idle time is limited.
+  DataConn idleConn;
+  int uses;
+  long idleSince;
+  // Whether the container has been added to a manager, which keeps it for its idle connection.
+  boolean kept;
 
   DataConnContainer(String name, DataConn conn) {
     this.name = name;
+    setConn(conn);
+  }
+
+  void setConn(DataConn conn) {
     this.conn = conn;
+    this.depth = 0;
+    this.elapsed = -1L;
+    if (conn == null) {
+      this.phases = 0;
+    } else if (conn.isReadOnly()) {
+      this.phases = PHASES.get(conn.getClass()) & ~(COMMIT | ROLLBACK);
+    } else {
+      this.phases = PHASES.get(conn.getClass());
+    }
   }
 }
@@ -0,0 +1,96 @@
+/*
+ * DataConnKeyImpl.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi.internal;
+
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataConnKey;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+public final class DataConnKeyImpl<C extends DataConn> implements DataConnKey<C> {
+  // Keys are interned by name in a map held by their class, so that a key does not keep the class
+  // of another class loader from being unloaded, and is collected with its class.
+  private static final ClassValue<ConcurrentHashMap<String, DataConnKeyImpl<?>>> KEYS =
+      new ClassValue<>() {
+        @Override
+        protected ConcurrentHashMap<String, DataConnKeyImpl<?>> computeValue(Class<?> cls) {
+          return new ConcurrentHashMap<>();
+        }
+      };
+
+  // The slots of the live keys, which are guarded by SLOTS_LOCK. The slot of a collected key is
+  // reused by a new key, so that the slots are dense and as many as the live keys.
+  private static final ReentrantLock SLOTS_LOCK = new ReentrantLock();
+  private static final BitSet SLOTS = new BitSet();
+  private static final Set<SlotRef> REFS = new HashSet<>();
+  private static final ReferenceQueue<DataConnKeyImpl<?>> COLLECTED = new ReferenceQueue<>();
+
+  private static final class SlotRef extends WeakReference<DataConnKeyImpl<?>> {
+    final int slot;
+
+    SlotRef(DataConnKeyImpl<?> key) {
+      super(key, COLLECTED);
+      this.slot = key.slot;
+    }
+  }
+
+  private final String name;
+  private final Class<C> cls;
+  final int slot;
+
+  private DataConnKeyImpl(String name, Class<C> cls, int slot) {
+    this.name = name;
+    this.cls = cls;
+    this.slot = slot;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <C extends DataConn> DataConnKey<C> of(String name, Class<C> cls) {
+    var keys = KEYS.get(cls);
+    var key = keys.get(name);
+    if (key == null) {
+      key = keys.computeIfAbsent(name, n -> newKey(n, cls));
+    }
+    return (DataConnKey<C>) key;
+  }
+
+  private static <C extends DataConn> DataConnKeyImpl<C> newKey(String name, Class<C> cls) {
+    SLOTS_LOCK.lock();
+    try {
+      for (var ref = COLLECTED.poll(); ref != null; ref = COLLECTED.poll()) {
+        var sr = (SlotRef) ref;
+        REFS.remove(sr);
+        SLOTS.clear(sr.slot);
+      }
+      int slot = SLOTS.nextClearBit(0);
+      SLOTS.set(slot);
+      var key = new DataConnKeyImpl<>(name, cls, slot);
+      REFS.add(new SlotRef(key));
+      return key;
+    } finally {
+      SLOTS_LOCK.unlock();
+    }
+  }
+
+  @Override
+  public String name() {
+    return this.name;
+  }
+
+  @Override
+  public Class<C> type() {
+    return this.cls;
+  }
+
+  @Override
+  public String toString() {
+    return "DataConnKey { name = " + this.name + ", type = " + this.cls.getName() + " }";
+  }
+}
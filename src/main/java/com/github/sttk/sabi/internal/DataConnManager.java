@@ -4,24 +4,64 @@
  */
 package com.github.sttk.sabi.internal;
 
+import static com.github.sttk.sabi.AsyncGroup.RunnerCancelled;
+import static com.github.sttk.sabi.AsyncGroup.RunnerSkipped;
 import static com.github.sttk.sabi.DataConn.FailToCommitDataConn;
 import static com.github.sttk.sabi.DataConn.FailToPostCommitDataConn;
 import static com.github.sttk.sabi.DataConn.FailToPreCommitDataConn;
+import static com.github.sttk.sabi.DataHub.SavepointNotSupported;
 
 import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.ErrEntry;
+import com.github.sttk.sabi.Phase;
+import com.github.sttk.sabi.RunnerExecutor;
 import com.github.sttk.sabi.TxnFailureCause;
 import com.github.sttk.sabi.TxnFailureCauseState;
+import com.github.sttk.sabi.TxnFailureReport;
 import com.github.sttk.sabi.TxnFailureRollback;
 import com.github.sttk.sabi.TxnFailureRollbackState;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DataConnManager {
+  // The containers in the order of the declared names followed by the order in which the current
+  // transaction got their connections.
   final ArrayList<DataConnContainer> list;
+  // The index in the list by name, which is current for the declared names and for the names
+  // listed after them in the current transaction, and stale for the others.
   final Map<String, Integer> indexMap;
+  // The number of the slots of the declared names at the head of the list.
+  private int declared;
+  // All the containers ever added, whose connections may be kept open while idle.
+  private final ArrayList<DataConnContainer> kept = new ArrayList<>();
   boolean committed;
+  int maxRunners;
+  boolean inlineLast;
+  boolean failFast;
+  long deadline;
+  final long[] timeouts = new long[Phase.values().length];
+  RunnerExecutor executor;
+  Map<String, RunnerExecutor> executors;
+  PostCommitDispatcherImpl dispatcher;
+  int maxUses;
+  long maxIdle;
+  long txnId;
+  // The snapshot of the global data sources pinned by the hub, which the connections handed over
+  // to the dispatcher keep pinned until they are closed.
+  DataSrcSnapshot snapshot;
+  private AsyncGroupImpl ag;
+
+  // The number of batches of connections handed over to the dispatcher and not closed yet, which
+  // the hub waits for before closing its local data sources.
+  private int dispatched;
+  private final ReentrantLock dispatchLock = new ReentrantLock();
+  private final Condition allClosed = this.dispatchLock.newCondition();
+  private final ContextScope scope = new ContextScope();
 
   DataConnManager() {
     this.list = new ArrayList<>();
@@ -37,11 +77,18 @@ public class DataConnManager {
       this.indexMap.put(names.get(i), i);
       this.list.add(new DataConnContainer(names.get(i), null));
     }
+    this.declared = names.size();
   }
 
+  // Lists a container once per transaction, which may be one added in a former transaction and
+  // kept by the hub.
   void add(DataConnContainer cont) {
+    if (!cont.kept) {
+      cont.kept = true;
+      this.kept.add(cont);
+    }
     var idx = this.indexMap.get(cont.name);
-    if (idx != null) {
+    if (idx != null && (idx < this.declared || isListed(idx, cont.name))) {
       // Because earlier ones take precedence when names overlap
       if (this.list.get(idx).conn == null) {
         this.list.set(idx, cont);
@@ -52,122 +99,387 @@ public class DataConnManager {
     }
   }
 
+  private boolean isListed(int idx, String name) {
+    return idx < this.list.size() && this.list.get(idx).name.equals(name);
+  }
+
   void prepareTxnFailureReportBuilders(ArrayList<TxnFailureReportBuilder> list) {
-    list.ensureCapacity(this.indexMap.size());
-    for (var cont : this.list) {
+    list.ensureCapacity(this.list.size());
+    for (int i = 0, n = this.list.size(); i < n; i++) {
+      var cont = this.list.get(i);
       if (cont.conn != null) {
         list.add(new TxnFailureReportBuilder(cont.name, cont.conn.getClass()));
       }
     }
   }
 
-  void commit(List<TxnFailureReportBuilder> builders) throws Err {
-    var ag = new AsyncGroupImpl();
-    int ii = 0;
-    for (var cont : this.list) {
-      if (cont.conn == null) {
-        continue;
-      }
-      ag._name = cont.name;
-      ag._index = ii;
-      ii++;
-      try {
-        cont.conn.preCommit(ag);
-      } catch (Err err) {
-        ag.addErr(ag._index, ag._name, err);
-        break;
-      } catch (RuntimeException re) {
-        ag.addErr(ag._index, ag._name, re);
-        break;
-      }
+  // Report builders are needed only when a transaction fails, so they are created at the first
+  // failure and not on the successful path.
+  private void ensureReportBuilders(ArrayList<TxnFailureReportBuilder> builders) {
+    if (builders.isEmpty()) {
+      prepareTxnFailureReportBuilders(builders);
     }
-    var errors = ag.join();
+  }
 
-    if (!errors.isEmpty()) {
-      for (var ee : errors) {
-        int idx = ee.index;
-        builders.get(idx).cause = new TxnFailureCause(TxnFailureCauseState.LogicFailure, ee.err);
-      }
-      throw new Err(new FailToPreCommitDataConn(errors));
+  // The phases in which any of the connections has something to do.
+  private int phases() {
+    int phases = 0;
+    for (int i = 0, n = this.list.size(); i < n; i++) {
+      phases |= this.list.get(i).phases;
     }
+    return phases;
+  }
 
-    ag = new AsyncGroupImpl();
-    ii = 0;
-    for (var cont : this.list) {
-      if (cont.conn == null) {
-        continue;
-      }
-      ag._name = cont.name;
-      ag._index = ii;
-      ii++;
-      if (!cont.conn.isCommitted()) {
+  void commit(ArrayList<TxnFailureReportBuilder> builders) throws Err {
+    int phases = phases();
+    if (phases == 0) {
+      this.committed = true;
+      return;
+    }
+
+    var ag = group();
+    ag.failFast = this.failFast;
+    var scope = this.scope;
+
+    if ((phases & DataConnContainer.PRE_COMMIT) != 0) {
+      long deadline = deadlineOf(Phase.PreCommit);
+      var pev = JfrEvents.beginPhase();
+      var events = JfrEvents.dataConnEvents(this.list.size());
+      boolean metered = Metrics.enabled;
+      int ii = 0;
+      for (int i = 0, n = this.list.size(); i < n; i++) {
+        var cont = this.list.get(i);
+        if (cont.conn == null) {
+          continue;
+        }
+        int index = ii++;
+        if ((cont.phases & DataConnContainer.PRE_COMMIT) == 0) {
+          continue;
+        }
+        scope.set(this.txnId, Phase.PreCommit, index, cont.name);
+        var prev = AsyncGroupImpl.enter(scope);
+        JfrEvents.beginDataConn(events, index);
+        long t0 = metered ? System.nanoTime() : 0L;
         try {
-          cont.conn.commit(ag);
+          cont.conn.preCommit(ag);
         } catch (Err err) {
-          ag.addErr(ag._index, ag._name, err);
+          ag.addErr(scope.index, scope.name, err);
           break;
         } catch (RuntimeException re) {
-          ag.addErr(ag._index, ag._name, re);
+          ag.addErr(scope.index, scope.name, re);
           break;
+        } finally {
+          if (metered) {
+            cont.elapsed = System.nanoTime() - t0;
+          }
+          JfrEvents.endDataConn(events, index);
+          AsyncGroupImpl.exit(prev);
         }
       }
+      var errors = ag.join(deadline);
+
+      if (!errors.isEmpty()) {
+        ensureReportBuilders(builders);
+        setFailureCauses(builders, errors, TxnFailureCauseState.LogicFailure);
+      }
+      JfrEvents.commitPhase(pev, this.txnId, Phase.PreCommit, errors);
+      if (metered) {
+        Metrics.recordDataConns(Phase.PreCommit, this.list, errors);
+      }
+      JfrEvents.commitDataConns(
+          events, this.txnId, Phase.PreCommit.name(), this.list, errors, builders);
+      if (!errors.isEmpty()) {
+        throw new Err(new FailToPreCommitDataConn(errors));
+      }
     }
-    errors = ag.join();
 
-    if (!errors.isEmpty()) {
-      for (var ee : errors) {
-        int idx = ee.index;
-        builders.get(idx).cause = new TxnFailureCause(TxnFailureCauseState.CommitFailure, ee.err);
+    if ((phases & DataConnContainer.COMMIT) != 0) {
+      long deadline = deadlineOf(Phase.Commit);
+      var pev = JfrEvents.beginPhase();
+      var events = JfrEvents.dataConnEvents(this.list.size());
+      boolean metered = Metrics.enabled;
+      int ii = 0;
+      for (int i = 0, n = this.list.size(); i < n; i++) {
+        var cont = this.list.get(i);
+        if (cont.conn == null) {
+          continue;
+        }
+        int index = ii++;
+        if ((cont.phases & DataConnContainer.COMMIT) == 0) {
+          continue;
+        }
+        scope.set(this.txnId, Phase.Commit, index, cont.name);
+        if (!cont.conn.isCommitted()) {
+          var prev = AsyncGroupImpl.enter(scope);
+          JfrEvents.beginDataConn(events, index);
+          long t0 = metered ? System.nanoTime() : 0L;
+          try {
+            cont.conn.commit(ag);
+          } catch (Err err) {
+            ag.addErr(scope.index, scope.name, err);
+            break;
+          } catch (RuntimeException re) {
+            ag.addErr(scope.index, scope.name, re);
+            break;
+          } finally {
+            if (metered) {
+              cont.elapsed = System.nanoTime() - t0;
+            }
+            JfrEvents.endDataConn(events, index);
+            AsyncGroupImpl.exit(prev);
+          }
+        }
+      }
+      var errors = ag.join(deadline);
+
+      if (!errors.isEmpty()) {
+        ensureReportBuilders(builders);
+        setFailureCauses(builders, errors, TxnFailureCauseState.CommitFailure);
+      }
+      JfrEvents.commitPhase(pev, this.txnId, Phase.Commit, errors);
+      if (metered) {
+        Metrics.recordDataConns(Phase.Commit, this.list, errors);
+      }
+      JfrEvents.commitDataConns(
+          events, this.txnId, Phase.Commit.name(), this.list, errors, builders);
+      if (!errors.isEmpty()) {
+        throw new Err(new FailToCommitDataConn(errors));
       }
-      throw new Err(new FailToCommitDataConn(errors));
     }
 
     this.committed = true;
 
-    ag = new AsyncGroupImpl();
-    ii = 0;
-    for (var cont : this.list) {
+    if ((phases & DataConnContainer.POST_COMMIT) == 0) {
+      return;
+    }
+
+    // Post-commit runs all connections to the end even if some of them fail
+    ag.failFast = false;
+
+    var dispatcher = this.dispatcher;
+    if (dispatcher != null && offloadPostCommit(dispatcher)) {
+      return;
+    }
+
+    long deadline = deadlineOf(Phase.PostCommit);
+    var pev = JfrEvents.beginPhase();
+    var events = JfrEvents.dataConnEvents(this.list.size());
+    boolean metered = Metrics.enabled;
+    int ii = 0;
+    for (int i = 0, n = this.list.size(); i < n; i++) {
+      var cont = this.list.get(i);
       if (cont.conn == null) {
         continue;
       }
-      ag._name = cont.name;
-      ag._index = ii;
-      ii++;
+      int index = ii++;
+      if ((cont.phases & DataConnContainer.POST_COMMIT) == 0) {
+        continue;
+      }
+      scope.set(this.txnId, Phase.PostCommit, index, cont.name);
+      var prev = AsyncGroupImpl.enter(scope);
+      JfrEvents.beginDataConn(events, index);
+      long t0 = metered ? System.nanoTime() : 0L;
       try {
         cont.conn.postCommit(ag);
       } catch (Err err) {
-        ag.addErr(ag._index, ag._name, err);
+        ag.addErr(scope.index, scope.name, err);
         // don't break
       } catch (RuntimeException re) {
-        ag.addErr(ag._index, ag._name, re);
+        ag.addErr(scope.index, scope.name, re);
         // don't break
+      } finally {
+        if (metered) {
+          cont.elapsed = System.nanoTime() - t0;
+        }
+        JfrEvents.endDataConn(events, index);
+        AsyncGroupImpl.exit(prev);
       }
     }
-    errors = ag.join();
+    var errors = ag.join(deadline);
 
     if (!errors.isEmpty()) {
+      ensureReportBuilders(builders);
       for (var ee : errors) {
         int idx = ee.index;
         builders.get(idx).cause =
             new TxnFailureCause(TxnFailureCauseState.PostCommitFailure, ee.err);
       }
+    }
+    JfrEvents.commitPhase(pev, this.txnId, Phase.PostCommit, errors);
+    if (metered) {
+      Metrics.recordDataConns(Phase.PostCommit, this.list, errors);
+    }
+    JfrEvents.commitDataConns(
+        events, this.txnId, Phase.PostCommit.name(), this.list, errors, builders);
+    if (!errors.isEmpty()) {
       throw new Err(new FailToPostCommitDataConn(errors));
     }
   }
 
-  void rollback(List<TxnFailureReportBuilder> builders) {
-    var ag = new AsyncGroupImpl();
+  // Hands the committed connections over to the dispatcher, which runs their post-commits with a
+  // group of its own and closes them. The containers are left empty, so close() skips them.
+  private boolean offloadPostCommit(PostCommitDispatcherImpl dispatcher) {
+    int n = 0;
+    for (int i = 0, sz = this.list.size(); i < sz; i++) {
+      if (this.list.get(i).conn != null) {
+        n++;
+      }
+    }
+    var names = new String[n];
+    var conns = new DataConn[n];
+    n = 0;
+    for (int i = 0, sz = this.list.size(); i < sz; i++) {
+      var cont = this.list.get(i);
+      if (cont.conn != null) {
+        names[n] = cont.name;
+        conns[n] = cont.conn;
+        n++;
+      }
+    }
+
+    var ag = newGroup();
+    long postCommitTimeout = this.timeouts[Phase.PostCommit.ordinal()];
+    long onTxnFailureTimeout = this.timeouts[Phase.OnTxnFailure.ordinal()];
+    var snapshot = this.snapshot;
+    if (snapshot != null) {
+      snapshot.pinAgain();
+    }
+    this.dispatchLock.lock();
+    try {
+      this.dispatched++;
+    } finally {
+      this.dispatchLock.unlock();
+    }
+    if (!dispatcher.dispatch(
+        this.txnId,
+        names,
+        conns,
+        ag,
+        postCommitTimeout,
+        onTxnFailureTimeout,
+        () -> endDispatch(snapshot))) {
+      return false;
+    }
+
+    for (int i = 0, sz = this.list.size(); i < sz; i++) {
+      this.list.get(i).conn = null;
+    }
+    return true;
+  }
+
+  // The snapshot of the global data sources is kept pinned until the connections are closed,
+  // because the hub may unpin it before that.
+  private void endDispatch(DataSrcSnapshot snapshot) {
+    if (snapshot != null) {
+      snapshot.unpin();
+    }
+    this.dispatchLock.lock();
+    try {
+      if (--this.dispatched == 0) {
+        this.allClosed.signalAll();
+      }
+    } finally {
+      this.dispatchLock.unlock();
+    }
+  }
+
+  // Waits until the connections handed over to the dispatcher are all closed.
+  void awaitDispatches() {
+    this.dispatchLock.lock();
+    try {
+      while (this.dispatched > 0) {
+        this.allClosed.awaitUninterruptibly();
+      }
+    } finally {
+      this.dispatchLock.unlock();
+    }
+  }
+
+  // One group is used through all phases of transactions, because runners carry their context by
+  // themselves and a joined group has no state left. It is discarded by discardGroup() when the
+  // settings are changed, so that the changes take effect.
+  private AsyncGroupImpl group() {
+    var ag = this.ag;
+    if (ag == null) {
+      ag = newGroup();
+      this.ag = ag;
+    }
+    return ag;
+  }
+
+  private AsyncGroupImpl newGroup() {
+    var ag = new AsyncGroupImpl(this.maxRunners, this.inlineLast);
+    ag.executor = this.executor;
+    ag.executors = this.executors;
+    return ag;
+  }
+
+  void discardGroup() {
+    this.ag = null;
+  }
+
+  // The deadline of a phase is the earlier of the deadline of the whole transaction and the end of
+  // the timeout of the phase.
+  private long deadlineOf(Phase phase) {
+    return AsyncGroupImpl.deadline(this.deadline, this.timeouts[phase.ordinal()]);
+  }
+
+  // Rollback and the notification of a failure are not bound by the deadline of the transaction,
+  // because they are needed even after it has passed.
+  private long timeoutOf(Phase phase) {
+    return AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, this.timeouts[phase.ordinal()]);
+  }
+
+  // Runners cancelled or skipped by a failure of another runner are not a cause of the failure, so
+  // their connections are marked with NoneByCancelled unless they have failed by themselves.
+  private static void setFailureCauses(
+      List<TxnFailureReportBuilder> builders, List<ErrEntry> errors, TxnFailureCauseState state) {
+    for (var ee : errors) {
+      var builder = builders.get(ee.index);
+      var reason = ee.err.getReason();
+      if (reason instanceof RunnerCancelled || reason instanceof RunnerSkipped) {
+        if (builder.cause.state == TxnFailureCauseState.NoneByUncommitted) {
+          builder.cause = new TxnFailureCause(TxnFailureCauseState.NoneByCancelled, ee.err);
+        }
+      } else {
+        builder.cause = new TxnFailureCause(state, ee.err);
+      }
+    }
+  }
+
+  // Returns the failure reports built for the connections notified of the failure, or null if no
+  // connection is notified.
+  List<TxnFailureReport> rollback(ArrayList<TxnFailureReportBuilder> builders) {
+    ensureReportBuilders(builders);
+    int phases = phases();
+    var ag = group();
+    ag.failFast = false;
+    var scope = this.scope;
+    long deadline = timeoutOf(Phase.Rollback);
+    var pev = JfrEvents.beginPhase();
+    var events = JfrEvents.dataConnEvents(this.list.size());
+    boolean metered = Metrics.enabled;
     int ii = 0;
-    for (var cont : this.list) {
+    for (int i = 0, n = this.list.size(); i < n; i++) {
+      var cont = this.list.get(i);
       if (cont.conn == null) {
         continue;
       }
-      ag._name = cont.name;
-      ag._index = ii;
+      scope.set(this.txnId, Phase.Rollback, ii, cont.name);
       ii++;
+      if ((cont.phases & DataConnContainer.ROLLBACK) == 0) {
+        // A read-only connection has nothing to roll back
+        if (!this.committed) {
+          builders.get(scope.index).rollback =
+              new TxnFailureRollback(TxnFailureRollbackState.NoneByRolledBack, null);
+        }
+        continue;
+      }
       if (cont.conn.isCommitted()) {
-        if (builders.get(ag._index).cause.state == TxnFailureCauseState.NoneByUncommitted) {
-          builders.get(ag._index).cause =
+        var state = builders.get(scope.index).cause.state;
+        if (state == TxnFailureCauseState.NoneByUncommitted
+            || state == TxnFailureCauseState.NoneByCancelled) {
+          builders.get(scope.index).cause =
               new TxnFailureCause(TxnFailureCauseState.NoneByCommitted, null);
         }
         continue;
@@ -175,45 +487,293 @@ public class DataConnManager {
       if (this.committed) {
         continue;
       }
+      var prev = AsyncGroupImpl.enter(scope);
+      JfrEvents.beginDataConn(events, scope.index);
+      long t0 = metered ? System.nanoTime() : 0L;
       try {
         cont.conn.rollback(ag);
-        builders.get(ag._index).rollback =
+        builders.get(scope.index).rollback =
             new TxnFailureRollback(TxnFailureRollbackState.NoneByRolledBack, null);
       } catch (Err err) {
-        ag.addErr(ag._index, ag._name, err);
+        ag.addErr(scope.index, scope.name, err);
       } catch (RuntimeException re) {
-        ag.addErr(ag._index, ag._name, re);
+        ag.addErr(scope.index, scope.name, re);
+      } finally {
+        if (metered) {
+          cont.elapsed = System.nanoTime() - t0;
+        }
+        JfrEvents.endDataConn(events, scope.index);
+        AsyncGroupImpl.exit(prev);
       }
     }
-    var errors = ag.join();
+    if ((phases & DataConnContainer.ROLLBACK) != 0) {
+      var errors = ag.join(deadline);
 
-    if (!errors.isEmpty()) {
-      for (var ee : errors) {
-        int idx = ee.index;
-        builders.get(idx).rollback =
-            new TxnFailureRollback(TxnFailureRollbackState.RollbackFailure, ee.err);
+      if (!errors.isEmpty()) {
+        for (var ee : errors) {
+          int idx = ee.index;
+          builders.get(idx).rollback =
+              new TxnFailureRollback(TxnFailureRollbackState.RollbackFailure, ee.err);
+        }
+      }
+      JfrEvents.commitPhase(pev, this.txnId, Phase.Rollback, errors);
+      if (metered) {
+        Metrics.recordDataConns(Phase.Rollback, this.list, errors);
       }
+      JfrEvents.commitDataConns(
+          events, this.txnId, Phase.Rollback.name(), this.list, errors, builders);
     }
 
-    ag = new AsyncGroupImpl();
-    for (var cont : this.list) {
+    if ((phases & DataConnContainer.ON_TXN_FAILURE) == 0) {
+      return null;
+    }
+
+    deadline = timeoutOf(Phase.OnTxnFailure);
+    pev = JfrEvents.beginPhase();
+    events = JfrEvents.dataConnEvents(this.list.size());
+    metered = Metrics.enabled;
+    var reports = builders.stream().map(TxnFailureReportBuilder::build).toList();
+    ii = 0;
+    for (int i = 0, n = this.list.size(); i < n; i++) {
+      var cont = this.list.get(i);
       if (cont.conn != null) {
-        var reports = builders.stream().map(TxnFailureReportBuilder::build).toList();
-        cont.conn.onTxnFailure(ag, reports);
+        scope.set(this.txnId, Phase.OnTxnFailure, ii, cont.name);
+        ii++;
+        if ((cont.phases & DataConnContainer.ON_TXN_FAILURE) == 0) {
+          continue;
+        }
+        var prev = AsyncGroupImpl.enter(scope);
+        JfrEvents.beginDataConn(events, scope.index);
+        long t0 = metered ? System.nanoTime() : 0L;
+        try {
+          cont.conn.onTxnFailure(ag, reports);
+        } finally {
+          if (metered) {
+            cont.elapsed = System.nanoTime() - t0;
+          }
+          JfrEvents.endDataConn(events, scope.index);
+          AsyncGroupImpl.exit(prev);
+        }
       }
     }
-    ag.join();
+    var errors = ag.join(deadline);
+    JfrEvents.commitPhase(pev, this.txnId, Phase.OnTxnFailure, errors);
+    if (metered) {
+      Metrics.recordDataConns(Phase.OnTxnFailure, this.list, errors);
+    }
+    JfrEvents.commitDataConns(
+        events, this.txnId, Phase.OnTxnFailure.name(), this.list, errors, builders);
+    return reports;
   }
 
-  void close() {
-    this.indexMap.clear();
+  // Sets savepoints on the connections created before the nested scope of the depth. A connection
+  // which may need a rollback but does not support savepoints makes the scope unavailable.
+  void setSavepoints(int depth) throws Err {
+    for (int i = 0, n = this.list.size(); i < n; i++) {
+      var cont = this.list.get(i);
+      if (cont.conn != null
+          && (cont.phases & DataConnContainer.ROLLBACK) != 0
+          && (cont.phases & DataConnContainer.SAVEPOINT) == 0) {
+        throw new Err(new SavepointNotSupported(cont.name, cont.conn.getClass().getName()));
+      }
+    }
+    for (int i = 0, n = this.list.size(); i < n; i++) {
+      var cont = this.list.get(i);
+      if (cont.conn == null || (cont.phases & DataConnContainer.ROLLBACK) == 0) {
+        continue;
+      }
+      try {
+        cont.conn.setSavepoint(depth);
+      } catch (Err | RuntimeException e) {
+        for (int j = i - 1; j >= 0; j--) {
+          var c = this.list.get(j);
+          if (c.conn != null && (c.phases & DataConnContainer.ROLLBACK) != 0) {
+            c.conn.releaseSavepoint(depth);
+          }
+        }
+        throw e;
+      }
+    }
+  }
+
+  // Makes the changes in the nested scope of the depth part of the enclosing scope.
+  void releaseSavepoints(int depth) {
+    for (int i = 0, n = this.list.size(); i < n; i++) {
+      var cont = this.list.get(i);
+      if (cont.conn == null) {
+        continue;
+      }
+      if (cont.depth >= depth) {
+        cont.depth = depth - 1;
+      } else if ((cont.phases & DataConnContainer.ROLLBACK) != 0) {
+        cont.conn.releaseSavepoint(depth);
+      }
+    }
+  }
+
+  // Rolls back the changes in the nested scope of the depth. The connections created in the scope
+  // are rolled back entirely and closed, so that the enclosing scope does not commit them.
+  List<ErrEntry> rollbackToSavepoints(int depth) {
+    var ag = group();
+    ag.failFast = false;
+    var scope = this.scope;
+    long deadline = timeoutOf(Phase.Rollback);
+    int ii = 0;
+    for (int i = 0, n = this.list.size(); i < n; i++) {
+      var cont = this.list.get(i);
+      if (cont.conn == null) {
+        continue;
+      }
+      int index = ii++;
+      if ((cont.phases & DataConnContainer.ROLLBACK) == 0) {
+        continue;
+      }
+      scope.set(this.txnId, Phase.Rollback, index, cont.name);
+      var prev = AsyncGroupImpl.enter(scope);
+      try {
+        if (cont.depth >= depth) {
+          cont.conn.rollback(ag);
+        } else {
+          cont.conn.rollbackToSavepoint(ag, depth);
+        }
+      } catch (Err err) {
+        ag.addErr(scope.index, scope.name, err);
+      } catch (RuntimeException re) {
+        ag.addErr(scope.index, scope.name, re);
+      } finally {
+        AsyncGroupImpl.exit(prev);
+      }
+    }
+    var errors = ag.join(deadline);
 
     for (int i = this.list.size() - 1; i >= 0; i--) {
       var cont = this.list.get(i);
-      if (cont.conn != null) {
+      if (cont.conn != null && cont.depth >= depth) {
         cont.conn.close();
+        cont.setConn(null);
+      }
+    }
+    return errors;
+  }
+
+  // Closes the connections and unlists the containers after the declared slots, so that the next
+  // transaction lists them again in the order it gets their connections.
+  void close() {
+    var events = JfrEvents.dataConnEvents(this.list.size());
+    int ii = 0;
+    if (events != null) {
+      for (int i = 0, n = this.list.size(); i < n; i++) {
+        if (this.list.get(i).conn != null) {
+          ii++;
+        }
+      }
+    }
+    for (int i = this.list.size() - 1; i >= 0; i--) {
+      var cont = this.list.get(i);
+      if (cont.conn != null) {
+        int index = --ii;
+        JfrEvents.beginDataConn(events, index);
+        if (!keepIdle(cont)) {
+          cont.conn.close();
+        }
+        JfrEvents.endDataConn(events, index);
+        if (events == null) {
+          cont.conn = null;
+        }
+      }
+    }
+    if (events != null) {
+      JfrEvents.commitDataConns(
+          events, this.txnId, JfrEvents.CLOSE, this.list, List.of(), List.of());
+      for (int i = 0, n = this.list.size(); i < n; i++) {
+        this.list.get(i).conn = null;
+      }
+    }
+    for (int i = this.list.size() - 1; i >= this.declared; i--) {
+      this.list.remove(i);
+    }
+    this.committed = false;
+  }
+
+  // A connection is kept for the next logic if this manager reuses connections, it has been used by
+  // fewer logics than the limit, and it has been reset successfully.
+  private boolean keepIdle(DataConnContainer cont) {
+    if (this.maxUses <= 0) {
+      return false;
+    }
+    cont.uses++;
+    if (cont.uses < this.maxUses) {
+      boolean reset;
+      try {
+        reset = cont.conn.resetForReuse();
+      } catch (RuntimeException e) {
+        reset = false;
+      }
+      if (reset) {
+        cont.idleConn = cont.conn;
+        cont.idleSince = (this.maxIdle > 0L) ? System.nanoTime() : 0L;
+        return true;
+      }
+    }
+    cont.uses = 0;
+    return false;
+  }
+
+  // Takes the connection kept open by a former logic, or closes it if it has been idle too long.
+  DataConn takeIdle(DataConnContainer cont) {
+    var conn = cont.idleConn;
+    if (conn == null) {
+      return null;
+    }
+    cont.idleConn = null;
+    if (this.maxIdle > 0L && System.nanoTime() - cont.idleSince > this.maxIdle) {
+      cont.uses = 0;
+      conn.close();
+      return null;
+    }
+    return conn;
+  }
+
+  // Closes the kept connections which have been idle too long, including the ones of the names
+  // which no logic gets any more.
+  void closeExpiredIdle() {
+    if (this.maxIdle <= 0L) {
+      return;
+    }
+    long now = System.nanoTime();
+    for (int i = this.kept.size() - 1; i >= 0; i--) {
+      var cont = this.kept.get(i);
+      if (cont.idleConn != null && now - cont.idleSince > this.maxIdle) {
+        closeIdle(cont);
       }
     }
+  }
+
+  static void closeIdle(DataConnContainer cont) {
+    var conn = cont.idleConn;
+    if (conn != null) {
+      cont.idleConn = null;
+      cont.uses = 0;
+      conn.close();
+    }
+  }
+
+  void closeIdle() {
+    for (int i = this.kept.size() - 1; i >= 0; i--) {
+      closeIdle(this.kept.get(i));
+    }
+  }
+
+  void clear() {
+    close();
+    closeIdle();
+    for (int i = 0, n = this.kept.size(); i < n; i++) {
+      this.kept.get(i).kept = false;
+    }
+    this.kept.clear();
+    this.indexMap.clear();
     this.list.clear();
+    this.declared = 0;
+    this.ag = null;
   }
 }
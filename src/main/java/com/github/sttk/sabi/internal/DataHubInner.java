@@ -4,26 +4,65 @@
  */
 package com.github.sttk.sabi.internal;
 
+import static com.github.sttk.sabi.DataConn.FailToCommitDataConn;
+import static com.github.sttk.sabi.DataConn.FailToPreCommitDataConn;
 import static com.github.sttk.sabi.DataHub.CreatedDataConnIsNull;
 import static com.github.sttk.sabi.DataHub.FailToCastDataConn;
 import static com.github.sttk.sabi.DataHub.FailToCreateDataConn;
+import static com.github.sttk.sabi.DataHub.FailToRollbackToSavepoint;
 import static com.github.sttk.sabi.DataHub.FailToSetupGlobalDataSrcs;
 import static com.github.sttk.sabi.DataHub.FailToSetupLocalDataSrcs;
 import static com.github.sttk.sabi.DataHub.NoDataSrcToCreateDataConn;
 
 import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.Backoff;
 import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataConnKey;
 import com.github.sttk.sabi.DataSrc;
+import com.github.sttk.sabi.ErrEntry;
+import com.github.sttk.sabi.MetricsExporter;
+import com.github.sttk.sabi.Phase;
+import com.github.sttk.sabi.PostCommitDispatcher;
+import com.github.sttk.sabi.RetryMetrics;
+import com.github.sttk.sabi.RunnerContext;
+import com.github.sttk.sabi.RunnerExecutor;
+import com.github.sttk.sabi.TxnFailureCauseState;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 public final class DataHubInner {
   static final DataSrcManager GLOBAL_DATA_SRC_MANAGER = new DataSrcManager(false);
   static final AtomicBoolean GLOBAL_DATA_SRCS_FIXED = new AtomicBoolean(false);
+  private static final AtomicLong TXN_SEQ = new AtomicLong();
+  private static final LongAdder RETRIES = new LongAdder();
+  private static final LongAdder RECOVERED = new LongAdder();
+  private static final LongAdder EXHAUSTED = new LongAdder();
+
+  public static RetryMetrics retryMetrics() {
+    return new RetryMetrics(RETRIES.sum(), RECOVERED.sum(), EXHAUSTED.sum());
+  }
+
+  public static void enableMetrics() {
+    Metrics.enabled = true;
+  }
+
+  public static void exportMetrics(MetricsExporter exporter) {
+    Metrics.export(exporter, retryMetrics());
+  }
 
   public static void useGlobal(String name, DataSrc ds) {
     if (!GLOBAL_DATA_SRCS_FIXED.get()) {
@@ -31,6 +70,43 @@ public final class DataHubInner {
     }
   }
 
+  public static void replaceGlobal(String name, DataSrc ds) throws Err {
+    if (!GLOBAL_DATA_SRCS_FIXED.get()) {
+      GLOBAL_DATA_SRC_MANAGER.remove(name);
+      GLOBAL_DATA_SRC_MANAGER.add(name, ds);
+      return;
+    }
+
+    var manager = new DataSrcManager(false);
+    manager.add(name, ds);
+    var errors = manager.setup();
+    if (!errors.isEmpty()) {
+      throw new Err(new FailToSetupGlobalDataSrcs(errors));
+    }
+    GLOBAL_DATA_SRC_MANAGER.swapReady(name, manager.listReady.get(0));
+  }
+
+  public static void retireGlobal(String name) {
+    if (!GLOBAL_DATA_SRCS_FIXED.get()) {
+      GLOBAL_DATA_SRC_MANAGER.remove(name);
+      return;
+    }
+
+    GLOBAL_DATA_SRC_MANAGER.swapReady(name, null);
+  }
+
+  public static void limitGlobalRunners(int max) {
+    if (!GLOBAL_DATA_SRCS_FIXED.get()) {
+      AsyncGroupImpl.limitGlobally(max);
+    }
+  }
+
+  public static void useGlobalRunnerExecutor(RunnerExecutor executor) {
+    if (!GLOBAL_DATA_SRCS_FIXED.get()) {
+      AsyncGroupImpl.useGlobally(executor);
+    }
+  }
+
   public static AutoCloseable setupGlobals() throws Err {
     if (GLOBAL_DATA_SRCS_FIXED.compareAndSet(false, true)) {
       var errors = GLOBAL_DATA_SRC_MANAGER.setup();
@@ -61,21 +137,65 @@ public final class DataHubInner {
   }
 
   final DataSrcManager localDataSrcManager;
-  final Map<String, DataSrcContainer> dataSrcMap;
+  // The snapshot of the global data sources pinned by this hub and its index, and the local data
+  // sources, which are put into a map allocated only when they have been set up.
+  private DataSrcSnapshot globalSnapshot;
+  DataSrcIndex globalDataSrcs = DataSrcIndex.EMPTY;
+  Map<String, DataSrcContainer> dataSrcMap;
   final DataConnManager dataConnManager;
-  final Map<String, DataConnContainer> dataConnMap;
+  Map<String, DataConnContainer> dataConnMap;
   boolean fixed;
+  int batchSize;
+  long batchLinger;
+  Backoff backoff;
+  private boolean retryable;
+  private List<String> prefetchNames = List.of();
+
+  // The depth of the current nested transaction scope, and the error which has made the
+  // transaction unable to commit because a scope could not be rolled back.
+  private int scopeDepth;
+  private Err brokenBy;
+
+  // Whether the running logic is in a transaction, and whether the transaction has been begun
+  // within a non-transactional logic, whose data connections it takes over.
+  private boolean inTxn;
+  private boolean txnInRun;
+
+  private JfrEvents.TxnEvent txnEvent;
+  private boolean rolledBack;
+  private boolean metered;
+  private long startedAt;
+
+  // Reused by transactions on this hub, and filled only when a transaction fails.
+  private final ArrayList<TxnFailureReportBuilder> reportBuilders = new ArrayList<>(0);
+
+  // The containers of the data connections got by keys and the classes of the connections checked
+  // for the keys, indexed by the slots of the keys. The keys are kept to be compared, because the
+  // slot of a key collected with its class is reused by another key.
+  private DataConnContainer[] keyedConts = new DataConnContainer[0];
+  private Class<?>[] keyedTypes = new Class<?>[0];
+  private DataConnKey<?>[] keyedKeys = new DataConnKey<?>[0];
+
+  // The number of fan-outs having running tasks, during which data connections are got under the
+  // lock, and those fan-outs, which are joined or cancelled if the logic has not joined them.
+  final AtomicInteger forks = new AtomicInteger();
+  final Set<FanOutImpl> fanOuts = ConcurrentHashMap.newKeySet();
+  private final ReentrantLock lock = new ReentrantLock();
+
+  // The locks guarding the creation of data connections by their names while concurrent data
+  // access is allowed, with which dataConnMap is a ConcurrentHashMap. Registrations into
+  // dataConnManager are serialized by the lock above, which decides the order of commits.
+  private static final int STRIPES = 16;
+  private ReentrantLock[] stripes;
 
   public DataHubInner() {
     GLOBAL_DATA_SRCS_FIXED.compareAndSet(false, true);
     this.fixed = false;
 
     this.localDataSrcManager = new DataSrcManager(true);
-    this.dataSrcMap = new HashMap<>();
+    this.dataSrcMap = Map.of();
     this.dataConnManager = new DataConnManager();
     this.dataConnMap = new HashMap<>();
-
-    GLOBAL_DATA_SRC_MANAGER.copyDsReadyToMap(this.dataSrcMap);
   }
 
   public DataHubInner(List<String> names) {
@@ -83,11 +203,9 @@ public final class DataHubInner {
     this.fixed = false;
 
     this.localDataSrcManager = new DataSrcManager(true);
-    this.dataSrcMap = new HashMap<>();
+    this.dataSrcMap = Map.of();
     this.dataConnManager = new DataConnManager(names);
     this.dataConnMap = new HashMap<>();
-
-    GLOBAL_DATA_SRC_MANAGER.copyDsReadyToMap(this.dataSrcMap);
   }
 
   public void useLocal(String name, DataSrc ds) {
@@ -95,6 +213,7 @@ public final class DataHubInner {
       return;
     }
 
+    closeIdleDataConn(name);
     this.localDataSrcManager.add(name, ds);
   }
 
@@ -108,21 +227,293 @@ public final class DataHubInner {
       this.dataSrcMap.remove(name);
     }
 
+    closeIdleDataConn(name);
     this.localDataSrcManager.remove(name);
   }
 
+  public void limitRunners(int max) {
+    if (this.fixed) {
+      return;
+    }
+
+    this.localDataSrcManager.maxRunners = max;
+    this.dataConnManager.maxRunners = max;
+    this.dataConnManager.discardGroup();
+  }
+
+  public void runLastRunnerInline(boolean enabled) {
+    if (this.fixed) {
+      return;
+    }
+
+    this.localDataSrcManager.inlineLast = enabled;
+    this.dataConnManager.inlineLast = enabled;
+    this.dataConnManager.discardGroup();
+  }
+
+  public void failFastCommit(boolean enabled) {
+    if (this.fixed) {
+      return;
+    }
+
+    this.dataConnManager.failFast = enabled;
+  }
+
+  public void limitPhaseDuration(Phase phase, Duration timeout) {
+    if (this.fixed) {
+      return;
+    }
+
+    long nanos = AsyncGroupImpl.toNanos(timeout);
+    if (phase == Phase.Setup) {
+      this.localDataSrcManager.timeout = nanos;
+    } else {
+      this.dataConnManager.timeouts[phase.ordinal()] = nanos;
+    }
+  }
+
+  public void retryTxnOnFailure(Backoff backoff) {
+    if (this.fixed) {
+      return;
+    }
+
+    this.backoff = backoff;
+  }
+
+  // Judges whether the transaction which has just been rolled back with the error is safe to retry,
+  // by its failure reports. It is not if some connections have committed, because their part would
+  // be applied twice.
+  public void judgeRetry(Err err) {
+    if (this.backoff == null) {
+      return;
+    }
+    var reason = err.getReason();
+    if (!(reason instanceof FailToPreCommitDataConn) && !(reason instanceof FailToCommitDataConn)) {
+      return;
+    }
+    if (anyCommitted()) {
+      return;
+    }
+    for (int i = 0, n = this.reportBuilders.size(); i < n; i++) {
+      switch (this.reportBuilders.get(i).build().recoveryForCommit()) {
+        case RerunLogicAndCommit, ResolveCauseThenRerunLogicAndCommit -> {}
+        default -> {
+          return;
+        }
+      }
+    }
+    this.retryable = true;
+  }
+
+  // Waits for the backoff before the retry if the failed transaction is judged safe to retry.
+  public boolean waitToRetry(int retry) {
+    var backoff = this.backoff;
+    if (backoff == null || !this.retryable) {
+      return false;
+    }
+    long delay = backoff.delayNanos(retry);
+    if (delay < 0L) {
+      EXHAUSTED.increment();
+      return false;
+    }
+    if (delay > 0L) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    RETRIES.increment();
+    return true;
+  }
+
+  public void countRecovery(int retry) {
+    if (retry > 1) {
+      RECOVERED.increment();
+    }
+  }
+
+  public void limitBatchSize(int max) {
+    if (this.fixed) {
+      return;
+    }
+
+    this.batchSize = max;
+  }
+
+  public void limitBatchLinger(Duration linger) {
+    if (this.fixed) {
+      return;
+    }
+
+    this.batchLinger = AsyncGroupImpl.toNanos(linger);
+  }
+
+  // Takes logics from the iterator into the empty batch until the batch is full or the linger time
+  // has passed since the first one was taken. These are checked before hasNext(), which may block
+  // until the next logic arrives, but a blocking hasNext() already called is not cut short.
+  public <L> void fillBatch(Iterator<? extends L> iter, List<L> batch) {
+    long start = System.nanoTime();
+    do {
+      batch.add(iter.next());
+    } while ((this.batchSize <= 0 || batch.size() < this.batchSize)
+        && (this.batchLinger <= 0L || System.nanoTime() - start < this.batchLinger)
+        && iter.hasNext());
+  }
+
+  public void reuseDataConns(int maxUses, Duration maxIdle) {
+    if (this.fixed) {
+      return;
+    }
+
+    var manager = this.dataConnManager;
+    manager.maxUses = maxUses;
+    manager.maxIdle = AsyncGroupImpl.toNanos(maxIdle);
+    if (maxUses <= 0) {
+      manager.closeIdle();
+    }
+  }
+
+  // The connection kept open for a name is not returned after its data source is changed.
+  private void closeIdleDataConn(String name) {
+    var dcCont = this.dataConnMap.get(name);
+    if (dcCont != null) {
+      DataConnManager.closeIdle(dcCont);
+    }
+  }
+
+  public void allowConcurrentDataAccess(boolean enabled) {
+    if (this.fixed || (this.stripes != null) == enabled) {
+      return;
+    }
+
+    Map<String, DataConnContainer> map = enabled ? new ConcurrentHashMap<>() : new HashMap<>();
+    map.putAll(this.dataConnMap);
+    this.dataConnMap = map;
+    if (enabled) {
+      var stripes = new ReentrantLock[STRIPES];
+      for (int i = 0; i < STRIPES; i++) {
+        stripes[i] = new ReentrantLock();
+      }
+      this.stripes = stripes;
+    } else {
+      this.stripes = null;
+    }
+  }
+
+  public void prefetchDataConns(String... names) {
+    if (this.fixed) {
+      return;
+    }
+
+    this.prefetchNames = List.of(names);
+  }
+
+  public void offloadPostCommit(PostCommitDispatcher dispatcher) {
+    if (this.fixed) {
+      return;
+    }
+
+    this.dataConnManager.dispatcher = (PostCommitDispatcherImpl) dispatcher;
+  }
+
+  public void useRunnerExecutor(RunnerExecutor executor) {
+    if (this.fixed) {
+      return;
+    }
+
+    this.localDataSrcManager.executor = executor;
+    this.dataConnManager.executor = executor;
+    this.dataConnManager.discardGroup();
+  }
+
+  public void useRunnerExecutor(String name, RunnerExecutor executor) {
+    if (this.fixed) {
+      return;
+    }
+
+    var map = this.dataConnManager.executors;
+    if (map == null) {
+      map = new HashMap<>();
+      this.localDataSrcManager.executors = map;
+      this.dataConnManager.executors = map;
+      this.dataConnManager.discardGroup();
+    }
+    if (executor != null) {
+      map.put(name, executor);
+    } else {
+      map.remove(name);
+    }
+  }
+
+  public void reset() {
+    if (this.fixed || this.forks.get() != 0) {
+      throw new IllegalStateException("A logic is running in the DataHub");
+    }
+    this.dataConnManager.close();
+    this.dataConnManager.closeExpiredIdle();
+    this.reportBuilders.clear();
+
+    // A hub left unused, such as in a pool, does not keep the global data sources pinned, so that
+    // the ones retired meanwhile can be closed. The kept connections created by them are closed
+    // before that.
+    if (this.globalSnapshot != null) {
+      for (var dcCont : this.dataConnMap.values()) {
+        if (!this.dataSrcMap.containsKey(dcCont.name)) {
+          DataConnManager.closeIdle(dcCont);
+        }
+      }
+      unpinGlobals();
+    }
+  }
+
+  // The local data sources are closed after the post-commits dispatched in the background, which
+  // may use connections created by them.
   public void closeLocals() {
+    this.dataConnManager.awaitDispatches();
+    this.keyedConts = new DataConnContainer[0];
+    this.keyedTypes = new Class<?>[0];
+    this.keyedKeys = new DataConnKey<?>[0];
     this.dataConnMap.clear();
-    this.dataConnManager.close();
+    this.dataConnManager.clear();
+    unpinGlobals();
 
-    this.dataSrcMap.clear();
+    this.dataSrcMap = Map.of();
     this.localDataSrcManager.close();
   }
 
   public void begin() throws Err {
+    begin(null);
+  }
+
+  public void begin(Duration timeout) throws Err {
+    pinGlobals();
+    this.dataConnManager.closeExpiredIdle();
     this.fixed = true;
+    this.retryable = false;
+    this.scopeDepth = 0;
+    this.brokenBy = null;
+    this.rolledBack = false;
+    this.txnEvent = JfrEvents.beginTxn();
+    this.metered = Metrics.enabled;
+    if (this.metered) {
+      this.startedAt = System.nanoTime();
+    }
+
+    long deadline =
+        AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, AsyncGroupImpl.toNanos(timeout));
+    this.localDataSrcManager.deadline = deadline;
+    this.dataConnManager.deadline = deadline;
+
+    long txnId = TXN_SEQ.incrementAndGet();
+    this.localDataSrcManager.txnId = txnId;
+    this.dataConnManager.txnId = txnId;
 
     var errors = this.localDataSrcManager.setup();
+    if (this.dataSrcMap.isEmpty() && !this.localDataSrcManager.listReady.isEmpty()) {
+      this.dataSrcMap = new HashMap<>();
+    }
     this.localDataSrcManager.copyDsReadyToMap(this.dataSrcMap);
 
     if (!errors.isEmpty()) {
@@ -130,26 +521,356 @@ public final class DataHubInner {
     }
   }
 
-  public void prepareTxnFailureReportBuilders(ArrayList<TxnFailureReportBuilder> list) {
-    this.dataConnManager.prepareTxnFailureReportBuilders(list);
+  // Begins a transaction. Within a non-transactional logic, the transaction takes over the data
+  // connections the logic has got, and closes them at its end so that the logic gets new ones.
+  public void beginTxn(Duration timeout) throws Err {
+    if (this.fixed && !this.inTxn) {
+      this.inTxn = true;
+      this.txnInRun = true;
+      this.retryable = false;
+      this.scopeDepth = 0;
+      this.brokenBy = null;
+      return;
+    }
+    this.inTxn = true;
+    begin(timeout);
+  }
+
+  public void commit() throws Err {
+    if (this.forks.get() != 0 && !this.txnInRun) {
+      joinFanOuts();
+    }
+    if (this.brokenBy != null) {
+      throw this.brokenBy;
+    }
+    this.dataConnManager.commit(this.reportBuilders);
+  }
+
+  public boolean inTxn() {
+    return this.inTxn;
   }
 
-  public void commit(List<TxnFailureReportBuilder> builders) throws Err {
-    this.dataConnManager.commit(builders);
+  public int beginScope() throws Err {
+    int depth = this.scopeDepth + 1;
+    this.dataConnManager.setSavepoints(depth);
+    this.scopeDepth = depth;
+    return depth;
   }
 
-  public void rollback(List<TxnFailureReportBuilder> builders) throws Err {
-    this.dataConnManager.rollback(builders);
+  public void endScope(int depth) {
+    this.dataConnManager.releaseSavepoints(depth);
+    this.scopeDepth = depth - 1;
   }
 
+  public void rollbackScope(int depth, Err cause) throws Err {
+    var errors = this.dataConnManager.rollbackToSavepoints(depth);
+    this.scopeDepth = depth - 1;
+    if (!errors.isEmpty()) {
+      var err = new Err(new FailToRollbackToSavepoint(errors), cause);
+      this.brokenBy = err;
+      throw err;
+    }
+  }
+
+  public void rollback() {
+    if (this.forks.get() != 0 && !this.txnInRun) {
+      cancelFanOuts();
+    }
+    this.rolledBack = true;
+    var reports = this.dataConnManager.rollback(this.reportBuilders);
+    if (this.metered) {
+      if (reports == null) {
+        reports = this.reportBuilders.stream().map(TxnFailureReportBuilder::build).toList();
+      }
+      Metrics.recordFailures(reports);
+    }
+  }
+
+  // Whether some data connections of the transaction which has just been rolled back had already
+  // committed, either because the failure was in the post-commit phase or because the commit
+  // phase failed after some connections had committed.
+  public boolean anyCommitted() {
+    if (this.dataConnManager.committed) {
+      return true;
+    }
+    for (int i = 0, n = this.reportBuilders.size(); i < n; i++) {
+      if (this.reportBuilders.get(i).cause.state == TxnFailureCauseState.NoneByCommitted) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The containers of data connections are kept in dataConnMap with their connections closed, so
+  // that the next transaction reuses them and lists them again in the order it gets them.
   public void end() {
-    this.dataConnMap.clear();
-    this.dataConnManager.close();
+    if (this.txnInRun) {
+      this.txnInRun = false;
+      this.inTxn = false;
+      this.rolledBack = false;
+      this.dataConnManager.close();
+      this.reportBuilders.clear();
+      return;
+    }
+
+    if (this.forks.get() != 0) {
+      cancelFanOuts();
+    }
+
+    var txnEvent = this.txnEvent;
+    if (txnEvent != null || this.metered) {
+      this.txnEvent = null;
+      int outcome =
+          this.dataConnManager.committed
+              ? Metrics.COMMITTED
+              : this.rolledBack ? Metrics.ROLLED_BACK : Metrics.COMPLETED;
+      this.dataConnManager.close();
+      if (this.metered) {
+        this.metered = false;
+        Metrics.recordTxn(outcome, System.nanoTime() - this.startedAt);
+      }
+      JfrEvents.commitTxn(txnEvent, this.dataConnManager.txnId, Metrics.OUTCOMES[outcome]);
+    } else {
+      this.dataConnManager.close();
+    }
+    this.reportBuilders.clear();
+    if (this.dataConnManager.maxUses <= 0) {
+      unpinGlobals();
+    }
 
+    this.localDataSrcManager.deadline = AsyncGroupImpl.NO_DEADLINE;
+    this.dataConnManager.deadline = AsyncGroupImpl.NO_DEADLINE;
+    this.inTxn = false;
     this.fixed = false;
   }
 
+  // Pins the current snapshot of the global data sources for a logic. It is kept after the logic
+  // while this hub keeps data connections open across logics, and the kept connections are closed
+  // when the snapshot has been replaced, because they may be of retired data sources.
+  private void pinGlobals() {
+    var snapshot = this.globalSnapshot;
+    if (snapshot != null) {
+      if (snapshot == GLOBAL_DATA_SRC_MANAGER.snapshot) {
+        return;
+      }
+      this.dataConnManager.closeIdle();
+      snapshot.unpin();
+    }
+    snapshot = GLOBAL_DATA_SRC_MANAGER.pin();
+    this.globalSnapshot = snapshot;
+    this.globalDataSrcs = snapshot.index;
+    this.dataConnManager.snapshot = snapshot;
+  }
+
+  private void unpinGlobals() {
+    var snapshot = this.globalSnapshot;
+    if (snapshot != null) {
+      this.globalSnapshot = null;
+      this.globalDataSrcs = DataSrcIndex.EMPTY;
+      this.dataConnManager.snapshot = null;
+      snapshot.unpin();
+    }
+  }
+
+  public FanOutImpl fanOut() {
+    return new FanOutImpl(this);
+  }
+
+  // Joins the fan-outs which the logic has left running, so that their tasks do not use the data
+  // connections while those are committed. Tasks may have added other fan-outs meanwhile.
+  private void joinFanOuts() throws Err {
+    Err err = null;
+    for (var it = this.fanOuts.iterator(); it.hasNext(); it = this.fanOuts.iterator()) {
+      try {
+        it.next().join();
+      } catch (Err e) {
+        if (err == null) {
+          err = e;
+        }
+      }
+    }
+    if (err != null) {
+      throw err;
+    }
+  }
+
+  // Cancels the fan-outs which the logic has left running, before their data connections are
+  // rolled back or closed.
+  private void cancelFanOuts() {
+    for (var it = this.fanOuts.iterator(); it.hasNext(); it = this.fanOuts.iterator()) {
+      it.next().cancel();
+    }
+  }
+
   public <C extends DataConn> C getDataConn(String name, Class<C> cls) throws Err {
+    var stripes = this.stripes;
+    if (stripes != null) {
+      int h = name.hashCode();
+      var stripe = stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+      stripe.lock();
+      try {
+        return getDataConnUnguarded(name, cls);
+      } finally {
+        stripe.unlock();
+      }
+    }
+    if (this.forks.get() == 0) {
+      return getDataConnUnguarded(name, cls);
+    }
+    this.lock.lock();
+    try {
+      return getDataConnUnguarded(name, cls);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  // Creates the data connections of the names declared for the hub and the logic in parallel, the
+  // last one on this thread. All data sources are looked up before any creation, and the created
+  // connections are registered in the declared order even if others have failed, so that they are
+  // closed at the end of the transaction as usual.
+  public void prefetch(List<String> names) throws Err {
+    var hubNames = this.prefetchNames;
+    int n = hubNames.size() + names.size();
+    if (n == 0) {
+      return;
+    }
+
+    var targets = new String[n];
+    var srcs = new DataSrcContainer[n];
+    int m = 0;
+    for (int i = 0; i < n; i++) {
+      var name = (i < hubNames.size()) ? hubNames.get(i) : names.get(i - hubNames.size());
+      var dcCont = this.dataConnMap.get(name);
+      if ((dcCont != null && dcCont.conn != null) || contains(targets, m, name)) {
+        continue;
+      }
+      if (dcCont != null) {
+        var idle = this.dataConnManager.takeIdle(dcCont);
+        if (idle != null) {
+          putDataConn(name, dcCont, idle);
+          continue;
+        }
+      }
+      var dsCont = this.dataSrcMap.get(name);
+      if (dsCont == null) {
+        dsCont = this.globalDataSrcs.get(name);
+      }
+      if (dsCont == null || dsCont.ds == null) {
+        throw new Err(new NoDataSrcToCreateDataConn(name, DataConn.class.getName()));
+      }
+      targets[m] = name;
+      srcs[m] = dsCont;
+      m++;
+    }
+    if (m == 0) {
+      return;
+    }
+
+    var dcs = new DataConn[m];
+    var errs = new Err[m];
+    List<ErrEntry> errors = List.of();
+    if (m == 1) {
+      createForPrefetch(0, targets, srcs, dcs, errs);
+    } else {
+      var manager = this.dataConnManager;
+      var ag = new AsyncGroupImpl(manager.maxRunners, true);
+      ag.executor = manager.executor;
+      ag.executors = manager.executors;
+      for (int i = 0; i < m; i++) {
+        final int idx = i;
+        var prev = AsyncGroupImpl.enter(new RunnerContext(manager.txnId, null, i, targets[i]));
+        try {
+          ag.add(() -> createForPrefetch(idx, targets, srcs, dcs, errs));
+        } finally {
+          AsyncGroupImpl.exit(prev);
+        }
+      }
+      errors = ag.join();
+    }
+
+    for (int i = 0; i < m; i++) {
+      if (dcs[i] != null) {
+        var dcCont = this.dataConnMap.get(targets[i]);
+        if (dcCont != null) {
+          dcCont.uses = 0;
+        }
+        putDataConn(targets[i], dcCont, dcs[i]);
+      }
+    }
+    for (int i = 0; i < m; i++) {
+      if (errs[i] != null) {
+        throw errs[i];
+      }
+    }
+    if (!errors.isEmpty()) {
+      throw errors.get(0).err;
+    }
+  }
+
+  private static boolean contains(String[] names, int n, String name) {
+    for (int i = 0; i < n; i++) {
+      if (names[i].equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The results are written into the arrays, which are read after the runners have been joined.
+  private void createForPrefetch(
+      int i, String[] names, DataSrcContainer[] srcs, DataConn[] dcs, Err[] errs) {
+    var name = names[i];
+    DataConn dc = null;
+    var ev = JfrEvents.beginCreateDataConn();
+    try {
+      dc = srcs[i].ds.createDataConn();
+    } catch (Exception e) {
+      errs[i] = new Err(new FailToCreateDataConn(name, DataConn.class.getName()), e);
+    } finally {
+      JfrEvents.commitCreateDataConn(ev, this.dataConnManager.txnId, name, dc);
+    }
+    if (dc != null) {
+      dcs[i] = dc;
+    } else if (errs[i] == null) {
+      errs[i] = new Err(new CreatedDataConnIsNull(name, DataConn.class.getName()));
+    }
+  }
+
+  // While the container of the key has the connection of the class checked before, the connection
+  // is returned without the lookup by name and the cast. Fan-outs take the path by name, because
+  // their tasks get connections concurrently, and so do hubs allowing concurrent data access.
+  public <C extends DataConn> C getDataConn(DataConnKey<C> key) throws Err {
+    int slot = ((DataConnKeyImpl<C>) key).slot;
+    if (this.stripes != null || this.forks.get() != 0) {
+      return getDataConn(key.name(), key.type());
+    }
+    if (slot < this.keyedConts.length && this.keyedKeys[slot] == key) {
+      var cont = this.keyedConts[slot];
+      if (cont != null) {
+        var conn = cont.conn;
+        if (conn != null && conn.getClass() == this.keyedTypes[slot]) {
+          @SuppressWarnings("unchecked")
+          C c = (C) conn;
+          return c;
+        }
+      }
+    }
+
+    C c = getDataConnUnguarded(key.name(), key.type());
+    if (slot >= this.keyedConts.length) {
+      int n = Math.max(slot + 1, this.keyedConts.length * 2);
+      this.keyedConts = Arrays.copyOf(this.keyedConts, n);
+      this.keyedTypes = Arrays.copyOf(this.keyedTypes, n);
+      this.keyedKeys = Arrays.copyOf(this.keyedKeys, n);
+    }
+    this.keyedConts[slot] = this.dataConnMap.get(key.name());
+    this.keyedTypes[slot] = c.getClass();
+    this.keyedKeys[slot] = key;
+    return c;
+  }
+
+  private <C extends DataConn> C getDataConnUnguarded(String name, Class<C> cls) throws Err {
     var dcCont = this.dataConnMap.get(name);
     if (dcCont != null && dcCont.conn != null) {
       try {
@@ -161,25 +882,41 @@ public final class DataHubInner {
       }
     }
 
+    DataConn dc = (dcCont != null) ? this.dataConnManager.takeIdle(dcCont) : null;
+    if (dc != null) {
+      putDataConn(name, dcCont, dc);
+      return castDataConn(name, dc, cls);
+    }
+
     var dsCont = this.dataSrcMap.get(name);
+    if (dsCont == null) {
+      dsCont = this.globalDataSrcs.get(name);
+    }
     if (dsCont == null || dsCont.ds == null) {
       throw new Err(new NoDataSrcToCreateDataConn(name, cls.getName()));
     }
 
-    DataConn dc;
+    var ev = JfrEvents.beginCreateDataConn();
     try {
       dc = dsCont.ds.createDataConn();
     } catch (Exception e) {
       throw new Err(new FailToCreateDataConn(name, cls.getName()), e);
+    } finally {
+      JfrEvents.commitCreateDataConn(ev, this.dataConnManager.txnId, name, dc);
     }
     if (dc == null) {
       throw new Err(new CreatedDataConnIsNull(name, cls.getName()));
     }
 
-    dcCont = new DataConnContainer(name, dc);
-    this.dataConnMap.put(name, dcCont);
-    this.dataConnManager.add(dcCont);
+    if (dcCont != null) {
+      dcCont.uses = 0;
+    }
+    putDataConn(name, dcCont, dc);
+    return castDataConn(name, dc, cls);
+  }
 
+  private static <C extends DataConn> C castDataConn(String name, DataConn dc, Class<C> cls)
+      throws Err {
     C c;
     try {
       c = cls.cast(dc);
@@ -191,4 +928,36 @@ public final class DataHubInner {
 
     return c;
   }
+
+  private void putDataConn(String name, DataConnContainer dcCont, DataConn dc) {
+    if (dcCont != null) {
+      // A container left by a former transaction is listed again in the order of this one.
+      dcCont.setConn(dc);
+      if (this.stripes != null) {
+        this.lock.lock();
+        try {
+          this.dataConnManager.add(dcCont);
+        } finally {
+          this.lock.unlock();
+        }
+      } else {
+        this.dataConnManager.add(dcCont);
+      }
+    } else {
+      dcCont = new DataConnContainer(name, dc);
+      if (this.stripes != null) {
+        this.lock.lock();
+        try {
+          this.dataConnMap.put(name, dcCont);
+          this.dataConnManager.add(dcCont);
+        } finally {
+          this.lock.unlock();
+        }
+      } else {
+        this.dataConnMap.put(name, dcCont);
+        this.dataConnManager.add(dcCont);
+      }
+    }
+    dcCont.depth = this.scopeDepth;
+  }
 }
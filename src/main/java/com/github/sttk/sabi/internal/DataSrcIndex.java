@@ -0,0 +1,140 @@
+/*
+ * DataSrcIndex.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// An immutable index of data source containers by name, which is shared by all hubs. The names are
+// placed with a perfect hash, in the way of hash-and-displace: a name is put into a bucket by its
+// hash code, and each bucket has a seed with which its names are hashed again into slots of their
+// own. So a lookup mixes the cached hash code of a name twice and compares one name without
+// probing. Names whose hash codes collide cannot be separated by a seed, so if a bucket finds no
+// seed within a limited number of tries, the index falls back to a map.
+final class DataSrcIndex {
+  static final DataSrcIndex EMPTY = new DataSrcIndex(List.of());
+
+  private static final int MAX_SEEDS = 1024;
+
+  private final int mask;
+  private final int[] seeds;
+  private final String[] names;
+  private final DataSrcContainer[] conts;
+  private final Map<String, DataSrcContainer> fallback;
+
+  // Later ones take precedence when names overlap, in the same way as putting them into a map.
+  DataSrcIndex(List<DataSrcContainer> list) {
+    var map = new LinkedHashMap<String, DataSrcContainer>();
+    for (var cont : list) {
+      map.put(cont.name, cont);
+    }
+
+    // The load factor is at most a half, with which seeds are found in a few tries.
+    int size = Integer.highestOneBit(Math.max(map.size(), 1) * 2 - 1) * 2;
+    this.mask = size - 1;
+    this.seeds = new int[size];
+    this.names = new String[size];
+    this.conts = new DataSrcContainer[size];
+
+    var buckets = new ArrayList<List<String>>(size);
+    for (int i = 0; i < size; i++) {
+      buckets.add(new ArrayList<>(1));
+    }
+    for (var name : map.keySet()) {
+      buckets.get(bucketOf(name, this.mask)).add(name);
+    }
+    var order = new ArrayList<Integer>(size);
+    for (int i = 0; i < size; i++) {
+      if (!buckets.get(i).isEmpty()) {
+        order.add(i);
+      }
+    }
+    // Larger buckets are placed first while there are more free slots.
+    order.sort((a, b) -> buckets.get(b).size() - buckets.get(a).size());
+
+    var slots = new int[size];
+    boolean placed = true;
+    for (int b : order) {
+      var bucket = buckets.get(b);
+      placed = false;
+      for (int seed = 1; seed <= MAX_SEEDS; seed++) {
+        if (place(bucket, seed, slots)) {
+          this.seeds[b] = seed;
+          for (int i = 0, n = bucket.size(); i < n; i++) {
+            var name = bucket.get(i);
+            this.names[slots[i]] = name;
+            this.conts[slots[i]] = map.get(name);
+          }
+          placed = true;
+          break;
+        }
+      }
+      if (!placed) {
+        break;
+      }
+    }
+    this.fallback = placed ? null : new HashMap<>(map);
+  }
+
+  private boolean place(List<String> bucket, int seed, int[] slots) {
+    for (int i = 0, n = bucket.size(); i < n; i++) {
+      int slot = slotOf(bucket.get(i).hashCode(), seed, this.mask);
+      if (this.names[slot] != null) {
+        return false;
+      }
+      for (int j = 0; j < i; j++) {
+        if (slots[j] == slot) {
+          return false;
+        }
+      }
+      slots[i] = slot;
+    }
+    return true;
+  }
+
+  DataSrcContainer get(String name) {
+    if (this.fallback != null) {
+      return this.fallback.get(name);
+    }
+    int h = name.hashCode();
+    int slot = slotOf(h, this.seeds[mix(h) & this.mask], this.mask);
+    return name.equals(this.names[slot]) ? this.conts[slot] : null;
+  }
+
+  int size() {
+    if (this.fallback != null) {
+      return this.fallback.size();
+    }
+    int n = 0;
+    for (var name : this.names) {
+      if (name != null) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  private static int bucketOf(String name, int mask) {
+    return mix(name.hashCode()) & mask;
+  }
+
+  // Mixes the hash code with the seed, which is never zero, so that the names in a bucket are
+  // spread differently from the way they are put into buckets.
+  private static int slotOf(int hash, int seed, int mask) {
+    return mix(hash ^ (seed * 0x9e3779b9)) & mask;
+  }
+
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
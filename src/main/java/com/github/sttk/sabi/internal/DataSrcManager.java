@@ -7,6 +7,9 @@ package com.github.sttk.sabi.internal;
 import com.github.sttk.errs.Err;
 import com.github.sttk.sabi.DataSrc;
 import com.github.sttk.sabi.ErrEntry;
+import com.github.sttk.sabi.Phase;
+import com.github.sttk.sabi.RunnerContext;
+import com.github.sttk.sabi.RunnerExecutor;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -18,6 +21,15 @@ public class DataSrcManager {
   final boolean local;
   final List<DataSrcContainer> listUnready;
   final List<DataSrcContainer> listReady;
+  int maxRunners;
+  boolean inlineLast;
+  long txnId;
+  long deadline;
+  long timeout;
+  RunnerExecutor executor;
+  Map<String, RunnerExecutor> executors;
+  // The snapshot of the ready data sources, which is built only for the global ones.
+  volatile DataSrcSnapshot snapshot = DataSrcSnapshot.EMPTY;
 
   DataSrcManager(boolean local) {
     this.local = local;
@@ -43,7 +55,10 @@ public class DataSrcManager {
     }
   }
 
-  void close() {
+  synchronized void close() {
+    if (!this.local) {
+      DataSrcSnapshot.closeRetired(true);
+    }
     for (int i = this.listReady.size() - 1; i >= 0; i--) {
       var cont = this.listReady.get(i);
       if (cont.ds != null) {
@@ -59,6 +74,41 @@ public class DataSrcManager {
     }
     this.listReady.clear();
     this.listUnready.clear();
+    this.snapshot = DataSrcSnapshot.EMPTY;
+  }
+
+  // Pins the current snapshot. A snapshot found replaced after pinning is not used, because the
+  // replacement may have missed the pin.
+  DataSrcSnapshot pin() {
+    while (true) {
+      var s = this.snapshot;
+      s.pins.increment();
+      if (this.snapshot == s) {
+        return s;
+      }
+      s.unpin();
+    }
+  }
+
+  // Removes the ready data sources of the name and adds the given one which has been set up, if
+  // any, by publishing a new snapshot. The removed ones are closed when hubs no longer use them.
+  synchronized void swapReady(String name, DataSrcContainer cont) {
+    var retired = new ArrayList<DataSrcContainer>(1);
+    for (var iter = this.listReady.iterator(); iter.hasNext(); ) {
+      var c = iter.next();
+      if (Objects.equals(c.name, name)) {
+        retired.add(c);
+        iter.remove();
+      }
+    }
+    if (cont != null) {
+      this.listReady.add(cont);
+    } else if (retired.isEmpty()) {
+      return;
+    }
+    var old = this.snapshot;
+    this.snapshot = new DataSrcSnapshot(this.listReady);
+    old.supersede(retired);
   }
 
   List<ErrEntry> setup() {
@@ -66,29 +116,40 @@ public class DataSrcManager {
       return Collections.emptyList();
     }
 
-    var ag = new AsyncGroupImpl();
+    long deadline = AsyncGroupImpl.deadline(this.deadline, this.timeout);
+    var ag = new AsyncGroupImpl(this.maxRunners, this.inlineLast);
+    ag.executor = this.executor;
+    ag.executors = this.executors;
+    var pev = JfrEvents.beginPhase();
+    var events = JfrEvents.dataSrcEvents(this.listUnready.size());
     int ii = 0, nDone = 0;
     for (int i = 0, n = this.listUnready.size(); i < n; i++) {
       var cont = this.listUnready.get(i);
       if (cont == null || cont.ds == null) {
         continue;
       }
-      ag._name = cont.name;
-      ag._index = ii;
+      var ctx = new RunnerContext(this.txnId, Phase.Setup, ii, cont.name);
       ii++;
+      var prev = AsyncGroupImpl.enter(ctx);
+      JfrEvents.beginDataSrc(events, ctx.index(), this.txnId, cont);
       try {
         cont.ds.setup(ag);
       } catch (Err err) {
-        ag.addErr(ag._index, ag._name, err);
+        ag.addErr(ctx.index(), ctx.name(), err);
         nDone = i;
         break;
       } catch (RuntimeException re) {
-        ag.addErr(ag._index, ag._name, re);
+        ag.addErr(ctx.index(), ctx.name(), re);
         nDone = i;
         break;
+      } finally {
+        JfrEvents.endDataSrc(events, ctx.index());
+        AsyncGroupImpl.exit(prev);
       }
     }
-    var errors = ag.join();
+    var errors = ag.join(deadline);
+    JfrEvents.commitPhase(pev, this.txnId, Phase.Setup, errors);
+    JfrEvents.commitDataSrcs(events, errors);
 
     if (errors.isEmpty()) {
       for (int i = 0, n = this.listUnready.size(); i < n; i++) {
@@ -98,6 +159,9 @@ public class DataSrcManager {
         }
       }
       this.listUnready.clear();
+      if (!this.local) {
+        this.snapshot = new DataSrcSnapshot(this.listReady);
+      }
       return Collections.emptyList();
     } else {
       for (int i = nDone - 1; i >= 0; i--) {
@@ -139,7 +203,12 @@ public class DataSrcManager {
       }
     }
 
-    var ag = new AsyncGroupImpl();
+    long deadline = AsyncGroupImpl.deadline(this.deadline, this.timeout);
+    var ag = new AsyncGroupImpl(this.maxRunners, this.inlineLast);
+    ag.executor = this.executor;
+    ag.executors = this.executors;
+    var pev = JfrEvents.beginPhase();
+    var events = JfrEvents.dataSrcEvents(this.listUnready.size());
     int ii = 0, nDone = 0;
     for (int orderIndex = 0, n = orderedIndexes.size(); orderIndex < n; orderIndex++) {
       Integer listIndex = orderedIndexes.get(orderIndex);
@@ -150,22 +219,28 @@ public class DataSrcManager {
       if (cont == null || cont.ds == null) {
         continue;
       }
-      ag._name = cont.name;
-      ag._index = ii;
+      var ctx = new RunnerContext(this.txnId, Phase.Setup, ii, cont.name);
       ii++;
+      var prev = AsyncGroupImpl.enter(ctx);
+      JfrEvents.beginDataSrc(events, ctx.index(), this.txnId, cont);
       try {
         cont.ds.setup(ag);
       } catch (Err err) {
-        ag.addErr(ag._index, ag._name, err);
+        ag.addErr(ctx.index(), ctx.name(), err);
         nDone = orderIndex;
         break;
       } catch (RuntimeException re) {
-        ag.addErr(ag._index, ag._name, re);
+        ag.addErr(ctx.index(), ctx.name(), re);
         nDone = orderIndex;
         break;
+      } finally {
+        JfrEvents.endDataSrc(events, ctx.index());
+        AsyncGroupImpl.exit(prev);
       }
     }
-    var errors = ag.join();
+    var errors = ag.join(deadline);
+    JfrEvents.commitPhase(pev, this.txnId, Phase.Setup, errors);
+    JfrEvents.commitDataSrcs(events, errors);
 
     if (errors.isEmpty()) {
       for (Integer listIndex : orderedIndexes) {
@@ -179,6 +254,9 @@ public class DataSrcManager {
         this.listReady.add(cont);
       }
       this.listUnready.clear();
+      if (!this.local) {
+        this.snapshot = new DataSrcSnapshot(this.listReady);
+      }
       return Collections.emptyList();
     } else {
       for (int orderIndex = nDone - 1; orderIndex >= 0; orderIndex--) {
@@ -0,0 +1,88 @@
+/*
+ * DataSrcSnapshot.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi.internal;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// An immutable snapshot of the ready global data sources, which is replaced as a whole when they
+// are changed at runtime. Hubs pin the snapshot they use, and the data sources retired by a change
+// are closed when the snapshot replaced by it and all the former ones are no longer pinned.
+final class DataSrcSnapshot {
+  static final DataSrcSnapshot EMPTY = new DataSrcSnapshot(List.of());
+
+  // The snapshots replaced but having retired data sources not closed yet, in the order in which
+  // they were replaced. A data source retired from a snapshot may be in the former ones too.
+  private static final ArrayDeque<DataSrcSnapshot> SUPERSEDED = new ArrayDeque<>();
+
+  final DataSrcIndex index;
+  final List<DataSrcContainer> list;
+  final LongAdder pins = new LongAdder();
+  private List<DataSrcContainer> retired = List.of();
+  private volatile boolean superseded;
+  private final AtomicBoolean released = new AtomicBoolean();
+
+  DataSrcSnapshot(List<DataSrcContainer> list) {
+    this.list = List.copyOf(list);
+    this.index = new DataSrcIndex(this.list);
+  }
+
+  // Pins this snapshot once more for a use outliving the pin of a hub. It is called while the hub
+  // pins this snapshot, so this snapshot has not been released.
+  void pinAgain() {
+    this.pins.increment();
+  }
+
+  void unpin() {
+    this.pins.decrement();
+    if (this.superseded && this.pins.sum() == 0L) {
+      release();
+    }
+  }
+
+  // Called with the lock of the manager replacing this snapshot, so that snapshots are queued in
+  // the order of replacement.
+  void supersede(List<DataSrcContainer> retired) {
+    if (this == EMPTY) {
+      return;
+    }
+    synchronized (SUPERSEDED) {
+      this.retired = retired;
+      SUPERSEDED.add(this);
+    }
+    this.superseded = true;
+    if (this.pins.sum() == 0L) {
+      release();
+    }
+  }
+
+  // Both this and unpin() update one of the counter and the flag and then read the other, so at
+  // least one of the last unpin and the replacement finds this snapshot released.
+  private void release() {
+    if (this.released.compareAndSet(false, true)) {
+      closeRetired(false);
+    }
+  }
+
+  static void closeRetired(boolean all) {
+    synchronized (SUPERSEDED) {
+      for (var s = SUPERSEDED.peek(); s != null; s = SUPERSEDED.peek()) {
+        if (!all && !s.released.get()) {
+          break;
+        }
+        SUPERSEDED.poll();
+        for (int i = s.retired.size() - 1; i >= 0; i--) {
+          var cont = s.retired.get(i);
+          if (cont.ds != null) {
+            cont.ds.close();
+            cont.ds = null;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * FanOutImpl.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi.internal;
+
+import static com.github.sttk.sabi.AsyncGroup.RunnerCancelled;
+import static com.github.sttk.sabi.AsyncGroup.RunnerInterrupted;
+import static com.github.sttk.sabi.AsyncGroup.RuntimeExceptionOccured;
+
+import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.ErrEntry;
+import com.github.sttk.sabi.FanOut;
+import com.github.sttk.sabi.RunnerContext;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class FanOutImpl implements FanOut {
+  private final DataHubInner hub;
+  private final AsyncGroupImpl ag;
+  // The number of the tasks added since the last join, which are also the indexes of the tasks.
+  // Tasks may be added concurrently by the threads of a logic allowing concurrent data access.
+  private final AtomicInteger count = new AtomicInteger();
+
+  FanOutImpl(DataHubInner hub) {
+    this.hub = hub;
+
+    var manager = hub.dataConnManager;
+    this.ag = new AsyncGroupImpl(manager.maxRunners, false);
+    this.ag.executor = manager.executor;
+    this.ag.executors = manager.executors;
+  }
+
+  @Override
+  public <T> Result<T> add(String name, Task<T> task) {
+    int index = this.count.getAndIncrement();
+    if (index == 0) {
+      // The hub guards its data connections while tasks may get them concurrently, and joins or
+      // cancels this fan-out at the end of the logic if the logic has not joined it.
+      this.hub.forks.incrementAndGet();
+      this.hub.fanOuts.add(this);
+    }
+    var result = new ResultImpl<T>();
+    var ctx = new RunnerContext(this.hub.dataConnManager.txnId, null, index, name);
+    var prev = AsyncGroupImpl.enter(ctx);
+    try {
+      this.ag.submit(() -> result.run(task), h -> result.handle = h);
+    } finally {
+      AsyncGroupImpl.exit(prev);
+    }
+    return result;
+  }
+
+  @Override
+  public void join() throws Err {
+    if (this.count.get() == 0) {
+      return;
+    }
+    List<ErrEntry> errors;
+    try {
+      errors = this.ag.join();
+    } finally {
+      release();
+    }
+
+    if (!errors.isEmpty()) {
+      throw new Err(new FailToRunInParallel(errors));
+    }
+  }
+
+  // Interrupts the tasks still running, prevents the tasks not yet started from running, and waits
+  // for them to end. Their results are got as RunnerCancelled.
+  void cancel() {
+    if (this.count.get() == 0) {
+      return;
+    }
+    this.ag.cancel();
+    try {
+      this.ag.join();
+    } finally {
+      release();
+    }
+  }
+
+  private void release() {
+    this.count.set(0);
+    this.hub.fanOuts.remove(this);
+    this.hub.forks.decrementAndGet();
+  }
+
+  public static final class ResultImpl<T> implements Result<T> {
+    private AsyncGroup.Handle handle;
+    private boolean succeeded;
+    private T value;
+    private Err err;
+
+    private ResultImpl() {}
+
+    // The fields written here are visible to get() through the latch of the runner.
+    private void run(Task<T> task) throws Err {
+      try {
+        this.value = task.run();
+        this.succeeded = true;
+      } catch (Err e) {
+        this.err = e;
+        throw e;
+      } catch (RuntimeException e) {
+        this.err = new Err(new RuntimeExceptionOccured(), e);
+        throw this.err;
+      }
+    }
+
+    @Override
+    public T get() throws Err {
+      try {
+        AsyncGroupImpl.awaitHandle(this.handle);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new Err(new RunnerInterrupted(), e);
+      }
+      if (this.succeeded) {
+        return this.value;
+      }
+      if (this.err != null) {
+        throw this.err;
+      }
+      // The task did not run.
+      throw new Err(new RunnerCancelled());
+    }
+  }
+}
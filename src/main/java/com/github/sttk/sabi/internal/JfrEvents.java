@@ -0,0 +1,309 @@
+/*
+ * JfrEvents.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi.internal;
+
+import com.github.sttk.sabi.ErrEntry;
+import com.github.sttk.sabi.Phase;
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// The JDK Flight Recorder events of transactions. They are disabled by default and enabled by the
+// settings of a recording, for example with `jcmd <pid> JFR.start settings=<file>`. The types of
+// the events are checked before the events are created, so nothing is allocated while they are
+// disabled.
+//
+// The module jdk.jfr is required only statically, so that this module also runs on a runtime image
+// without it. No class of jdk.jfr is loaded unless the module is readable, and until then the
+// classes of the events below are only named in signatures, which does not load them.
+final class JfrEvents {
+  private JfrEvents() {}
+
+  private static final boolean AVAILABLE = isAvailable();
+
+  private static boolean isAvailable() {
+    var jfr = ModuleLayer.boot().findModule("jdk.jfr");
+    return jfr.isPresent() && JfrEvents.class.getModule().canRead(jfr.get());
+  }
+
+  static final String SUCCEEDED = "Succeeded";
+  static final String FAILED = "Failed";
+
+  static final String COMMITTED = "Committed";
+  static final String ROLLED_BACK = "RolledBack";
+  static final String COMPLETED = "Completed";
+
+  // The phases of a data connection which are not in Phase.
+  static final String CREATE = "CreateDataConn";
+  static final String CLOSE = "Close";
+
+  @Name("com.github.sttk.sabi.Txn")
+  @Label("Transaction")
+  @Category("Sabi")
+  @Description("A run of a logic by DataHub#txn or DataHub#run, from its begin to its end")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class TxnEvent extends Event {
+    @Label("Transaction Id")
+    long txnId;
+
+    @Label("Outcome")
+    @Description("Committed, RolledBack, or Completed if neither")
+    String outcome;
+  }
+
+  @Name("com.github.sttk.sabi.TxnPhase")
+  @Label("Transaction Phase")
+  @Category("Sabi")
+  @Description("A lifecycle phase of a transaction including the runners of its async group")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class PhaseEvent extends Event {
+    @Label("Transaction Id")
+    long txnId;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Errors")
+    int errors;
+  }
+
+  @Name("com.github.sttk.sabi.DataConnPhase")
+  @Label("Data Connection Phase")
+  @Category("Sabi")
+  @Description("A call to a data connection in a phase, excluding the runners it added")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class DataConnEvent extends Event {
+    @Label("Transaction Id")
+    long txnId;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Name")
+    String name;
+
+    @Label("Type")
+    String type;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Cause State")
+    @Description("The TxnFailureCauseState of the data connection if the transaction failed")
+    String causeState;
+  }
+
+  @Name("com.github.sttk.sabi.DataSrcSetup")
+  @Label("Data Source Setup")
+  @Category("Sabi")
+  @Description("A call to the setup of a data source, excluding the runners it added")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class DataSrcEvent extends Event {
+    @Label("Transaction Id")
+    long txnId;
+
+    @Label("Name")
+    String name;
+
+    @Label("Type")
+    String type;
+
+    @Label("Outcome")
+    String outcome;
+  }
+
+  // Initialized at the first check of AVAILABLE being true.
+  private static final class Types {
+    static final EventType TXN = EventType.getEventType(TxnEvent.class);
+    static final EventType PHASE = EventType.getEventType(PhaseEvent.class);
+    static final EventType DATA_CONN = EventType.getEventType(DataConnEvent.class);
+    static final EventType DATA_SRC = EventType.getEventType(DataSrcEvent.class);
+  }
+
+  static TxnEvent beginTxn() {
+    if (!AVAILABLE || !Types.TXN.isEnabled()) {
+      return null;
+    }
+    var ev = new TxnEvent();
+    ev.begin();
+    return ev;
+  }
+
+  static void commitTxn(TxnEvent ev, long txnId, String outcome) {
+    if (ev == null) {
+      return;
+    }
+    ev.end();
+    if (ev.shouldCommit()) {
+      ev.txnId = txnId;
+      ev.outcome = outcome;
+      ev.commit();
+    }
+  }
+
+  static PhaseEvent beginPhase() {
+    if (!AVAILABLE || !Types.PHASE.isEnabled()) {
+      return null;
+    }
+    var ev = new PhaseEvent();
+    ev.begin();
+    return ev;
+  }
+
+  static void commitPhase(PhaseEvent ev, long txnId, Phase phase, List<ErrEntry> errors) {
+    if (ev == null) {
+      return;
+    }
+    ev.end();
+    if (ev.shouldCommit()) {
+      ev.txnId = txnId;
+      ev.phase = phase.name();
+      ev.outcome = errors.isEmpty() ? SUCCEEDED : FAILED;
+      ev.errors = errors.size();
+      ev.commit();
+    }
+  }
+
+  // The events of data connections in a phase are indexed in the same way as the failure reports,
+  // and committed after the phase when the outcomes of their runners are known.
+  static DataConnEvent[] dataConnEvents(int size) {
+    if (!AVAILABLE || !Types.DATA_CONN.isEnabled()) {
+      return null;
+    }
+    return new DataConnEvent[size];
+  }
+
+  static void beginDataConn(DataConnEvent[] events, int index) {
+    if (events == null) {
+      return;
+    }
+    var ev = new DataConnEvent();
+    ev.begin();
+    events[index] = ev;
+  }
+
+  static void endDataConn(DataConnEvent[] events, int index) {
+    if (events != null && events[index] != null) {
+      events[index].end();
+    }
+  }
+
+  static void commitDataConns(
+      DataConnEvent[] events,
+      long txnId,
+      String phase,
+      List<DataConnContainer> list,
+      List<ErrEntry> errors,
+      List<TxnFailureReportBuilder> builders) {
+    if (events == null) {
+      return;
+    }
+    int ii = 0;
+    for (int i = 0, n = list.size(); i < n; i++) {
+      var cont = list.get(i);
+      if (cont.conn == null) {
+        continue;
+      }
+      int index = ii++;
+      var ev = events[index];
+      if (ev == null || !ev.shouldCommit()) {
+        continue;
+      }
+      ev.txnId = txnId;
+      ev.phase = phase;
+      ev.name = cont.name;
+      ev.type = cont.conn.getClass().getName();
+      ev.outcome = hasError(errors, index) ? FAILED : SUCCEEDED;
+      if (index < builders.size()) {
+        ev.causeState = builders.get(index).cause.state.name();
+      }
+      ev.commit();
+    }
+  }
+
+  static DataConnEvent beginCreateDataConn() {
+    if (!AVAILABLE || !Types.DATA_CONN.isEnabled()) {
+      return null;
+    }
+    var ev = new DataConnEvent();
+    ev.begin();
+    return ev;
+  }
+
+  static void commitCreateDataConn(DataConnEvent ev, long txnId, String name, Object conn) {
+    if (ev == null) {
+      return;
+    }
+    ev.end();
+    if (ev.shouldCommit()) {
+      ev.txnId = txnId;
+      ev.phase = CREATE;
+      ev.name = name;
+      ev.type = (conn != null) ? conn.getClass().getName() : null;
+      ev.outcome = (conn != null) ? SUCCEEDED : FAILED;
+      ev.commit();
+    }
+  }
+
+  static DataSrcEvent[] dataSrcEvents(int size) {
+    if (!AVAILABLE || !Types.DATA_SRC.isEnabled()) {
+      return null;
+    }
+    return new DataSrcEvent[size];
+  }
+
+  static void beginDataSrc(DataSrcEvent[] events, int index, long txnId, DataSrcContainer cont) {
+    if (events == null) {
+      return;
+    }
+    var ev = new DataSrcEvent();
+    ev.txnId = txnId;
+    ev.name = cont.name;
+    ev.type = cont.ds.getClass().getName();
+    ev.begin();
+    events[index] = ev;
+  }
+
+  static void endDataSrc(DataSrcEvent[] events, int index) {
+    if (events != null && events[index] != null) {
+      events[index].end();
+    }
+  }
+
+  static void commitDataSrcs(DataSrcEvent[] events, List<ErrEntry> errors) {
+    if (events == null) {
+      return;
+    }
+    for (int i = 0; i < events.length; i++) {
+      var ev = events[i];
+      if (ev != null && ev.shouldCommit()) {
+        ev.outcome = hasError(errors, i) ? FAILED : SUCCEEDED;
+        ev.commit();
+      }
+    }
+  }
+
+  private static boolean hasError(List<ErrEntry> errors, int index) {
+    for (int i = 0, n = errors.size(); i < n; i++) {
+      if (errors.get(i).index == index) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * LogHistogram.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi.internal;
+
+import com.github.sttk.sabi.Histogram;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// A lock-free histogram with the buckets of Histogram. The counts start in one stripe, and the
+// stripes are doubled when threads contend for a bucket, in the way of LongAdder.
+final class LogHistogram {
+  private static final int MAX_STRIPES =
+      Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+  private volatile AtomicLongArray[] stripes = {new AtomicLongArray(Histogram.BUCKETS)};
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  void record(long value) {
+    if (value < 0L) {
+      value = 0L;
+    }
+    int index = Histogram.bucketOf(value);
+    var stripes = this.stripes;
+    var counts = stripes[(int) Thread.currentThread().threadId() & (stripes.length - 1)];
+    long c = counts.get(index);
+    if (!counts.compareAndSet(index, c, c + 1L)) {
+      counts.getAndIncrement(index);
+      grow(stripes.length);
+    }
+    this.sum.add(value);
+    long m = this.max.get();
+    while (value > m && !this.max.compareAndSet(m, value)) {
+      m = this.max.get();
+    }
+  }
+
+  private synchronized void grow(int length) {
+    var stripes = this.stripes;
+    if (stripes.length != length || length >= MAX_STRIPES) {
+      return;
+    }
+    var grown = new AtomicLongArray[length * 2];
+    System.arraycopy(stripes, 0, grown, 0, length);
+    for (int i = length; i < grown.length; i++) {
+      grown[i] = new AtomicLongArray(Histogram.BUCKETS);
+    }
+    this.stripes = grown;
+  }
+
+  Histogram snapshot() {
+    var counts = new long[Histogram.BUCKETS];
+    for (var stripe : this.stripes) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += stripe.get(i);
+      }
+    }
+    return new Histogram(counts, this.sum.sum(), this.max.get());
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Metrics.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi.internal;
+
+import com.github.sttk.sabi.ErrEntry;
+import com.github.sttk.sabi.MetricsExporter;
+import com.github.sttk.sabi.Phase;
+import com.github.sttk.sabi.RetryMetrics;
+import com.github.sttk.sabi.TxnFailureCauseState;
+import com.github.sttk.sabi.TxnFailureRecovery;
+import com.github.sttk.sabi.TxnFailureReport;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// The metrics of transactions in this process. Nothing is measured until they are enabled, and the
+// statistics of a data connection name are cached in its container after the first lookup.
+final class Metrics {
+  private Metrics() {}
+
+  static volatile boolean enabled;
+
+  static final String[] OUTCOMES = {
+    JfrEvents.COMMITTED, JfrEvents.ROLLED_BACK, JfrEvents.COMPLETED
+  };
+  static final int COMMITTED = 0;
+  static final int ROLLED_BACK = 1;
+  static final int COMPLETED = 2;
+
+  private static final LogHistogram[] TXN_DURATIONS = {
+    new LogHistogram(), new LogHistogram(), new LogHistogram()
+  };
+  private static final ConcurrentHashMap<String, DataConnStats> DATA_CONNS =
+      new ConcurrentHashMap<>();
+  private static final LongAdder[] CAUSES = adders(TxnFailureCauseState.values().length);
+  private static final LongAdder[] RECOVERIES_FOR_COMMIT =
+      adders(TxnFailureRecovery.values().length);
+  private static final LongAdder[] RECOVERIES_FOR_ROLLBACK =
+      adders(TxnFailureRecovery.values().length);
+
+  private static LongAdder[] adders(int n) {
+    var adders = new LongAdder[n];
+    for (int i = 0; i < n; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  static final class DataConnStats {
+    // The histograms are created at the first record of each phase and published by CAS, so that a
+    // reader never sees one which is not fully constructed.
+    private final AtomicReferenceArray<LogHistogram> durations =
+        new AtomicReferenceArray<>(Phase.values().length);
+    private final LongAdder[] failures = adders(Phase.values().length);
+
+    private LogHistogram duration(Phase phase) {
+      var h = this.durations.get(phase.ordinal());
+      if (h == null) {
+        h = new LogHistogram();
+        if (!this.durations.compareAndSet(phase.ordinal(), null, h)) {
+          h = this.durations.get(phase.ordinal());
+        }
+      }
+      return h;
+    }
+  }
+
+  static DataConnStats dataConnStats(String name) {
+    return DATA_CONNS.computeIfAbsent(name, k -> new DataConnStats());
+  }
+
+  static void recordTxn(int outcome, long nanos) {
+    TXN_DURATIONS[outcome].record(nanos);
+  }
+
+  // Records the durations measured into the containers in a phase and clears them, and counts the
+  // failures of the phase.
+  static void recordDataConns(Phase phase, List<DataConnContainer> list, List<ErrEntry> errors) {
+    for (int i = 0, n = list.size(); i < n; i++) {
+      var cont = list.get(i);
+      if (cont.elapsed < 0L) {
+        continue;
+      }
+      var stats = cont.stats;
+      if (stats == null) {
+        stats = dataConnStats(cont.name);
+        cont.stats = stats;
+      }
+      stats.duration(phase).record(cont.elapsed);
+      cont.elapsed = -1L;
+    }
+    for (int i = 0, n = errors.size(); i < n; i++) {
+      dataConnStats(errors.get(i).name).failures[phase.ordinal()].increment();
+    }
+  }
+
+  static void recordFailures(List<TxnFailureReport> reports) {
+    for (int i = 0, n = reports.size(); i < n; i++) {
+      var report = reports.get(i);
+      CAUSES[report.cause.state.ordinal()].increment();
+      RECOVERIES_FOR_COMMIT[report.recoveryForCommit().ordinal()].increment();
+      RECOVERIES_FOR_ROLLBACK[report.recoveryForRollback().ordinal()].increment();
+    }
+  }
+
+  static void export(MetricsExporter exporter, RetryMetrics retries) {
+    for (int i = 0; i < OUTCOMES.length; i++) {
+      exporter.histogram(
+          "sabi.txn.duration", Map.of("outcome", OUTCOMES[i]), TXN_DURATIONS[i].snapshot());
+    }
+    var phases = Phase.values();
+    for (var entry : DATA_CONNS.entrySet()) {
+      var stats = entry.getValue();
+      for (var phase : phases) {
+        var tags = Map.of("name", entry.getKey(), "phase", phase.name());
+        var h = stats.durations.get(phase.ordinal());
+        if (h != null) {
+          exporter.histogram("sabi.dataconn.duration", tags, h.snapshot());
+        }
+        long failures = stats.failures[phase.ordinal()].sum();
+        if (h != null || failures != 0L) {
+          exporter.counter("sabi.dataconn.failures", tags, failures);
+        }
+      }
+    }
+    for (var state : TxnFailureCauseState.values()) {
+      exporter.counter(
+          "sabi.txn.failure.cause", Map.of("state", state.name()), CAUSES[state.ordinal()].sum());
+    }
+    for (var recovery : TxnFailureRecovery.values()) {
+      exporter.counter(
+          "sabi.txn.failure.recovery",
+          Map.of("intent", "commit", "recovery", recovery.name()),
+          RECOVERIES_FOR_COMMIT[recovery.ordinal()].sum());
+      exporter.counter(
+          "sabi.txn.failure.recovery",
+          Map.of("intent", "rollback", "recovery", recovery.name()),
+          RECOVERIES_FOR_ROLLBACK[recovery.ordinal()].sum());
+    }
+    exporter.counter("sabi.txn.retries", Map.of(), retries.retries());
+    exporter.counter("sabi.txn.retry.recovered", Map.of(), retries.recovered());
+    exporter.counter("sabi.txn.retry.exhausted", Map.of(), retries.exhausted());
+  }
+}
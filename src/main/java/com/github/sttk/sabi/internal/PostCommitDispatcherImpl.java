@@ -0,0 +1,468 @@
+/*
+ * PostCommitDispatcherImpl.java
+ * Copyright (C) 2026 Takayuki Sato. All Rights Reserved.
+ */
+package com.github.sttk.sabi.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.Phase;
+import com.github.sttk.sabi.PostCommitDispatcher;
+import com.github.sttk.sabi.TxnFailureCause;
+import com.github.sttk.sabi.TxnFailureCauseState;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public final class PostCommitDispatcherImpl implements PostCommitDispatcher {
+  // The queue file is compacted when at least this many entries have been marked as done since it
+  // was last compacted, and their lines are at least half of the file.
+  static final int COMPACT_MIN_DONE = 16;
+
+  private final Path file;
+  private final Map<String, Rerun> reruns;
+  private final long initialBackoff;
+  private final long maxBackoff;
+  // The maximum number of reruns of an entry, or 0 if unlimited.
+  private final int maxAttempts;
+  private final DeadLetter deadLetter;
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  // Guarded by fileLock. Not a FileChannel, which is closed when a thread writing it is
+  // interrupted. The locks are not monitors, which would pin the carriers of virtual threads while
+  // the file is synced.
+  private final ReentrantLock fileLock = new ReentrantLock();
+  private FileOutputStream out;
+  private long nextId;
+  // The entries not yet marked as done, the number of lines in the file, and the number of entries
+  // marked as done in it.
+  private final LinkedHashMap<Long, Entry> pending;
+  private int lines;
+  private int done;
+
+  // Guarded by lock.
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition allFinished = this.lock.newCondition();
+  private int running;
+  private boolean closed;
+
+  static final class Entry {
+    final long id;
+    final String name;
+    final String record;
+    int attempts;
+
+    Entry(long id, String name, String record) {
+      this.id = id;
+      this.name = name;
+      this.record = record;
+    }
+  }
+
+  private PostCommitDispatcherImpl(
+      Path file,
+      Map<String, Rerun> reruns,
+      long initialBackoff,
+      long maxBackoff,
+      int maxAttempts,
+      DeadLetter deadLetter,
+      FileOutputStream out,
+      long nextId,
+      LinkedHashMap<Long, Entry> pending) {
+    this.file = file;
+    this.reruns = Map.copyOf(reruns);
+    // At least a millisecond, so that a failing rerun is not retried in a busy loop
+    this.initialBackoff = Math.max(initialBackoff, TimeUnit.MILLISECONDS.toNanos(1L));
+    this.maxBackoff = Math.max(maxBackoff, this.initialBackoff);
+    this.maxAttempts = maxAttempts;
+    this.deadLetter = deadLetter;
+    this.out = out;
+    this.nextId = nextId;
+    this.pending = pending;
+    this.lines = pending.size();
+    this.scheduler =
+        new ScheduledThreadPoolExecutor(
+            1, Thread.ofPlatform().name("sabi-post-commit-retry").daemon().factory());
+    this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  // The queue file is a sequence of lines, each of which is "A id name record" appending a failed
+  // post-commit or "D id" marking it as done, separated by tabs. The name and the record are
+  // encoded with Base64. A line broken by a crash while being written is ignored. The file is
+  // compacted to the entries not yet done when opened, and again when the lines of the entries
+  // done pile up.
+  public static PostCommitDispatcherImpl open(
+      Path file,
+      Map<String, Rerun> reruns,
+      Duration initialBackoff,
+      Duration maxBackoff,
+      int maxAttempts,
+      DeadLetter deadLetter)
+      throws Err {
+    var pending = new LinkedHashMap<Long, Entry>();
+    long nextId = 1L;
+    FileOutputStream out;
+    try {
+      if (Files.exists(file)) {
+        for (var line : Files.readAllLines(file, UTF_8)) {
+          var entry = parseLine(line, pending);
+          if (entry != null) {
+            nextId = Math.max(nextId, entry.id + 1);
+          }
+        }
+      }
+
+      out = compact(file, pending.values());
+    } catch (IOException | RuntimeException e) {
+      throw new Err(new FailToOpenPostCommitQueue(file), e);
+    }
+
+    var dispatcher =
+        new PostCommitDispatcherImpl(
+            file,
+            reruns,
+            AsyncGroupImpl.toNanos(initialBackoff),
+            AsyncGroupImpl.toNanos(maxBackoff),
+            maxAttempts,
+            deadLetter,
+            out,
+            nextId,
+            pending);
+    for (var entry : pending.values()) {
+      dispatcher.scheduleRetry(entry, 0L);
+    }
+    return dispatcher;
+  }
+
+  // Replaces the file with the one which has only the lines of the entries, and opens it to append.
+  private static FileOutputStream compact(Path file, Collection<Entry> entries)
+      throws IOException {
+    var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (var w = new FileOutputStream(tmp.toFile())) {
+      for (var entry : entries) {
+        w.write(addLine(entry).getBytes(UTF_8));
+      }
+      w.getFD().sync();
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return new FileOutputStream(file.toFile(), true);
+  }
+
+  private static Entry parseLine(String line, Map<Long, Entry> pending) {
+    var fields = line.split("\t", -1);
+    try {
+      if (fields.length == 4 && fields[0].equals("A")) {
+        var entry = new Entry(Long.parseLong(fields[1]), decode(fields[2]), decode(fields[3]));
+        pending.put(entry.id, entry);
+        return entry;
+      }
+      if (fields.length == 2 && fields[0].equals("D")) {
+        pending.remove(Long.parseLong(fields[1]));
+      }
+    } catch (IllegalArgumentException e) {
+      // ignore a broken line
+    }
+    return null;
+  }
+
+  private static String addLine(Entry entry) {
+    return "A\t" + entry.id + "\t" + encode(entry.name) + "\t" + encode(entry.record) + "\n";
+  }
+
+  private static String encode(String s) {
+    return Base64.getEncoder().encodeToString(s.getBytes(UTF_8));
+  }
+
+  private static String decode(String s) {
+    return new String(Base64.getDecoder().decode(s), UTF_8);
+  }
+
+  // Runs the post-commits of the committed connections on a virtual thread, and closes them
+  // afterwards. Returns false without taking the connections if this dispatcher is closed. The
+  // given callback is run once when the connections have been closed or have not been taken.
+  boolean dispatch(
+      long txnId,
+      String[] names,
+      DataConn[] conns,
+      AsyncGroupImpl ag,
+      long postCommitTimeout,
+      long onTxnFailureTimeout,
+      Runnable done) {
+    this.lock.lock();
+    try {
+      if (this.closed) {
+        done.run();
+        return false;
+      }
+      this.running++;
+    } finally {
+      this.lock.unlock();
+    }
+    try {
+      Thread.startVirtualThread(
+          () -> {
+            try {
+              postCommit(txnId, names, conns, ag, postCommitTimeout, onTxnFailureTimeout);
+            } finally {
+              done.run();
+              finishRunning();
+            }
+          });
+    } catch (RuntimeException | Error e) {
+      done.run();
+      finishRunning();
+      throw e;
+    }
+    return true;
+  }
+
+  private void finishRunning() {
+    this.lock.lock();
+    try {
+      this.running--;
+      if (this.running == 0) {
+        this.allFinished.signalAll();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void postCommit(
+      long txnId,
+      String[] names,
+      DataConn[] conns,
+      AsyncGroupImpl ag,
+      long postCommitTimeout,
+      long onTxnFailureTimeout) {
+    var scope = new ContextScope();
+    long deadline = AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, postCommitTimeout);
+    for (int i = 0; i < conns.length; i++) {
+      scope.set(txnId, Phase.PostCommit, i, names[i]);
+      var prev = AsyncGroupImpl.enter(scope);
+      try {
+        conns[i].postCommit(ag);
+      } catch (Err err) {
+        ag.addErr(i, names[i], err);
+      } catch (RuntimeException re) {
+        ag.addErr(i, names[i], re);
+      } finally {
+        AsyncGroupImpl.exit(prev);
+      }
+    }
+    var errors = ag.join(deadline);
+
+    if (!errors.isEmpty()) {
+      var builders = new ArrayList<TxnFailureReportBuilder>(conns.length);
+      for (int i = 0; i < conns.length; i++) {
+        var builder = new TxnFailureReportBuilder(names[i], conns[i].getClass());
+        if (conns[i].isCommitted()) {
+          builder.cause = new TxnFailureCause(TxnFailureCauseState.NoneByCommitted, null);
+        }
+        builders.add(builder);
+      }
+      var failed = new boolean[conns.length];
+      for (var ee : errors) {
+        builders.get(ee.index).cause =
+            new TxnFailureCause(TxnFailureCauseState.PostCommitFailure, ee.err);
+        failed[ee.index] = true;
+      }
+
+      var reports = builders.stream().map(TxnFailureReportBuilder::build).toList();
+      deadline = AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, onTxnFailureTimeout);
+      for (int i = 0; i < conns.length; i++) {
+        scope.set(txnId, Phase.OnTxnFailure, i, names[i]);
+        var prev = AsyncGroupImpl.enter(scope);
+        try {
+          conns[i].onTxnFailure(ag, reports);
+        } catch (RuntimeException re) {
+          // there is no caller to receive it in the background
+        } finally {
+          AsyncGroupImpl.exit(prev);
+        }
+      }
+      ag.join(deadline);
+
+      for (int i = 0; i < conns.length; i++) {
+        if (failed[i] && this.reruns.containsKey(names[i])) {
+          var record = conns[i].postCommitRecord();
+          if (record != null) {
+            enqueue(names[i], record);
+          }
+        }
+      }
+    }
+
+    for (int i = conns.length - 1; i >= 0; i--) {
+      try {
+        conns[i].close();
+      } catch (RuntimeException re) {
+        // there is no caller to receive it in the background
+      }
+    }
+  }
+
+  private void enqueue(String name, String record) {
+    Entry entry;
+    this.fileLock.lock();
+    try {
+      entry = new Entry(this.nextId++, name, record);
+      this.pending.put(entry.id, entry);
+      append(addLine(entry));
+    } finally {
+      this.fileLock.unlock();
+    }
+    scheduleRetry(entry, this.initialBackoff);
+  }
+
+  // If the line cannot be written, the entry is still retried while this process lives but is
+  // lost on a restart, because there is no caller to receive the error in the background.
+  private void append(String line) {
+    this.fileLock.lock();
+    try {
+      this.lines++;
+      this.out.write(line.getBytes(UTF_8));
+      this.out.getFD().sync();
+    } catch (IOException e) {
+      // see above
+    } finally {
+      this.fileLock.unlock();
+    }
+  }
+
+  private void markDone(Entry entry) {
+    this.fileLock.lock();
+    try {
+      this.pending.remove(entry.id);
+      append("D\t" + entry.id + "\n");
+      this.done++;
+      if (this.done >= COMPACT_MIN_DONE && this.done * 4 >= this.lines) {
+        compact();
+      }
+    } finally {
+      this.fileLock.unlock();
+    }
+  }
+
+  // If the file cannot be compacted, the lines keep being appended to the current one. The stream
+  // being replaced is closed only after the new one is opened.
+  private void compact() {
+    FileOutputStream compacted;
+    try {
+      compacted = compact(this.file, this.pending.values());
+    } catch (IOException e) {
+      return;
+    }
+    try {
+      this.out.close();
+    } catch (IOException e) {
+      // the lines already forced are in the replaced file
+    }
+    this.out = compacted;
+    this.lines = this.pending.size();
+    this.done = 0;
+  }
+
+  private void scheduleRetry(Entry entry, long delay) {
+    try {
+      this.scheduler.schedule(() -> retry(entry), delay, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException e) {
+      // closed, and the entry is retried after the queue file is opened again
+    }
+  }
+
+  private void retry(Entry entry) {
+    var rerun = this.reruns.get(entry.name);
+    if (rerun == null) {
+      return;
+    }
+    try {
+      rerun.rerun(entry.record);
+    } catch (Err | RuntimeException e) {
+      entry.attempts++;
+      if (this.maxAttempts > 0 && entry.attempts >= this.maxAttempts) {
+        giveUp(entry, e);
+      } else {
+        scheduleRetry(entry, backoff(entry.attempts));
+      }
+      return;
+    }
+    markDone(entry);
+  }
+
+  // Hands the entry whose retries are exhausted to the dead letter, and marks it as done only if it
+  // has been received.
+  private void giveUp(Entry entry, Exception cause) {
+    var err =
+        new Err(new PostCommitRetriesExhausted(entry.name, entry.record, entry.attempts), cause);
+    try {
+      this.deadLetter.deadLetter(err);
+    } catch (RuntimeException e) {
+      // kept in the queue file and retried after it is opened again
+      return;
+    }
+    markDone(entry);
+  }
+
+  private long backoff(int attempts) {
+    long delay = this.initialBackoff;
+    for (int i = 0; i < attempts && delay < this.maxBackoff; i++) {
+      delay = (delay > Long.MAX_VALUE / 2) ? Long.MAX_VALUE : delay * 2;
+    }
+    return Math.min(delay, this.maxBackoff);
+  }
+
+  @Override
+  public void close() {
+    boolean interrupted = false;
+    this.lock.lock();
+    try {
+      this.closed = true;
+      while (this.running > 0) {
+        try {
+          this.allFinished.await();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    // A retry being run is finished, and the ones waiting for their delays are dropped.
+    this.scheduler.shutdown();
+    try {
+      this.scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      interrupted = true;
+    }
+
+    this.fileLock.lock();
+    try {
+      this.out.close();
+    } catch (IOException e) {
+      // the records already forced are kept
+    } finally {
+      this.fileLock.unlock();
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
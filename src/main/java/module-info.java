@@ -10,10 +10,15 @@
  * manage data source and connection lifecycles, and execute logic functions in transactional or
  * non-transactional scopes.
  *
+ * <p>The JDK Flight Recorder events of transactions are available when the module {@code jdk.jfr}
+ * is in the runtime, which is resolved, for example, by {@code --add-modules jdk.jfr} when an
+ * application on the module path does not require it.
+ *
  * @version 0.8
  */
 module com.github.sttk.sabi {
   exports com.github.sttk.sabi;
 
   requires transitive com.github.sttk.errs;
+  requires static jdk.jfr;
 }
@@ -4,12 +4,31 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
 
 import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.Phase;
 import com.github.sttk.sabi.Runner;
+import com.github.sttk.sabi.RunnerContext;
+import com.github.sttk.sabi.RunnerExecutor;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
 public class AsyncGroupImplTest {
   private AsyncGroupImplTest() {}
 
+  static void enter(int index, String name) {
+    AsyncGroupImpl.enter(new RunnerContext(0L, null, index, name));
+  }
+
+  @AfterEach
+  void afterEach() {
+    AsyncGroupImpl.exit(null);
+  }
+
   @Test
   void zero() {
     var ag = new AsyncGroupImpl();
@@ -32,8 +51,7 @@ public class AsyncGroupImplTest {
           executed[0] = true;
         };
 
-    ag._index = 123;
-    ag._name = "foo";
+    enter(123, "foo");
     ag.add(fn);
     assertThat(executed[0]).isFalse();
 
@@ -59,8 +77,7 @@ public class AsyncGroupImplTest {
           throw new Err(new FailToDoSomething());
         };
 
-    ag._index = 123;
-    ag._name = "foo";
+    enter(123, "foo");
     ag.add(fn);
     assertThat(executed[0]).isFalse();
 
@@ -114,14 +131,11 @@ public class AsyncGroupImplTest {
           throw new Err(new Reason2());
         };
 
-    ag._index = 123;
-    ag._name = "foo0";
+    enter(123, "foo0");
     ag.add(fn0);
-    ag._index = 456;
-    ag._name = "foo1";
+    enter(456, "foo1");
     ag.add(fn1);
-    ag._index = 789;
-    ag._name = "foo2";
+    enter(789, "foo2");
     ag.add(fn2);
 
     var errors = ag.join();
@@ -133,16 +147,754 @@ public class AsyncGroupImplTest {
     assertThat(errors.get(0).name).isEqualTo("foo2");
     assertThat(errors.get(0).err.toString())
         .isEqualTo(
-            "com.github.sttk.errs.Err { reason = com.github.sttk.sabi.internal.AsyncGroupImplTest$1Reason2 Reason2[], file = AsyncGroupImplTest.java, line = 114 }");
+            "com.github.sttk.errs.Err { reason = com.github.sttk.sabi.internal.AsyncGroupImplTest$1Reason2 Reason2[], file = AsyncGroupImplTest.java, line = 131 }");
     assertThat(errors.get(1).index).isEqualTo(123);
     assertThat(errors.get(1).name).isEqualTo("foo0");
     assertThat(errors.get(1).err.toString())
         .isEqualTo(
-            "com.github.sttk.errs.Err { reason = com.github.sttk.sabi.internal.AsyncGroupImplTest$1Reason0 Reason0[], file = AsyncGroupImplTest.java, line = 96 }");
+            "com.github.sttk.errs.Err { reason = com.github.sttk.sabi.internal.AsyncGroupImplTest$1Reason0 Reason0[], file = AsyncGroupImplTest.java, line = 113 }");
     assertThat(errors.get(2).index).isEqualTo(456);
     assertThat(errors.get(2).name).isEqualTo("foo1");
     assertThat(errors.get(2).err.toString())
         .isEqualTo(
-            "com.github.sttk.errs.Err { reason = com.github.sttk.sabi.internal.AsyncGroupImplTest$1Reason1 Reason1[], file = AsyncGroupImplTest.java, line = 105 }");
+            "com.github.sttk.errs.Err { reason = com.github.sttk.sabi.internal.AsyncGroupImplTest$1Reason1 Reason1[], file = AsyncGroupImplTest.java, line = 122 }");
+  }
+
+  static Runner countingRunner(AtomicInteger running, AtomicInteger maxRunning) {
+    return () -> {
+      int n = running.incrementAndGet();
+      maxRunning.accumulateAndGet(n, Math::max);
+      try {
+        Thread.sleep(50);
+      } catch (Exception e) {
+      }
+      running.decrementAndGet();
+    };
+  }
+
+  @Test
+  void limit_runners_in_group() {
+    var ag = new AsyncGroupImpl(2, false);
+
+    var running = new AtomicInteger();
+    var maxRunning = new AtomicInteger();
+
+    for (int i = 0; i < 6; i++) {
+      enter(i, "foo" + i);
+      ag.add(countingRunner(running, maxRunning));
+    }
+
+    var errors = ag.join();
+    assertThat(errors).isEmpty();
+    assertThat(maxRunning.get()).isEqualTo(2);
+  }
+
+  @Test
+  void limit_runners_globally() {
+    AsyncGroupImpl.limitGlobally(3);
+    try {
+      var ag0 = new AsyncGroupImpl();
+      var ag1 = new AsyncGroupImpl(2, false);
+
+      var running = new AtomicInteger();
+      var maxRunning = new AtomicInteger();
+
+      for (int i = 0; i < 4; i++) {
+        ag0.add(countingRunner(running, maxRunning));
+        ag1.add(countingRunner(running, maxRunning));
+      }
+
+      assertThat(ag0.join()).isEmpty();
+      assertThat(ag1.join()).isEmpty();
+      assertThat(maxRunning.get()).isEqualTo(3);
+    } finally {
+      AsyncGroupImpl.limitGlobally(0);
+    }
+  }
+
+  @Test
+  void error_of_queued_runner() {
+    var ag = new AsyncGroupImpl(1, false);
+
+    record FailToDoSomething() {}
+
+    enter(0, "foo");
+    ag.add(
+        () -> {
+          try {
+            Thread.sleep(50);
+          } catch (Exception e) {
+          }
+        });
+    enter(1, "bar");
+    ag.add(
+        () -> {
+          throw new Err(new FailToDoSomething());
+        });
+
+    var errors = ag.join();
+    assertThat(errors).hasSize(1);
+
+    assertThat(errors.get(0).index).isEqualTo(1);
+    assertThat(errors.get(0).name).isEqualTo("bar");
+    switch (errors.get(0).err.getReason()) {
+      case FailToDoSomething r -> {}
+      default -> fail();
+    }
+  }
+
+  @Test
+  void run_lone_runner_inline() {
+    var ag = new AsyncGroupImpl(0, true);
+
+    Thread[] threads = {null};
+    ag.add(() -> threads[0] = Thread.currentThread());
+    assertThat(threads[0]).isNull();
+
+    var errors = ag.join();
+    assertThat(errors).isEmpty();
+    assertThat(threads[0]).isEqualTo(Thread.currentThread());
+  }
+
+  @Test
+  void run_last_runner_inline() {
+    var ag = new AsyncGroupImpl(0, true);
+
+    Thread[] threads = {null, null, null};
+    for (int i = 0; i < 3; i++) {
+      int j = i;
+      ag.add(() -> threads[j] = Thread.currentThread());
+    }
+
+    var errors = ag.join();
+    assertThat(errors).isEmpty();
+    assertThat(threads[0].isVirtual()).isTrue();
+    assertThat(threads[1].isVirtual()).isTrue();
+    assertThat(threads[2]).isEqualTo(Thread.currentThread());
+  }
+
+  @Test
+  void error_of_inline_runner() {
+    var ag = new AsyncGroupImpl(0, true);
+
+    record FailToDoSomething() {}
+
+    enter(0, "foo");
+    ag.add(() -> {});
+    enter(1, "bar");
+    ag.add(
+        () -> {
+          throw new Err(new FailToDoSomething());
+        });
+
+    var errors = ag.join();
+    assertThat(errors).hasSize(1);
+    assertThat(errors.get(0).index).isEqualTo(1);
+    assertThat(errors.get(0).name).isEqualTo("bar");
+    switch (errors.get(0).err.getReason()) {
+      case FailToDoSomething r -> {}
+      default -> fail();
+    }
+  }
+
+  @Test
+  void reuse_after_join() {
+    var ag = new AsyncGroupImpl(0, true);
+
+    record FailToDoSomething() {}
+
+    ag.add(
+        () -> {
+          throw new Err(new FailToDoSomething());
+        });
+    assertThat(ag.join()).hasSize(1);
+
+    boolean[] executed = {false};
+    ag.add(() -> executed[0] = true);
+    assertThat(ag.join()).isEmpty();
+    assertThat(executed[0]).isTrue();
+
+    assertThat(ag.join()).isEmpty();
+  }
+
+  @Test
+  void cancel_other_runners_on_failure() {
+    var ag = new AsyncGroupImpl(0, false);
+    ag.failFast = true;
+
+    record FailToDoSomething() {}
+
+    boolean[] completed = {false};
+    enter(0, "foo");
+    ag.add(
+        () -> {
+          try {
+            Thread.sleep(5000);
+          } catch (InterruptedException e) {
+            throw new Err("interrupted", e);
+          }
+          completed[0] = true;
+        });
+    enter(1, "bar");
+    ag.add(
+        () -> {
+          try {
+            Thread.sleep(50);
+          } catch (Exception e) {
+          }
+          throw new Err(new FailToDoSomething());
+        });
+
+    long start = System.currentTimeMillis();
+    var errors = ag.join();
+    assertThat(System.currentTimeMillis() - start < 2000).isTrue();
+    assertThat(completed[0]).isFalse();
+    assertThat(errors).hasSize(2);
+
+    assertThat(errors.get(0).index).isEqualTo(1);
+    assertThat(errors.get(0).name).isEqualTo("bar");
+    switch (errors.get(0).err.getReason()) {
+      case FailToDoSomething r -> {}
+      default -> fail();
+    }
+    assertThat(errors.get(1).index).isEqualTo(0);
+    assertThat(errors.get(1).name).isEqualTo("foo");
+    switch (errors.get(1).err.getReason()) {
+      case AsyncGroup.RunnerCancelled r -> {}
+      default -> fail();
+    }
+  }
+
+  @Test
+  void cancel_runners_not_started_on_failure() {
+    var ag = new AsyncGroupImpl(1, false);
+    ag.failFast = true;
+
+    record FailToDoSomething() {}
+
+    boolean[] executed = {false, false};
+    enter(0, "foo");
+    ag.add(
+        () -> {
+          try {
+            Thread.sleep(50);
+          } catch (Exception e) {
+          }
+          throw new Err(new FailToDoSomething());
+        });
+    enter(1, "bar");
+    ag.add(() -> executed[0] = true);
+    enter(2, "baz");
+    ag.add(() -> executed[1] = true);
+
+    var errors = ag.join();
+    assertThat(errors).hasSize(3);
+    assertThat(executed[0]).isFalse();
+    assertThat(executed[1]).isFalse();
+
+    assertThat(errors.get(0).index).isEqualTo(0);
+    switch (errors.get(0).err.getReason()) {
+      case FailToDoSomething r -> {}
+      default -> fail();
+    }
+    for (int i = 1; i < 3; i++) {
+      switch (errors.get(i).err.getReason()) {
+        case AsyncGroup.RunnerCancelled r -> {}
+        default -> fail();
+      }
+    }
+  }
+
+  @Test
+  void cancel_inline_runner_on_failure() {
+    var ag = new AsyncGroupImpl(0, true);
+    ag.failFast = true;
+
+    boolean[] executed = {false};
+    enter(0, "foo");
+    ag.add(
+        () -> {
+          throw new Err("failed");
+        });
+    enter(1, "bar");
+    ag.add(() -> executed[0] = true);
+    try {
+      Thread.sleep(50);
+    } catch (Exception e) {
+    }
+
+    var errors = ag.join();
+    assertThat(errors).hasSize(2);
+    assertThat(executed[0]).isFalse();
+
+    assertThat(errors.get(0).name).isEqualTo("foo");
+    assertThat(errors.get(0).err.getReason()).isEqualTo("failed");
+    assertThat(errors.get(1).name).isEqualTo("bar");
+    switch (errors.get(1).err.getReason()) {
+      case AsyncGroup.RunnerCancelled r -> {}
+      default -> fail();
+    }
+  }
+
+  @Test
+  void cancel_on_failure_added_by_caller() {
+    var ag = new AsyncGroupImpl(0, false);
+    ag.failFast = true;
+
+    enter(0, "foo");
+    ag.add(
+        () -> {
+          try {
+            Thread.sleep(5000);
+          } catch (InterruptedException e) {
+            throw new Err("interrupted", e);
+          }
+        });
+    ag.addErr(1, "bar", new Err("failed"));
+    enter(2, "baz");
+    ag.add(() -> {});
+
+    var errors = ag.join();
+    assertThat(errors).hasSize(3);
+    assertThat(errors.get(0).name).isEqualTo("bar");
+    assertThat(errors.get(0).err.getReason()).isEqualTo("failed");
+    for (int i = 1; i < 3; i++) {
+      switch (errors.get(i).err.getReason()) {
+        case AsyncGroup.RunnerCancelled r -> {}
+        default -> fail();
+      }
+    }
+  }
+
+  @Test
+  void add_from_running_runner() {
+    var ag = new AsyncGroupImpl();
+
+    record FailToDoSomething() {}
+
+    var executed = new AtomicInteger();
+    enter(1, "foo");
+    ag.add(
+        () -> {
+          for (int i = 0; i < 3; i++) {
+            ag.add(
+                () -> {
+                  try {
+                    Thread.sleep(50);
+                  } catch (Exception e) {
+                  }
+                  executed.incrementAndGet();
+                  throw new Err(new FailToDoSomething());
+                });
+          }
+          executed.incrementAndGet();
+        });
+    enter(2, "bar");
+
+    var errors = ag.join();
+    assertThat(executed.get()).isEqualTo(4);
+    assertThat(errors).hasSize(3);
+    for (var ee : errors) {
+      assertThat(ee.index).isEqualTo(1);
+      assertThat(ee.name).isEqualTo("foo");
+      switch (ee.err.getReason()) {
+        case FailToDoSomething r -> {}
+        default -> fail();
+      }
+    }
+  }
+
+  @Test
+  void add_from_running_runner_when_last_is_inline() {
+    var ag = new AsyncGroupImpl(0, true);
+
+    var executed = new AtomicInteger();
+    ag.add(
+        () -> {
+          ag.add(
+              () -> {
+                ag.add(() -> executed.incrementAndGet());
+                executed.incrementAndGet();
+              });
+          executed.incrementAndGet();
+        });
+
+    var errors = ag.join();
+    assertThat(errors).isEmpty();
+    assertThat(executed.get()).isEqualTo(3);
+  }
+
+  @Test
+  void many_errors_at_once() {
+    var ag = new AsyncGroupImpl();
+
+    int n = 1000;
+    for (int i = 0; i < n; i++) {
+      enter(i, "foo" + i);
+      ag.add(
+          () -> {
+            throw new Err("failed");
+          });
+    }
+
+    var errors = ag.join();
+    assertThat(errors).hasSize(n);
+
+    var indexes = new boolean[n];
+    for (var ee : errors) {
+      assertThat(ee.name).isEqualTo("foo" + ee.index);
+      indexes[ee.index] = true;
+    }
+    for (int i = 0; i < n; i++) {
+      assertThat(indexes[i]).isTrue();
+    }
+  }
+
+  @Test
+  void join_before_deadline() {
+    var ag = new AsyncGroupImpl();
+
+    boolean[] executed = {false};
+    ag.add(
+        () -> {
+          try {
+            Thread.sleep(50);
+          } catch (Exception e) {
+          }
+          executed[0] = true;
+        });
+
+    var errors = ag.join(AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, 2_000_000_000L));
+    assertThat(errors).isEmpty();
+    assertThat(executed[0]).isTrue();
+  }
+
+  @Test
+  void time_out_runners_at_deadline() {
+    var ag = new AsyncGroupImpl();
+
+    boolean[] interrupted = {false};
+    enter(0, "foo");
+    ag.add(
+        () -> {
+          try {
+            Thread.sleep(5000);
+          } catch (InterruptedException e) {
+            interrupted[0] = true;
+            throw new Err("interrupted", e);
+          }
+        });
+    enter(1, "bar");
+    ag.add(() -> {});
+
+    long start = System.currentTimeMillis();
+    var errors = ag.join(AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, 100_000_000L));
+    assertThat(System.currentTimeMillis() - start < 2000).isTrue();
+    assertThat(errors).hasSize(1);
+    assertThat(errors.get(0).index).isEqualTo(0);
+    assertThat(errors.get(0).name).isEqualTo("foo");
+    switch (errors.get(0).err.getReason()) {
+      case AsyncGroup.RunnerTimedOut r -> {}
+      default -> fail();
+    }
+
+    try {
+      Thread.sleep(100);
+    } catch (Exception e) {
+    }
+    assertThat(interrupted[0]).isTrue();
+
+    // The error of the runner given up is not reported to the next join.
+    assertThat(ag.join()).isEmpty();
+  }
+
+  @Test
+  void time_out_runner_kept_back_to_run_inline() {
+    var ag = new AsyncGroupImpl(0, true);
+
+    Thread[] thread = {null};
+    ag.add(
+        () -> {
+          thread[0] = Thread.currentThread();
+          try {
+            Thread.sleep(5000);
+          } catch (InterruptedException e) {
+          }
+        });
+
+    long start = System.currentTimeMillis();
+    var errors = ag.join(AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, 100_000_000L));
+    assertThat(System.currentTimeMillis() - start < 2000).isTrue();
+    assertThat(errors).hasSize(1);
+    switch (errors.get(0).err.getReason()) {
+      case AsyncGroup.RunnerTimedOut r -> {}
+      default -> fail();
+    }
+    assertThat(thread[0] != Thread.currentThread()).isTrue();
+  }
+
+  @Test
+  void earlier_deadline() {
+    long now = System.nanoTime();
+    long d = AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, 1_000_000_000L);
+    assertThat(d - now >= 1_000_000_000L).isTrue();
+
+    assertThat(AsyncGroupImpl.deadline(d, 60_000_000_000L)).isEqualTo(d);
+    assertThat(AsyncGroupImpl.deadline(d, 0L)).isEqualTo(d);
+    assertThat(AsyncGroupImpl.deadline(d, 1_000L) - d < 0L).isTrue();
+    assertThat(AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, 0L))
+        .isEqualTo(AsyncGroupImpl.NO_DEADLINE);
+  }
+
+  @Test
+  void execute_runners_with_executor() throws Exception {
+    var pool = Executors.newFixedThreadPool(2, r -> new Thread(r, "pool"));
+    try {
+      var ag = new AsyncGroupImpl();
+      ag.executor = RunnerExecutor.of(pool);
+
+      String[] names = new String[4];
+      for (int i = 0; i < 4; i++) {
+        int j = i;
+        ag.add(() -> names[j] = Thread.currentThread().getName());
+      }
+      assertThat(ag.join()).isEmpty();
+      for (var name : names) {
+        assertThat(name).isEqualTo("pool");
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void execute_runners_with_executor_for_name() {
+    var ag = new AsyncGroupImpl();
+    ag.executor = RunnerExecutor.namedThreads(Thread.ofVirtual());
+    ag.executors = new HashMap<>();
+    ag.executors.put("bar", RunnerExecutor.namedThreads(Thread.ofPlatform()));
+
+    boolean[] virtual = {false, false};
+    String[] names = {null, null};
+    AsyncGroupImpl.enter(new RunnerContext(0L, Phase.Commit, 0, "foo"));
+    ag.add(
+        () -> {
+          virtual[0] = Thread.currentThread().isVirtual();
+          names[0] = Thread.currentThread().getName();
+        });
+    AsyncGroupImpl.enter(new RunnerContext(0L, Phase.Commit, 1, "bar"));
+    ag.add(
+        () -> {
+          virtual[1] = Thread.currentThread().isVirtual();
+          names[1] = Thread.currentThread().getName();
+        });
+    assertThat(ag.join()).isEmpty();
+
+    assertThat(virtual[0]).isTrue();
+    assertThat(names[0]).isEqualTo("foo/Commit");
+    assertThat(virtual[1]).isFalse();
+    assertThat(names[1]).isEqualTo("bar/Commit");
+  }
+
+  @Test
+  void cancel_runners_on_pooled_threads() throws Exception {
+    var pool = Executors.newSingleThreadExecutor();
+    try {
+      var ag = new AsyncGroupImpl();
+      ag.executor = RunnerExecutor.of(pool);
+
+      ag.add(
+          () -> {
+            try {
+              Thread.sleep(5000);
+            } catch (InterruptedException e) {
+              throw new Err("interrupted", e);
+            }
+          });
+      var errors = ag.join(AsyncGroupImpl.deadline(AsyncGroupImpl.NO_DEADLINE, 100_000_000L));
+      assertThat(errors).hasSize(1);
+      switch (errors.get(0).err.getReason()) {
+        case AsyncGroup.RunnerTimedOut r -> {}
+        default -> fail();
+      }
+
+      // The interruption of the runner given up is not left on the pooled thread.
+      boolean[] interrupted = {true};
+      ag.add(
+          () -> {
+            try {
+              Thread.sleep(50);
+              interrupted[0] = false;
+            } catch (InterruptedException e) {
+            }
+          });
+      assertThat(ag.join()).isEmpty();
+      assertThat(interrupted[0]).isFalse();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void executor_rejecting_runner() {
+    var ag = new AsyncGroupImpl();
+    ag.executor =
+        (task, name, phase) -> {
+          throw new RejectedExecutionException();
+        };
+
+    enter(0, "foo");
+    ag.add(() -> {});
+
+    var errors = ag.join();
+    assertThat(errors).hasSize(1);
+    assertThat(errors.get(0).name).isEqualTo("foo");
+    switch (errors.get(0).err.getReason()) {
+      case AsyncGroup.RuntimeExceptionOccured r -> {}
+      default -> fail();
+    }
+  }
+
+  @Test
+  void schedule_runners_with_dependencies() {
+    var ag = new AsyncGroupImpl();
+
+    var log = new ConcurrentLinkedQueue<String>();
+    var a =
+        ag.schedule(
+            () -> {
+              try {
+                Thread.sleep(100);
+              } catch (Exception e) {
+              }
+              log.add("a");
+            });
+    var b =
+        ag.schedule(
+            () -> {
+              try {
+                Thread.sleep(50);
+              } catch (Exception e) {
+              }
+              log.add("b");
+            });
+    ag.schedule(() -> log.add("c"), a, b);
+    ag.add(() -> log.add("d"));
+
+    assertThat(ag.join()).isEmpty();
+    var list = log.stream().toList();
+    assertThat(list).hasSize(4);
+    assertThat(list.get(0)).isEqualTo("d");
+    assertThat(list.get(1)).isEqualTo("b");
+    assertThat(list.get(2)).isEqualTo("a");
+    assertThat(list.get(3)).isEqualTo("c");
+  }
+
+  @Test
+  void skip_dependents_of_failed_runner() {
+    var ag = new AsyncGroupImpl();
+
+    record FailToDoSomething() {}
+
+    boolean[] executed = {false, false, false};
+    enter(0, "foo");
+    var a =
+        ag.schedule(
+            () -> {
+              throw new Err(new FailToDoSomething());
+            });
+    var b = ag.schedule(() -> executed[0] = true);
+    enter(1, "bar");
+    var c = ag.schedule(() -> executed[1] = true, b, a);
+    ag.schedule(() -> executed[2] = true, c);
+
+    var errors = ag.join();
+    assertThat(executed[0]).isTrue();
+    assertThat(executed[1]).isFalse();
+    assertThat(executed[2]).isFalse();
+    assertThat(errors).hasSize(3);
+
+    assertThat(errors.get(0).index).isEqualTo(0);
+    assertThat(errors.get(0).name).isEqualTo("foo");
+    switch (errors.get(0).err.getReason()) {
+      case FailToDoSomething r -> {}
+      default -> fail();
+    }
+    for (int i = 1; i < 3; i++) {
+      assertThat(errors.get(i).index).isEqualTo(1);
+      assertThat(errors.get(i).name).isEqualTo("bar");
+      switch (errors.get(i).err.getReason()) {
+        case AsyncGroup.RunnerSkipped r -> {}
+        default -> fail();
+      }
+    }
+  }
+
+  @Test
+  void schedule_after_finished_runner() {
+    var ag = new AsyncGroupImpl(0, true);
+
+    boolean[] executed = {false, false};
+    var a = ag.schedule(() -> executed[0] = true);
+    assertThat(ag.join()).isEmpty();
+    assertThat(executed[0]).isTrue();
+
+    ag.schedule(() -> executed[1] = true, a);
+    assertThat(ag.join()).isEmpty();
+    assertThat(executed[1]).isTrue();
+  }
+
+  @Test
+  void schedule_dependents_while_prerequisites_finish() {
+    var ag = new AsyncGroupImpl();
+
+    var count = new AtomicInteger();
+    for (int i = 0; i < 200; i++) {
+      var a = ag.schedule(() -> {});
+      var b = ag.schedule(() -> {});
+      for (int j = 0; j < 5; j++) {
+        ag.schedule(() -> count.incrementAndGet(), a, b);
+      }
+    }
+
+    assertThat(ag.join()).isEmpty();
+    assertThat(count.get()).isEqualTo(1000);
+  }
+
+  @Test
+  void schedule_with_handle_of_other_group() {
+    var ag0 = new AsyncGroupImpl();
+    var ag1 = new AsyncGroupImpl();
+
+    var a = ag0.schedule(() -> {});
+    try {
+      ag1.schedule(() -> {}, a);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    assertThat(ag0.join()).isEmpty();
+    assertThat(ag1.join()).isEmpty();
+  }
+
+  @Test
+  void carry_context_to_runners() {
+    var ag = new AsyncGroupImpl();
+
+    var ctx = new RunnerContext(12L, Phase.PostCommit, 3, "foo");
+    RunnerContext[] contexts = {null, null, null};
+    AsyncGroupImpl.enter(ctx);
+    contexts[0] = RunnerContext.current();
+    ag.add(
+        () -> {
+          contexts[1] = RunnerContext.current();
+          ag.add(() -> contexts[2] = RunnerContext.current());
+        });
+    AsyncGroupImpl.exit(null);
+    assertThat(RunnerContext.current()).isNull();
+
+    assertThat(ag.join()).isEmpty();
+    assertThat(contexts[0]).isEqualTo(ctx);
+    assertThat(contexts[1]).isEqualTo(ctx);
+    assertThat(contexts[2]).isEqualTo(ctx);
   }
 }
@@ -0,0 +1,95 @@
+package com.github.sttk.sabi.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataConnKey;
+import java.lang.ref.WeakReference;
+import org.junit.jupiter.api.Test;
+
+public class DataConnKeyImplTest {
+  private DataConnKeyImplTest() {}
+
+  public static class UnloadableDataConn implements DataConn {
+    @Override
+    public void commit(AsyncGroup ag) {}
+
+    @Override
+    public boolean isCommitted() {
+      return false;
+    }
+
+    @Override
+    public void rollback(AsyncGroup ag) {}
+
+    @Override
+    public void close() {}
+  }
+
+  // Defines the class of UnloadableDataConn again, so that it is unloaded with this loader.
+  static class OneClassLoader extends ClassLoader {
+    OneClassLoader() {
+      super(DataConnKeyImplTest.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!name.equals(UnloadableDataConn.class.getName())) {
+        return super.loadClass(name, resolve);
+      }
+      var path = "/" + name.replace('.', '/') + ".class";
+      try (var in = DataConnKeyImplTest.class.getResourceAsStream(path)) {
+        var bytes = in.readAllBytes();
+        return defineClass(name, bytes, 0, bytes.length);
+      } catch (Exception e) {
+        throw new ClassNotFoundException(name, e);
+      }
+    }
+  }
+
+  static int slotOf(DataConnKey<?> key) {
+    return ((DataConnKeyImpl<?>) key).slot;
+  }
+
+  @Test
+  void testSameKeyForSameNameAndClass() {
+    var key = DataConnKey.of("foo", UnloadableDataConn.class);
+    assertThat(DataConnKey.of("foo", UnloadableDataConn.class)).isSameAs(key);
+    assertThat(slotOf(DataConnKey.of("bar", UnloadableDataConn.class))).isNotEqualTo(slotOf(key));
+    assertThat(slotOf(DataConnKey.of("foo", DataConn.class))).isNotEqualTo(slotOf(key));
+  }
+
+  @Test
+  void testReuseSlotOfKeyCollectedWithItsClass() throws Exception {
+    var ref = newKeyOfUnloadableClass();
+    int slot = ref.slot;
+    for (int i = 0; i < 100 && ref.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertThat(ref.get()).isNull();
+    Thread.sleep(100);
+
+    var key = DataConnKey.of("testReuseSlotOfKeyCollectedWithItsClass", UnloadableDataConn.class);
+    assertThat(slotOf(key)).isEqualTo(slot);
+  }
+
+  static class KeyRef extends WeakReference<DataConnKey<?>> {
+    final int slot;
+
+    KeyRef(DataConnKey<?> key) {
+      super(key);
+      this.slot = slotOf(key);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static KeyRef newKeyOfUnloadableClass() throws Exception {
+    var cls =
+        (Class<? extends DataConn>)
+            new OneClassLoader().loadClass(UnloadableDataConn.class.getName());
+    assertThat(cls).isNotSameAs(UnloadableDataConn.class);
+    return new KeyRef(DataConnKey.of("foo", cls));
+  }
+}
@@ -9,9 +9,14 @@ import static org.assertj.core.api.Assertions.fail;
 import com.github.sttk.errs.Err;
 import com.github.sttk.sabi.AsyncGroup;
 import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.Phase;
+import com.github.sttk.sabi.RunnerContext;
+import com.github.sttk.sabi.TxnFailureCauseState;
+import com.github.sttk.sabi.TxnFailureRecovery;
 import com.github.sttk.sabi.TxnFailureReport;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 
@@ -416,6 +421,90 @@ public class DataConnManagerTest {
     assertThat(iter.hasNext()).isFalse();
   }
 
+  @Test
+  void testCommitAndRollbackOkWhenRunningLastRunnerInline() {
+    var logger = new ArrayList<String>();
+
+    var manager = new DataConnManager();
+    manager.inlineLast = true;
+    try {
+      var conn1 = new AsyncDataConn(1, logger, Fail.Not);
+      manager.add(new DataConnContainer("foo", conn1));
+
+      var conn2 = new SyncDataConn(2, logger, Fail.Not);
+      manager.add(new DataConnContainer("bar", conn2));
+
+      var reportBuilders = new ArrayList<TxnFailureReportBuilder>();
+      manager.prepareTxnFailureReportBuilders(reportBuilders);
+
+      manager.commit(reportBuilders);
+    } catch (Err err) {
+      fail(err);
+    } finally {
+      manager.close();
+    }
+
+    assertThat(logger).hasSize(8);
+    var iter = logger.iterator();
+    assertThat(iter.next()).isEqualTo("SyncDataConn#preCommit 2");
+    assertThat(iter.next()).isEqualTo("AsyncDataConn#preCommit 1");
+    assertThat(iter.next()).isEqualTo("SyncDataConn#commit 2");
+    assertThat(iter.next()).isEqualTo("AsyncDataConn#commit 1");
+    assertThat(iter.next()).isEqualTo("SyncDataConn#postCommit 2");
+    assertThat(iter.next()).isEqualTo("AsyncDataConn#postCommit 1");
+    assertThat(iter.next()).isEqualTo("SyncDataConn#close 2");
+    assertThat(iter.next()).isEqualTo("AsyncDataConn#close 1");
+    assertThat(iter.hasNext()).isFalse();
+  }
+
+  @Test
+  void testCommitWithRunnerContexts() {
+    var contexts = new ConcurrentLinkedQueue<RunnerContext>();
+
+    class ContextDataConn extends SyncDataConn {
+      ContextDataConn(int id) {
+        super(id, new ArrayList<String>(), Fail.Not);
+      }
+
+      @Override
+      public void preCommit(AsyncGroup ag) throws Err {
+        contexts.add(RunnerContext.current());
+      }
+
+      @Override
+      public void commit(AsyncGroup ag) throws Err {
+        ag.add(() -> contexts.add(RunnerContext.current()));
+      }
+
+      @Override
+      public void postCommit(AsyncGroup ag) {}
+    }
+
+    var manager = new DataConnManager();
+    manager.txnId = 7L;
+    try {
+      manager.add(new DataConnContainer("foo", new ContextDataConn(1)));
+      manager.add(new DataConnContainer("bar", new ContextDataConn(2)));
+
+      var reportBuilders = new ArrayList<TxnFailureReportBuilder>();
+      manager.prepareTxnFailureReportBuilders(reportBuilders);
+
+      manager.commit(reportBuilders);
+    } catch (Err err) {
+      fail(err);
+    } finally {
+      manager.close();
+    }
+
+    assertThat(RunnerContext.current()).isNull();
+    var list = contexts.stream().toList();
+    assertThat(list).hasSize(4);
+    assertThat(list.get(0)).isEqualTo(new RunnerContext(7L, Phase.PreCommit, 0, "foo"));
+    assertThat(list.get(1)).isEqualTo(new RunnerContext(7L, Phase.PreCommit, 1, "bar"));
+    assertThat(contexts.contains(new RunnerContext(7L, Phase.Commit, 0, "foo"))).isTrue();
+    assertThat(contexts.contains(new RunnerContext(7L, Phase.Commit, 1, "bar"))).isTrue();
+  }
+
   @Test
   void testCommitWithOrderAndRollbackOk() {
     var logger = new ArrayList<String>();
@@ -515,11 +604,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String zzz, file = DataConnManagerTest.java, line = 57 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String zzz, file = DataConnManagerTest.java, line = 62 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String zzz, file = DataConnManagerTest.java, line = 57 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String zzz, file = DataConnManagerTest.java, line = 62 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -574,11 +663,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String yyy, file = DataConnManagerTest.java, line = 140 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String zzz, file = DataConnManagerTest.java, line = 57 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String yyy, file = DataConnManagerTest.java, line = 145 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String zzz, file = DataConnManagerTest.java, line = 62 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String yyy, file = DataConnManagerTest.java, line = 140 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String zzz, file = DataConnManagerTest.java, line = 57 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String yyy, file = DataConnManagerTest.java, line = 145 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String zzz, file = DataConnManagerTest.java, line = 62 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -629,11 +718,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String yyy, file = DataConnManagerTest.java, line = 140 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String yyy, file = DataConnManagerTest.java, line = 145 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String yyy, file = DataConnManagerTest.java, line = 140 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:LogicFailure Err:com.github.sttk.errs.Err { reason = java.lang.String yyy, file = DataConnManagerTest.java, line = 145 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -685,11 +774,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 47 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 52 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 47 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 52 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -746,11 +835,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 123 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 47 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 128 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 52 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 123 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 47 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 128 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 52 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -802,16 +891,186 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 123 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 128 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 123 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 128 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
   }
 
+  @Test
+  void testCommitAndRollbackButFailCommitAndCancelOthers() {
+    var logger = new ArrayList<String>();
+
+    class SlowDataConn extends SyncDataConn {
+      SlowDataConn(int id, List<String> logger) {
+        super(id, logger, Fail.Not);
+      }
+
+      @Override
+      public void commit(AsyncGroup ag) throws Err {
+        ag.add(
+            () -> {
+              try {
+                Thread.sleep(5000);
+              } catch (InterruptedException e) {
+                this.logger.add(String.format("SlowDataConn#commit %d interrupted", this.id));
+                throw new Err("interrupted", e);
+              }
+              this.committed = true;
+            });
+      }
+
+      @Override
+      public void onTxnFailure(AsyncGroup ag, List<TxnFailureReport> reports) {}
+
+      @Override
+      public void close() {}
+    }
+
+    var manager = new DataConnManager();
+    manager.failFast = true;
+    try {
+      var conn1 = new SlowDataConn(1, logger);
+      manager.add(new DataConnContainer("foo", conn1));
+
+      var conn2 = new AsyncDataConn(2, logger, Fail.Commit);
+      manager.add(new DataConnContainer("bar", conn2));
+
+      var reportBuilders = new ArrayList<TxnFailureReportBuilder>();
+      manager.prepareTxnFailureReportBuilders(reportBuilders);
+
+      try {
+        manager.commit(reportBuilders);
+        fail();
+      } catch (Err err) {
+        switch (err.getReason()) {
+          case FailToCommitDataConn rsn -> {
+            assertThat(rsn.errors()).hasSize(2);
+            var ee = rsn.errors().get(0);
+            assertThat(ee.index).isEqualTo(1);
+            assertThat(ee.name).isEqualTo("bar");
+            assertThat(ee.err.getReason()).isEqualTo("YYY");
+            ee = rsn.errors().get(1);
+            assertThat(ee.index).isEqualTo(0);
+            assertThat(ee.name).isEqualTo("foo");
+            switch (ee.err.getReason()) {
+              case AsyncGroup.RunnerCancelled r -> {}
+              default -> fail(ee.err);
+            }
+          }
+          default -> fail(err);
+        }
+      }
+
+      assertThat(reportBuilders.get(0).cause.state)
+          .isEqualTo(TxnFailureCauseState.NoneByCancelled);
+      assertThat(reportBuilders.get(1).cause.state).isEqualTo(TxnFailureCauseState.CommitFailure);
+
+      manager.rollback(reportBuilders);
+      var reports = reportBuilders.stream().map(b -> b.build()).collect(Collectors.toList());
+      assertThat(reports.get(0).isCauseOfFailure()).isFalse();
+      assertThat(reports.get(0).recoveryForCommit())
+          .isEqualTo(TxnFailureRecovery.RerunLogicAndCommit);
+      assertThat(reports.get(1).isCauseOfFailure()).isTrue();
+    } finally {
+      manager.close();
+    }
+
+    assertThat(logger).hasSize(9);
+    var iter = logger.iterator();
+    assertThat(iter.next()).isEqualTo("SyncDataConn#preCommit 1");
+    assertThat(iter.next()).isEqualTo("AsyncDataConn#preCommit 2");
+    assertThat(iter.next()).isEqualTo("AsyncDataConn#commit 2 failed");
+    assertThat(iter.next()).isEqualTo("SlowDataConn#commit 1 interrupted");
+    assertThat(iter.next()).isEqualTo("SyncDataConn#rollback 1");
+    assertThat(iter.next()).isEqualTo("AsyncDataConn#rollback 2");
+    assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
+    assertThat(iter.next()).startsWith("TxnFailureReports=[{dataConnName:foo");
+    assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
+    assertThat(iter.hasNext()).isFalse();
+  }
+
+  @Test
+  void testCommitAndRollbackButTimeOutCommit() {
+    var logger = new ArrayList<String>();
+
+    class SlowDataConn extends SyncDataConn {
+      SlowDataConn(int id, List<String> logger) {
+        super(id, logger, Fail.Not);
+      }
+
+      @Override
+      public void commit(AsyncGroup ag) throws Err {
+        ag.add(
+            () -> {
+              try {
+                Thread.sleep(5000);
+              } catch (InterruptedException e) {
+                throw new Err("interrupted", e);
+              }
+              this.committed = true;
+            });
+      }
+
+      @Override
+      public void onTxnFailure(AsyncGroup ag, List<TxnFailureReport> reports) {}
+
+      @Override
+      public void close() {}
+    }
+
+    var manager = new DataConnManager();
+    manager.timeouts[Phase.Commit.ordinal()] = 100_000_000L;
+    try {
+      var conn1 = new SlowDataConn(1, new ArrayList<String>());
+      manager.add(new DataConnContainer("foo", conn1));
+
+      var conn2 = new SyncDataConn(2, logger, Fail.Not);
+      manager.add(new DataConnContainer("bar", conn2));
+
+      var reportBuilders = new ArrayList<TxnFailureReportBuilder>();
+      manager.prepareTxnFailureReportBuilders(reportBuilders);
+
+      long start = System.currentTimeMillis();
+      try {
+        manager.commit(reportBuilders);
+        fail();
+      } catch (Err err) {
+        switch (err.getReason()) {
+          case FailToCommitDataConn rsn -> {
+            assertThat(rsn.errors()).hasSize(1);
+            var ee = rsn.errors().get(0);
+            assertThat(ee.index).isEqualTo(0);
+            assertThat(ee.name).isEqualTo("foo");
+            switch (ee.err.getReason()) {
+              case AsyncGroup.RunnerTimedOut r -> {}
+              default -> fail(ee.err);
+            }
+          }
+          default -> fail(err);
+        }
+      }
+      assertThat(System.currentTimeMillis() - start < 2000).isTrue();
+
+      assertThat(reportBuilders.get(0).cause.state).isEqualTo(TxnFailureCauseState.CommitFailure);
+      switch (reportBuilders.get(0).cause.err.getReason()) {
+        case AsyncGroup.RunnerTimedOut r -> {}
+        default -> fail();
+      }
+      assertThat(reportBuilders.get(1).cause.state)
+          .isEqualTo(TxnFailureCauseState.NoneByUncommitted);
+
+      manager.rollback(reportBuilders);
+      assertThat(reportBuilders.get(1).cause.state).isEqualTo(TxnFailureCauseState.NoneByCommitted);
+    } finally {
+      manager.close();
+    }
+  }
+
   @Test
   void testCommitAndRollbackButFailFirstSyncPostCommit() {
     var logger = new ArrayList<String>();
@@ -863,11 +1122,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 69 }} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 159 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 74 }} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 164 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 69 }} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 159 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 74 }} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 164 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -924,11 +1183,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 159 }} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 69 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 164 }} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 74 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 159 }} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 69 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 164 }} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 74 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.hasNext()).isFalse();
@@ -981,11 +1240,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 159 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 164 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 159 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:PostCommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String !!!, file = DataConnManagerTest.java, line = 164 }} rollback:{State:NoneByNotRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -1092,11 +1351,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 83 }}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 88 }}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 83 }}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 88 }}}]");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -1129,11 +1388,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 83 }}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 88 }}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 83 }}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 88 }}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -1185,11 +1444,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 47 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 180 }}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 52 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 185 }}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 47 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 180 }}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 52 }} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:RollbackFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ???, file = DataConnManagerTest.java, line = 185 }}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -1241,11 +1500,11 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 123 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 128 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 123 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 128 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
@@ -1340,13 +1599,113 @@ public class DataConnManagerTest {
     assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 1");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 123 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 128 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#onTxnFailure 2");
     assertThat(iter.next())
         .isEqualTo(
-            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 123 }} rollback:{State:NoneByRolledBack Err:null}}]");
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:NoneByCommitted Err:null} rollback:{State:NoneByNotRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$AsyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String YYY, file = DataConnManagerTest.java, line = 128 }} rollback:{State:NoneByRolledBack Err:null}}]");
     assertThat(iter.next()).isEqualTo("AsyncDataConn#close 2");
     assertThat(iter.next()).isEqualTo("SyncDataConn#close 1");
     assertThat(iter.hasNext()).isFalse();
   }
+
+  static class PlainDataConn implements DataConn {
+    int id;
+    boolean readOnly;
+    List<String> logger;
+
+    PlainDataConn(int id, List<String> logger, boolean readOnly) {
+      this.id = id;
+      this.logger = logger;
+      this.readOnly = readOnly;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+      return this.readOnly;
+    }
+
+    @Override
+    public void commit(AsyncGroup ag) {
+      this.logger.add(String.format("PlainDataConn#commit %d", this.id));
+    }
+
+    @Override
+    public boolean isCommitted() {
+      this.logger.add(String.format("PlainDataConn#isCommitted %d", this.id));
+      return false;
+    }
+
+    @Override
+    public void rollback(AsyncGroup ag) {
+      this.logger.add(String.format("PlainDataConn#rollback %d", this.id));
+    }
+
+    @Override
+    public void close() {
+      this.logger.add(String.format("PlainDataConn#close %d", this.id));
+    }
+  }
+
+  @Test
+  void testSkipPhasesNotNeededByDataConns() {
+    var logger = new ArrayList<String>();
+
+    var manager = new DataConnManager();
+    try {
+      manager.add(new DataConnContainer("foo", new PlainDataConn(1, logger, true)));
+      manager.add(new DataConnContainer("bar", new PlainDataConn(2, logger, false)));
+
+      var reportBuilders = new ArrayList<TxnFailureReportBuilder>();
+      manager.commit(reportBuilders);
+      assertThat(reportBuilders).isEmpty();
+    } catch (Err err) {
+      fail(err);
+    } finally {
+      manager.close();
+    }
+
+    assertThat(logger).hasSize(4);
+    var iter = logger.iterator();
+    assertThat(iter.next()).isEqualTo("PlainDataConn#isCommitted 2");
+    assertThat(iter.next()).isEqualTo("PlainDataConn#commit 2");
+    assertThat(iter.next()).isEqualTo("PlainDataConn#close 2");
+    assertThat(iter.next()).isEqualTo("PlainDataConn#close 1");
+    assertThat(iter.hasNext()).isFalse();
+  }
+
+  @Test
+  void testSkipPhasesNotNeededByDataConnsOnFailure() {
+    var logger = new ArrayList<String>();
+
+    var manager = new DataConnManager();
+    try {
+      manager.add(new DataConnContainer("foo", new PlainDataConn(1, logger, true)));
+      manager.add(new DataConnContainer("bar", new SyncDataConn(2, logger, Fail.Commit)));
+
+      var reportBuilders = new ArrayList<TxnFailureReportBuilder>();
+      try {
+        manager.commit(reportBuilders);
+        fail();
+      } catch (Err err) {
+        assertThat(err.getReason()).isInstanceOf(FailToCommitDataConn.class);
+      }
+      manager.rollback(reportBuilders);
+    } finally {
+      manager.close();
+    }
+
+    assertThat(logger).hasSize(7);
+    var iter = logger.iterator();
+    assertThat(iter.next()).isEqualTo("SyncDataConn#preCommit 2");
+    assertThat(iter.next()).isEqualTo("SyncDataConn#commit 2 failed");
+    assertThat(iter.next()).isEqualTo("SyncDataConn#rollback 2");
+    assertThat(iter.next()).isEqualTo("SyncDataConn#onTxnFailure 2");
+    assertThat(iter.next())
+        .isEqualTo(
+            "TxnFailureReports=[{dataConnName:foo dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$PlainDataConn cause:{State:NoneByUncommitted Err:null} rollback:{State:NoneByRolledBack Err:null}}, {dataConnName:bar dataConnType:com.github.sttk.sabi.internal.DataConnManagerTest$SyncDataConn cause:{State:CommitFailure Err:com.github.sttk.errs.Err { reason = java.lang.String ZZZ, file = DataConnManagerTest.java, line = 52 }} rollback:{State:NoneByRolledBack Err:null}}]");
+    assertThat(iter.next()).isEqualTo("SyncDataConn#close 2");
+    assertThat(iter.next()).isEqualTo("PlainDataConn#close 1");
+    assertThat(iter.hasNext()).isFalse();
+  }
 }
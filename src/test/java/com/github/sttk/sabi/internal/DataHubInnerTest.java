@@ -7,9 +7,11 @@ import static com.github.sttk.sabi.DataHub.CreatedDataConnIsNull;
 import static com.github.sttk.sabi.DataHub.FailToCastDataConn;
 import static com.github.sttk.sabi.DataHub.FailToCastDataHub;
 import static com.github.sttk.sabi.DataHub.FailToCreateDataConn;
+import static com.github.sttk.sabi.DataHub.FailToRunLogicsInBatch;
 import static com.github.sttk.sabi.DataHub.FailToSetupGlobalDataSrcs;
 import static com.github.sttk.sabi.DataHub.FailToSetupLocalDataSrcs;
 import static com.github.sttk.sabi.DataHub.NoDataSrcToCreateDataConn;
+import static com.github.sttk.sabi.DataHub.SavepointNotSupported;
 import static com.github.sttk.sabi.Sabi.setup;
 import static com.github.sttk.sabi.Sabi.uses;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -17,12 +19,26 @@ import static org.assertj.core.api.Assertions.fail;
 
 import com.github.sttk.errs.Err;
 import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.Backoff;
 import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataConnKey;
 import com.github.sttk.sabi.DataHub;
 import com.github.sttk.sabi.DataSrc;
+import com.github.sttk.sabi.Logic;
+import com.github.sttk.sabi.RetryBudget;
+import com.github.sttk.sabi.Sabi;
 import com.github.sttk.sabi.TxnFailureReport;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
@@ -720,7 +736,7 @@ public class DataHubInnerTest {
             assertThat(r.errors().get(0).name).isEqualTo("foo");
             assertThat(r.errors().get(0).err.toString())
                 .isEqualTo(
-                    "com.github.sttk.errs.Err { reason = java.lang.String setup error, file = DataHubInnerTest.java, line = 123 }");
+                    "com.github.sttk.errs.Err { reason = java.lang.String setup error, file = DataHubInnerTest.java, line = 139 }");
           }
           default -> fail(err);
         }
@@ -805,6 +821,56 @@ public class DataHubInnerTest {
       assertThat(iter.hasNext()).isFalse();
     }
 
+    @Test
+    void testTxnCommitsAndClosesInOrderOfEachTxn() {
+      var logger = new ArrayList<String>();
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new MyDataSrc(1, Failure.None, logger));
+        hub.uses("bar", new MyDataSrc(2, Failure.None, logger));
+
+        hub.txn(
+            (DataHub data) -> {
+              data.getDataConn("foo", MyDataConn.class);
+              data.getDataConn("bar", MyDataConn.class);
+            });
+        hub.txn(
+            (DataHub data) -> {
+              data.getDataConn("bar", MyDataConn.class);
+              data.getDataConn("foo", MyDataConn.class);
+            });
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(logger)
+          .containsExactly(
+              "MyDataSrc#setup 1",
+              "MyDataSrc#setup 2",
+              "MyDataSrc#createDataConn 1",
+              "MyDataSrc#createDataConn 2",
+              "MyDataConn#preCommit 1",
+              "MyDataConn#preCommit 2",
+              "MyDataConn#commit 1",
+              "MyDataConn#commit 2",
+              "MyDataConn#postCommit 1",
+              "MyDataConn#postCommit 2",
+              "MyDataConn#close 2",
+              "MyDataConn#close 1",
+              "MyDataSrc#createDataConn 2",
+              "MyDataSrc#createDataConn 1",
+              "MyDataConn#preCommit 2",
+              "MyDataConn#preCommit 1",
+              "MyDataConn#commit 2",
+              "MyDataConn#commit 1",
+              "MyDataConn#postCommit 2",
+              "MyDataConn#postCommit 1",
+              "MyDataConn#close 1",
+              "MyDataConn#close 2",
+              "MyDataSrc#close 2",
+              "MyDataSrc#close 1");
+    }
+
     @Test
     void testTxnButFailedToRunLogic() {
       var logger = new ArrayList<String>();
@@ -1352,49 +1418,1425 @@ public class DataHubInnerTest {
       assertThat(iter.next()).isEqualTo("MyDataSrc#close 1");
       assertThat(iter.hasNext()).isFalse();
     }
-  }
-
-  @Nested
-  @SuppressWarnings("try")
-  class TestGlobals {
 
     @Test
-    void testUsesAndSetupAndOk() {
+    void testGetDataConnByKeyCachedAcrossTxns() {
       var logger = new ArrayList<String>();
-      try {
-        resetGlobals();
-
-        assertThat(DataHubInner.GLOBAL_DATA_SRCS_FIXED.get()).isFalse();
-        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.local).isFalse();
-        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listUnready).isEmpty();
-        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listReady).isEmpty();
+      var key = DataConnKey.of("foo", MyDataConn.class);
+      assertThat(DataConnKey.of("foo", MyDataConn.class)).isSameAs(key);
 
-        uses("foo", new MyDataSrc(1, Failure.None, logger));
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new MyDataSrc(1, Failure.None, logger));
 
-        assertThat(DataHubInner.GLOBAL_DATA_SRCS_FIXED.get()).isFalse();
-        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.local).isFalse();
-        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listUnready).hasSize(1);
-        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listReady).hasSize(0);
+        for (int i = 0; i < 2; i++) {
+          hub.txn(
+              (DataHub data) -> {
+                logger.add("execute logic");
 
-        try (var ac = setup()) {
-          assertThat(DataHubInner.GLOBAL_DATA_SRCS_FIXED.get()).isTrue();
-          assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.local).isFalse();
-          assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listUnready).hasSize(0);
-          assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listReady).hasSize(1);
+                var dc1 = data.getDataConn(key);
+                var dc2 = data.getDataConn(key);
+                assertThat(dc2).isSameAs(dc1);
+                assertThat(data.getDataConn("foo", MyDataConn.class)).isSameAs(dc1);
+              });
         }
       } catch (Exception e) {
         fail(e);
-      } finally {
-        resetGlobals();
       }
 
-      assertThat(logger).hasSize(2);
+      assertThat(logger).hasSize(14);
       var iter = logger.iterator();
       assertThat(iter.next()).isEqualTo("MyDataSrc#setup 1");
+      for (int i = 0; i < 2; i++) {
+        assertThat(iter.next()).isEqualTo("execute logic");
+        assertThat(iter.next()).isEqualTo("MyDataSrc#createDataConn 1");
+        assertThat(iter.next()).isEqualTo("MyDataConn#preCommit 1");
+        assertThat(iter.next()).isEqualTo("MyDataConn#commit 1");
+        assertThat(iter.next()).isEqualTo("MyDataConn#postCommit 1");
+        assertThat(iter.next()).isEqualTo("MyDataConn#close 1");
+      }
       assertThat(iter.next()).isEqualTo("MyDataSrc#close 1");
       assertThat(iter.hasNext()).isFalse();
     }
 
+    @Test
+    void testGetDataConnByKeyAndFailedToCastDataConn() {
+      var logger = new ArrayList<String>();
+      var key = DataConnKey.of("foo", BadDataConn.class);
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new MyDataSrc(1, Failure.None, logger));
+
+        hub.txn(
+            (DataHub data) -> {
+              @SuppressWarnings("unused")
+              var dc = data.getDataConn(key);
+            });
+        fail();
+      } catch (Err err) {
+        switch (err.getReason()) {
+          case FailToCastDataConn r -> {
+            assertThat(r.name()).isEqualTo("foo");
+            assertThat(r.fromDataConnType()).isEqualTo(MyDataConn.class.getName());
+            assertThat(r.toDataConnType()).isEqualTo(BadDataConn.class.getName());
+          }
+          default -> fail(err);
+        }
+      } catch (Exception e) {
+        fail(e);
+      }
+    }
+
+    static class LatchDataSrc implements DataSrc {
+      final CountDownLatch latch;
+
+      LatchDataSrc(CountDownLatch latch) {
+        this.latch = latch;
+      }
+
+      @Override
+      public void setup(AsyncGroup ag) {}
+
+      @Override
+      public void close() {}
+
+      // Returns a connection only when all data sources sharing the latch are creating one at once.
+      @Override
+      public DataConn createDataConn() throws Err {
+        this.latch.countDown();
+        try {
+          if (!this.latch.await(5, TimeUnit.SECONDS)) {
+            throw new Err("not created in parallel");
+          }
+        } catch (InterruptedException e) {
+          throw new Err("interrupted", e);
+        }
+        return new NoopDataConn();
+      }
+    }
+
+    @Test
+    void testPrefetchDataConnsInParallel() {
+      var latch = new CountDownLatch(3);
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new LatchDataSrc(latch));
+        hub.uses("bar", new LatchDataSrc(latch));
+        hub.uses("baz", new LatchDataSrc(latch));
+        hub.prefetchDataConns("foo", "bar");
+
+        hub.txn(
+            new Logic<DataHub>() {
+              @Override
+              public void run(DataHub data) throws Err {
+                var dc = data.getDataConn("baz", NoopDataConn.class);
+                assertThat(data.getDataConn("baz", NoopDataConn.class)).isSameAs(dc);
+                data.getDataConn("foo", NoopDataConn.class);
+              }
+
+              @Override
+              public List<String> dataConnNames() {
+                return List.of("bar", "baz");
+              }
+            });
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(latch.getCount()).isEqualTo(0L);
+    }
+
+    @Test
+    void testPrefetchDataConnsButFailedToCreateDataConn() {
+      var logger = new ArrayList<String>();
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new MyDataSrc(1, Failure.None, logger));
+        hub.uses("bar", new MyDataSrc(2, Failure.CreateDataConn, logger));
+        hub.prefetchDataConns("foo", "bar");
+
+        hub.txn(
+            (DataHub data) -> {
+              logger.add("execute logic");
+            });
+        fail();
+      } catch (Err err) {
+        switch (err.getReason()) {
+          case FailToCreateDataConn r -> {
+            assertThat(r.name()).isEqualTo("bar");
+            assertThat(r.dataConnType()).isEqualTo(DataConn.class.getName());
+          }
+          default -> fail(err);
+        }
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(logger)
+          .containsExactlyInAnyOrder(
+              "MyDataSrc#setup 1",
+              "MyDataSrc#setup 2",
+              "MyDataSrc#createDataConn 1",
+              "MyDataSrc#createDataConn 2 failed",
+              "MyDataConn#rollback 1",
+              "MyDataConn#onTxnFailure 1",
+              "MyDataConn#close 1",
+              "MyDataSrc#close 2",
+              "MyDataSrc#close 1");
+    }
+
+    @Test
+    void testPrefetchDataConnsButNoDataSrc() {
+      var logger = new ArrayList<String>();
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new MyDataSrc(1, Failure.None, logger));
+        hub.prefetchDataConns("foo", "qux");
+
+        hub.run(
+            (DataHub data) -> {
+              logger.add("execute logic");
+            });
+        fail();
+      } catch (Err err) {
+        switch (err.getReason()) {
+          case NoDataSrcToCreateDataConn r -> {
+            assertThat(r.name()).isEqualTo("qux");
+            assertThat(r.dataConnType()).isEqualTo(DataConn.class.getName());
+          }
+          default -> fail(err);
+        }
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(logger).containsExactly("MyDataSrc#setup 1", "MyDataSrc#close 1");
+    }
+
+    static class CountingDataSrc implements DataSrc {
+      final AtomicInteger created = new AtomicInteger();
+
+      @Override
+      public void setup(AsyncGroup ag) {}
+
+      @Override
+      public void close() {}
+
+      @Override
+      public DataConn createDataConn() throws Err {
+        this.created.incrementAndGet();
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          throw new Err("interrupted", e);
+        }
+        return new NoopDataConn();
+      }
+    }
+
+    @Test
+    void testGetDataConnConcurrentlyCreatesEachOnce() {
+      var foo = new CountingDataSrc();
+      var bar = new CountingDataSrc();
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", foo);
+        hub.uses("bar", bar);
+        hub.allowConcurrentDataAccess(true);
+
+        for (int i = 0; i < 2; i++) {
+          hub.txn(
+              (DataHub data) -> {
+                var got = Collections.synchronizedList(new ArrayList<DataConn>());
+                var threads = new ArrayList<Thread>();
+                for (int j = 0; j < 16; j++) {
+                  var name = (j % 2 == 0) ? "foo" : "bar";
+                  threads.add(
+                      Thread.startVirtualThread(
+                          () -> {
+                            try {
+                              got.add(data.getDataConn(name, NoopDataConn.class));
+                            } catch (Err e) {
+                              fail(e);
+                            }
+                          }));
+                }
+                for (var th : threads) {
+                  try {
+                    th.join();
+                  } catch (InterruptedException e) {
+                    throw new Err("interrupted", e);
+                  }
+                }
+                assertThat(got).hasSize(16);
+                assertThat(new HashSet<>(got)).hasSize(2);
+              });
+        }
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(foo.created.get()).isEqualTo(2);
+      assertThat(bar.created.get()).isEqualTo(2);
+    }
+
+    static class ReusableDataConn implements DataConn {
+      final List<String> logger;
+      final int id;
+
+      ReusableDataConn(List<String> logger, int id) {
+        this.logger = logger;
+        this.id = id;
+      }
+
+      @Override
+      public boolean isCommitted() {
+        return false;
+      }
+
+      @Override
+      public void commit(AsyncGroup ag) {
+        this.logger.add("ReusableDataConn#commit " + this.id);
+      }
+
+      @Override
+      public void rollback(AsyncGroup ag) {}
+
+      @Override
+      public boolean resetForReuse() {
+        this.logger.add("ReusableDataConn#resetForReuse " + this.id);
+        return true;
+      }
+
+      @Override
+      public void close() {
+        this.logger.add("ReusableDataConn#close " + this.id);
+      }
+    }
+
+    static class ReusableDataSrc implements DataSrc {
+      final List<String> logger;
+      int count;
+
+      ReusableDataSrc(List<String> logger) {
+        this.logger = logger;
+      }
+
+      @Override
+      public void setup(AsyncGroup ag) {}
+
+      @Override
+      public void close() {}
+
+      @Override
+      public DataConn createDataConn() {
+        this.count++;
+        this.logger.add("ReusableDataSrc#createDataConn " + this.count);
+        return new ReusableDataConn(this.logger, this.count);
+      }
+    }
+
+    @Test
+    void testReuseDataConnsUpToMaxUses() {
+      var logger = new ArrayList<String>();
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new ReusableDataSrc(logger));
+        hub.reuseDataConns(3, null);
+
+        for (int i = 0; i < 4; i++) {
+          hub.txn((DataHub data) -> data.getDataConn("foo", ReusableDataConn.class));
+        }
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(logger)
+          .containsExactly(
+              "ReusableDataSrc#createDataConn 1",
+              "ReusableDataConn#commit 1",
+              "ReusableDataConn#resetForReuse 1",
+              "ReusableDataConn#commit 1",
+              "ReusableDataConn#resetForReuse 1",
+              "ReusableDataConn#commit 1",
+              "ReusableDataConn#close 1",
+              "ReusableDataSrc#createDataConn 2",
+              "ReusableDataConn#commit 2",
+              "ReusableDataConn#resetForReuse 2",
+              "ReusableDataConn#close 2");
+    }
+
+    @Test
+    void testReuseDataConnsButIdleTooLongOrDataSrcRemoved() {
+      var logger = new ArrayList<String>();
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new ReusableDataSrc(logger));
+        hub.reuseDataConns(10, Duration.ofMillis(1));
+
+        hub.txn((DataHub data) -> data.getDataConn("foo", ReusableDataConn.class));
+        Thread.sleep(20);
+        hub.txn((DataHub data) -> data.getDataConn("foo", ReusableDataConn.class));
+        hub.disuses("foo");
+        assertThat(logger.get(logger.size() - 1)).isEqualTo("ReusableDataConn#close 2");
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(logger)
+          .containsExactly(
+              "ReusableDataSrc#createDataConn 1",
+              "ReusableDataConn#commit 1",
+              "ReusableDataConn#resetForReuse 1",
+              "ReusableDataConn#close 1",
+              "ReusableDataSrc#createDataConn 2",
+              "ReusableDataConn#commit 2",
+              "ReusableDataConn#resetForReuse 2",
+              "ReusableDataConn#close 2");
+    }
+
+    @Test
+    void testReuseDataConnsButIdleTooLongWithoutBeingGot() {
+      var fooLogger = new ArrayList<String>();
+      var barLogger = new ArrayList<String>();
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new ReusableDataSrc(fooLogger));
+        hub.uses("bar", new ReusableDataSrc(barLogger));
+        hub.reuseDataConns(10, Duration.ofMillis(1));
+
+        hub.txn(
+            (DataHub data) -> {
+              data.getDataConn("foo", ReusableDataConn.class);
+              data.getDataConn("bar", ReusableDataConn.class);
+            });
+        Thread.sleep(20);
+        hub.run((DataHub data) -> {});
+        assertThat(barLogger.get(barLogger.size() - 1)).isEqualTo("ReusableDataConn#close 1");
+        assertThat(fooLogger.get(fooLogger.size() - 1)).isEqualTo("ReusableDataConn#close 1");
+
+        hub.txn((DataHub data) -> data.getDataConn("foo", ReusableDataConn.class));
+        Thread.sleep(20);
+        hub.reset();
+        assertThat(fooLogger.get(fooLogger.size() - 1)).isEqualTo("ReusableDataConn#close 2");
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(barLogger)
+          .containsExactly(
+              "ReusableDataSrc#createDataConn 1",
+              "ReusableDataConn#commit 1",
+              "ReusableDataConn#resetForReuse 1",
+              "ReusableDataConn#close 1");
+    }
+
+    static class BatchDataSrc implements DataSrc {
+      final List<Integer> committed = new ArrayList<>();
+      int poison = -1;
+      int postCommitPoison = -1;
+      int commits;
+
+      @Override
+      public void setup(AsyncGroup ag) {}
+
+      @Override
+      public void close() {}
+
+      @Override
+      public DataConn createDataConn() {
+        return new BatchDataConn(this);
+      }
+    }
+
+    static class BatchDataConn implements DataConn {
+      final BatchDataSrc ds;
+      final List<Integer> staged = new ArrayList<>();
+      boolean committed;
+
+      BatchDataConn(BatchDataSrc ds) {
+        this.ds = ds;
+      }
+
+      @Override
+      public boolean isCommitted() {
+        return this.committed;
+      }
+
+      @Override
+      public void commit(AsyncGroup ag) throws Err {
+        if (this.staged.contains(this.ds.poison)) {
+          throw new Err("poisoned");
+        }
+        this.ds.committed.addAll(this.staged);
+        this.ds.commits++;
+        this.committed = true;
+      }
+
+      @Override
+      public void postCommit(AsyncGroup ag) throws Err {
+        if (this.staged.contains(this.ds.postCommitPoison)) {
+          throw new Err("post-commit poisoned");
+        }
+      }
+
+      @Override
+      public void rollback(AsyncGroup ag) {
+        this.staged.clear();
+      }
+
+      @Override
+      public void close() {}
+    }
+
+    List<Logic<DataHub>> batchLogics(int n, int failing) {
+      var logics = new ArrayList<Logic<DataHub>>();
+      for (int i = 0; i < n; i++) {
+        final int v = i;
+        logics.add(
+            data -> {
+              if (v == failing) {
+                throw new Err("logic failed");
+              }
+              data.getDataConn("foo", BatchDataConn.class).staged.add(v);
+            });
+      }
+      return logics;
+    }
+
+    @Test
+    void testTxnBatchAndOk() {
+      var ds = new BatchDataSrc();
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.limitBatchSize(4);
+        hub.txnBatch(batchLogics(10, -1));
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.committed).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+      assertThat(ds.commits).isEqualTo(3);
+    }
+
+    // An iterator over logics which blocks in hasNext() for the logic at the given index until a
+    // batch has been committed, and which takes the given time in next().
+    static class BlockingIterator implements Iterator<Logic<DataHub>> {
+      final Iterator<Logic<DataHub>> logics;
+      final BatchDataSrc ds;
+      final int blockAt;
+      final long nextMillis;
+      int index;
+      boolean timedOut;
+
+      BlockingIterator(List<Logic<DataHub>> logics, BatchDataSrc ds, int blockAt, long nextMillis) {
+        this.logics = logics.iterator();
+        this.ds = ds;
+        this.blockAt = blockAt;
+        this.nextMillis = nextMillis;
+      }
+
+      @Override
+      public boolean hasNext() {
+        if (this.index == this.blockAt) {
+          long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+          while (this.ds.commits == 0) {
+            if (System.nanoTime() > deadline) {
+              this.timedOut = true;
+              break;
+            }
+            Thread.onSpinWait();
+          }
+        }
+        return this.logics.hasNext();
+      }
+
+      @Override
+      public Logic<DataHub> next() {
+        try {
+          Thread.sleep(this.nextMillis);
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        this.index++;
+        return this.logics.next();
+      }
+    }
+
+    @Test
+    void testTxnBatchCommitsFullBatchBeforeBlockingForNextLogic() {
+      var ds = new BatchDataSrc();
+      var iter = new BlockingIterator(batchLogics(3, -1), ds, 2, 0L);
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.limitBatchSize(2);
+        hub.txnBatch(() -> iter);
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(iter.timedOut).isFalse();
+      assertThat(ds.committed).containsExactly(0, 1, 2);
+      assertThat(ds.commits).isEqualTo(2);
+    }
+
+    @Test
+    void testTxnBatchCommitsLingeredBatchBeforeBlockingForNextLogic() {
+      var ds = new BatchDataSrc();
+      var iter = new BlockingIterator(batchLogics(3, -1), ds, 2, 30L);
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.limitBatchLinger(Duration.ofMillis(45));
+        hub.txnBatch(() -> iter);
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(iter.timedOut).isFalse();
+      assertThat(ds.committed).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void testTxnBatchButLogicFailed() {
+      var ds = new BatchDataSrc();
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.limitBatchSize(4);
+        hub.txnBatch(batchLogics(10, 5));
+        fail();
+      } catch (Err err) {
+        switch (err.getReason()) {
+          case FailToRunLogicsInBatch r -> {
+            assertThat(r.errors()).hasSize(1);
+            assertThat(r.errors().get(0).index).isEqualTo(5);
+            assertThat(r.errors().get(0).err.getReason()).isEqualTo("logic failed");
+          }
+          default -> fail(err);
+        }
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.committed).containsExactly(0, 1, 2, 3, 4, 6, 7, 8, 9);
+      assertThat(ds.commits).isEqualTo(3);
+    }
+
+    @Test
+    void testTxnBatchButCommitFailed() {
+      var ds = new BatchDataSrc();
+      ds.poison = 5;
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.txnBatch(batchLogics(8, -1));
+        fail();
+      } catch (Err err) {
+        switch (err.getReason()) {
+          case FailToRunLogicsInBatch r -> {
+            assertThat(r.errors()).hasSize(1);
+            assertThat(r.errors().get(0).index).isEqualTo(5);
+            assertThat(r.errors().get(0).err.getReason()).isInstanceOf(FailToCommitDataConn.class);
+          }
+          default -> fail(err);
+        }
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.committed).containsExactlyInAnyOrder(0, 1, 2, 3, 4, 6, 7);
+      // [0,8) fails, [0,4) commits, [4,8) fails, [4,6) fails, [4,5) commits, [5,6) fails,
+      // [6,8) commits
+      assertThat(ds.commits).isEqualTo(3);
+    }
+
+    List<Logic<DataHub>> batchLogicsWithTwoConns(int n) {
+      var logics = new ArrayList<Logic<DataHub>>();
+      for (int i = 0; i < n; i++) {
+        final int v = i;
+        logics.add(
+            data -> {
+              data.getDataConn("foo", BatchDataConn.class).staged.add(v);
+              data.getDataConn("bar", BatchDataConn.class).staged.add(v);
+            });
+      }
+      return logics;
+    }
+
+    @Test
+    void testTxnBatchButPartiallyCommitted() {
+      var foo = new BatchDataSrc();
+      var bar = new BatchDataSrc();
+      bar.poison = 5;
+      try (var hub = new DataHub()) {
+        hub.uses("foo", foo);
+        hub.uses("bar", bar);
+        hub.limitBatchSize(4);
+        hub.txnBatch(batchLogicsWithTwoConns(12));
+        fail();
+      } catch (Err err) {
+        switch (err.getReason()) {
+          case FailToRunLogicsInBatch r -> {
+            assertThat(r.errors()).hasSize(4);
+            for (int i = 0; i < 4; i++) {
+              assertThat(r.errors().get(i).index).isEqualTo(4 + i);
+              assertThat(r.errors().get(i).err.getReason())
+                  .isInstanceOf(FailToCommitDataConn.class);
+            }
+          }
+          default -> fail(err);
+        }
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      // The batch [4,8) is not run again after foo has committed it, and [8,12) is not run.
+      assertThat(foo.committed).containsExactly(0, 1, 2, 3, 4, 5, 6, 7);
+      assertThat(foo.commits).isEqualTo(2);
+      assertThat(bar.committed).containsExactly(0, 1, 2, 3);
+      assertThat(bar.commits).isEqualTo(1);
+    }
+
+    @Test
+    void testTxnBatchButPostCommitFailed() {
+      var foo = new BatchDataSrc();
+      var bar = new BatchDataSrc();
+      bar.postCommitPoison = 5;
+      try (var hub = new DataHub()) {
+        hub.uses("foo", foo);
+        hub.uses("bar", bar);
+        hub.limitBatchSize(4);
+        hub.txnBatch(batchLogicsWithTwoConns(12));
+        fail();
+      } catch (Err err) {
+        switch (err.getReason()) {
+          case FailToRunLogicsInBatch r -> {
+            assertThat(r.errors()).hasSize(4);
+            for (int i = 0; i < 4; i++) {
+              assertThat(r.errors().get(i).index).isEqualTo(4 + i);
+              assertThat(r.errors().get(i).err.getReason())
+                  .isInstanceOf(FailToPostCommitDataConn.class);
+            }
+          }
+          default -> fail(err);
+        }
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      // Each batch is committed exactly once.
+      assertThat(foo.committed).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11);
+      assertThat(foo.commits).isEqualTo(3);
+      assertThat(bar.committed).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11);
+      assertThat(bar.commits).isEqualTo(3);
+    }
+
+    @Test
+    void testTxnAsyncAndOk() {
+      var ds = new BatchDataSrc();
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var logic : batchLogics(5, -1)) {
+          futures.add(hub.txnAsync(logic));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.committed).containsExactly(0, 1, 2, 3, 4);
+      assertThat(ds.commits).isEqualTo(5);
+    }
+
+    @Test
+    void testTxnAsyncButFailed() {
+      var ds = new BatchDataSrc();
+      ds.poison = 1;
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        var logics = batchLogics(3, -1);
+        var f0 = hub.txnAsync(logics.get(0));
+        var f1 = hub.txnAsync(logics.get(1));
+        var f2 = hub.runAsync(logics.get(2));
+        f0.get();
+        try {
+          f1.get();
+          fail();
+        } catch (ExecutionException e) {
+          switch (((Err) e.getCause()).getReason()) {
+            case FailToCommitDataConn r -> assertThat(r.errors()).hasSize(1);
+            default -> fail(e);
+          }
+        }
+        f2.get();
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.committed).containsExactly(0);
+      assertThat(ds.commits).isEqualTo(1);
+    }
+
+    static class ConflictDataSrc implements DataSrc {
+      int conflicts;
+      int commits;
+      int runs;
+
+      @Override
+      public void setup(AsyncGroup ag) {}
+
+      @Override
+      public void close() {}
+
+      @Override
+      public DataConn createDataConn() {
+        return new ConflictDataConn(this);
+      }
+    }
+
+    static class ConflictDataConn implements DataConn {
+      final ConflictDataSrc ds;
+
+      ConflictDataConn(ConflictDataSrc ds) {
+        this.ds = ds;
+      }
+
+      @Override
+      public boolean isCommitted() {
+        return false;
+      }
+
+      @Override
+      public void commit(AsyncGroup ag) throws Err {
+        this.ds.commits++;
+        if (this.ds.conflicts > 0) {
+          this.ds.conflicts--;
+          throw new Err("conflict");
+        }
+      }
+
+      @Override
+      public void rollback(AsyncGroup ag) {}
+
+      @Override
+      public void close() {}
+    }
+
+    @Test
+    void testTxnRetriedUntilSucceeded() {
+      var before = Sabi.retryMetrics();
+      var ds = new ConflictDataSrc();
+      ds.conflicts = 2;
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.retryTxnOnFailure(Backoff.exponential(3, Duration.ofMillis(1), Duration.ofMillis(4)));
+        hub.txn(
+            (DataHub data) -> {
+              ds.runs++;
+              data.getDataConn("foo", ConflictDataConn.class);
+            });
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.runs).isEqualTo(3);
+      assertThat(ds.commits).isEqualTo(3);
+      var after = Sabi.retryMetrics();
+      assertThat(after.retries() - before.retries()).isEqualTo(2L);
+      assertThat(after.recovered() - before.recovered()).isEqualTo(1L);
+      assertThat(after.exhausted() - before.exhausted()).isEqualTo(0L);
+    }
+
+    @Test
+    void testTxnRetriedButExhausted() {
+      var before = Sabi.retryMetrics();
+      var ds = new ConflictDataSrc();
+      ds.conflicts = 10;
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.retryTxnOnFailure(Backoff.exponential(2, Duration.ofMillis(1), Duration.ofMillis(4)));
+        hub.txn(
+            (DataHub data) -> {
+              ds.runs++;
+              data.getDataConn("foo", ConflictDataConn.class);
+            });
+        fail();
+      } catch (Err err) {
+        assertThat(err.getReason()).isInstanceOf(FailToCommitDataConn.class);
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.runs).isEqualTo(3);
+      var after = Sabi.retryMetrics();
+      assertThat(after.retries() - before.retries()).isEqualTo(2L);
+      assertThat(after.recovered() - before.recovered()).isEqualTo(0L);
+      assertThat(after.exhausted() - before.exhausted()).isEqualTo(1L);
+    }
+
+    @Test
+    void testTxnNotRetriedAfterPartialCommit() {
+      var before = Sabi.retryMetrics();
+      var foo = new BatchDataSrc();
+      var bar = new ConflictDataSrc();
+      bar.conflicts = 1;
+      try (var hub = new DataHub()) {
+        hub.uses("foo", foo);
+        hub.uses("bar", bar);
+        hub.retryTxnOnFailure((retry) -> 0L);
+        hub.txn(
+            (DataHub data) -> {
+              bar.runs++;
+              data.getDataConn("foo", BatchDataConn.class).staged.add(1);
+              data.getDataConn("bar", ConflictDataConn.class);
+            });
+        fail();
+      } catch (Err err) {
+        assertThat(err.getReason()).isInstanceOf(FailToCommitDataConn.class);
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(bar.runs).isEqualTo(1);
+      assertThat(foo.committed).containsExactly(1);
+      assertThat(Sabi.retryMetrics().retries() - before.retries()).isEqualTo(0L);
+    }
+
+    @Test
+    void testTxnNotRetriedOnLogicFailure() {
+      var ds = new ConflictDataSrc();
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.retryTxnOnFailure((retry) -> 0L);
+        hub.txn(
+            (DataHub data) -> {
+              ds.runs++;
+              data.getDataConn("foo", ConflictDataConn.class);
+              throw new Err("logic failed");
+            });
+        fail();
+      } catch (Err err) {
+        assertThat(err.getReason()).isEqualTo("logic failed");
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.runs).isEqualTo(1);
+      assertThat(ds.commits).isEqualTo(0);
+    }
+
+    @Test
+    void testBackoffAndRetryBudget() {
+      var backoff = Backoff.exponential(4, Duration.ofMillis(10), Duration.ofMillis(30));
+      assertThat(backoff.delayNanos(1)).isEqualTo(10_000_000L);
+      assertThat(backoff.delayNanos(2)).isEqualTo(20_000_000L);
+      assertThat(backoff.delayNanos(3)).isEqualTo(30_000_000L);
+      assertThat(backoff.delayNanos(4)).isEqualTo(30_000_000L);
+      assertThat(backoff.delayNanos(5)).isEqualTo(Backoff.GIVE_UP);
+
+      var jittered = backoff.withJitter();
+      for (int i = 0; i < 100; i++) {
+        assertThat(jittered.delayNanos(2)).isLessThanOrEqualTo(20_000_000L);
+        assertThat(jittered.delayNanos(2)).isGreaterThanOrEqualTo(0L);
+      }
+
+      var budget = RetryBudget.perSecond(2.0);
+      var budgeted = backoff.withBudget(budget);
+      assertThat(budgeted.delayNanos(1)).isEqualTo(10_000_000L);
+      assertThat(budgeted.delayNanos(1)).isEqualTo(10_000_000L);
+      assertThat(budgeted.delayNanos(1)).isEqualTo(Backoff.GIVE_UP);
+      assertThat(budget.denied()).isEqualTo(1L);
+    }
+
+    @Test
+    void testRetryBudgetFromManyThreads() throws Exception {
+      var budget = RetryBudget.perSecond(0.001);
+      var granted = new AtomicInteger();
+      var threads = new ArrayList<Thread>();
+      for (int i = 0; i < 8; i++) {
+        threads.add(
+            Thread.startVirtualThread(
+                () -> {
+                  for (int j = 0; j < 1000; j++) {
+                    if (budget.tryAcquire()) {
+                      granted.incrementAndGet();
+                    }
+                  }
+                }));
+      }
+      for (var th : threads) {
+        th.join();
+      }
+      assertThat(granted.get()).isEqualTo(1);
+      assertThat(budget.denied()).isEqualTo(7999L);
+    }
+
+    static class SavepointDataSrc implements DataSrc {
+      final List<String> committed = new ArrayList<>();
+      final List<String> logs = new ArrayList<>();
+      boolean savepointSupported = true;
+
+      @Override
+      public void setup(AsyncGroup ag) {}
+
+      @Override
+      public void close() {}
+
+      @Override
+      public DataConn createDataConn() {
+        if (this.savepointSupported) {
+          return new SavepointDataConn(this);
+        }
+        return new ConflictDataConn(new ConflictDataSrc());
+      }
+    }
+
+    static class SavepointDataConn implements DataConn {
+      final SavepointDataSrc ds;
+      final List<String> staged = new ArrayList<>();
+      final List<Integer> marks = new ArrayList<>();
+
+      SavepointDataConn(SavepointDataSrc ds) {
+        this.ds = ds;
+      }
+
+      void write(String s) {
+        this.staged.add(s);
+      }
+
+      @Override
+      public boolean isCommitted() {
+        return false;
+      }
+
+      @Override
+      public void commit(AsyncGroup ag) {
+        this.ds.committed.addAll(this.staged);
+      }
+
+      @Override
+      public void rollback(AsyncGroup ag) {
+        this.ds.logs.add("rollback");
+      }
+
+      @Override
+      public void setSavepoint(int depth) {
+        this.ds.logs.add("setSavepoint " + depth);
+        this.marks.add(this.staged.size());
+      }
+
+      @Override
+      public void rollbackToSavepoint(AsyncGroup ag, int depth) {
+        this.ds.logs.add("rollbackToSavepoint " + depth);
+        int mark = this.marks.remove(depth - 1);
+        this.staged.subList(mark, this.staged.size()).clear();
+      }
+
+      @Override
+      public void releaseSavepoint(int depth) {
+        this.ds.logs.add("releaseSavepoint " + depth);
+        this.marks.remove(depth - 1);
+      }
+
+      @Override
+      public void close() {
+        this.ds.logs.add("close");
+      }
+    }
+
+    @Test
+    void testNestedTxnRollsBackOnlyFailedScope() {
+      var ds = new SavepointDataSrc();
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.txn(
+            (DataHub data) -> {
+              data.getDataConn("foo", SavepointDataConn.class).write("a");
+              data.nestedTxn(
+                  (DataHub d) -> d.getDataConn("foo", SavepointDataConn.class).write("b"));
+              try {
+                data.nestedTxn(
+                    (DataHub d) -> {
+                      d.getDataConn("foo", SavepointDataConn.class).write("c");
+                      throw new Err("XXX");
+                    });
+                fail();
+              } catch (Err e) {
+                assertThat(e.getReason()).isEqualTo("XXX");
+              }
+              data.getDataConn("foo", SavepointDataConn.class).write("d");
+            });
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.committed).containsExactly("a", "b", "d");
+      assertThat(ds.logs)
+          .containsExactly(
+              "setSavepoint 1",
+              "releaseSavepoint 1",
+              "setSavepoint 1",
+              "rollbackToSavepoint 1",
+              "close");
+    }
+
+    @Test
+    void testNestedTxnClosesDataConnCreatedInFailedScope() {
+      var ds = new SavepointDataSrc();
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.txn(
+            (DataHub data) -> {
+              try {
+                data.nestedTxn(
+                    (DataHub d) -> {
+                      d.getDataConn("foo", SavepointDataConn.class).write("a");
+                      throw new Err("XXX");
+                    });
+                fail();
+              } catch (Err e) {
+                assertThat(e.getReason()).isEqualTo("XXX");
+              }
+              data.getDataConn("foo", SavepointDataConn.class).write("b");
+            });
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.committed).containsExactly("b");
+      assertThat(ds.logs).containsExactly("rollback", "close", "close");
+    }
+
+    @Test
+    void testNestedTxnInRun() {
+      var ds = new SavepointDataSrc();
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.run(
+            (DataHub data) -> {
+              data.getDataConn("foo", SavepointDataConn.class).write("a");
+              data.nestedTxn(
+                  (DataHub d) -> d.getDataConn("foo", SavepointDataConn.class).write("b"));
+              try {
+                data.nestedTxn(
+                    (DataHub d) -> {
+                      d.getDataConn("foo", SavepointDataConn.class).write("c");
+                      throw new Err("XXX");
+                    });
+                fail();
+              } catch (Err e) {
+                assertThat(e.getReason()).isEqualTo("XXX");
+              }
+              data.getDataConn("foo", SavepointDataConn.class).write("d");
+            });
+      } catch (Exception e) {
+        fail(e);
+      }
+
+      assertThat(ds.committed).containsExactly("a", "b");
+      assertThat(ds.logs).containsExactly("close", "rollback", "close", "close");
+    }
+
+    @Test
+    void testNestedTxnButSavepointNotSupported() {
+      var ds = new SavepointDataSrc();
+      ds.savepointSupported = false;
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.txn(
+            (DataHub data) -> {
+              data.getDataConn("foo", ConflictDataConn.class);
+              data.nestedTxn((DataHub d) -> fail());
+            });
+        fail();
+      } catch (Err e) {
+        switch (e.getReason()) {
+          case SavepointNotSupported r -> {
+            assertThat(r.name()).isEqualTo("foo");
+            assertThat(r.dataConnType()).isEqualTo(ConflictDataConn.class.getName());
+          }
+          default -> fail(e);
+        }
+      }
+    }
+
+    static class NoopDataConn implements DataConn {
+      @Override
+      public boolean isCommitted() {
+        return false;
+      }
+
+      @Override
+      public void commit(AsyncGroup ag) {}
+
+      @Override
+      public void rollback(AsyncGroup ag) {}
+
+      @Override
+      public void close() {}
+    }
+
+    static class NoopDataSrc implements DataSrc {
+      final NoopDataConn conn = new NoopDataConn();
+
+      @Override
+      public void setup(AsyncGroup ag) {}
+
+      @Override
+      public void close() {}
+
+      @Override
+      public DataConn createDataConn() {
+        return this.conn;
+      }
+    }
+
+    // Measured with the ThreadMXBean of the JDK, which is got by reflection because this module
+    // does not read java.management.
+    long allocatedBytesPerTxn(int numConns) throws Exception {
+      var bean =
+          Class.forName("java.lang.management.ManagementFactory")
+              .getMethod("getThreadMXBean")
+              .invoke(null);
+      var getAllocatedBytes =
+          Class.forName("com.sun.management.ThreadMXBean")
+              .getMethod("getCurrentThreadAllocatedBytes");
+
+      var names = new String[numConns];
+      try (var hub = new DataHub()) {
+        for (int i = 0; i < numConns; i++) {
+          names[i] = "ds" + i;
+          hub.uses(names[i], new NoopDataSrc());
+        }
+        Logic<DataHub> logic =
+            data -> {
+              for (var name : names) {
+                data.getDataConn(name, NoopDataConn.class);
+              }
+            };
+
+        for (int i = 0; i < 20_000; i++) {
+          hub.txn(logic);
+        }
+        long start = (long) getAllocatedBytes.invoke(bean);
+        for (int i = 0; i < 10_000; i++) {
+          hub.txn(logic);
+        }
+        long end = (long) getAllocatedBytes.invoke(bean);
+        return (end - start) / 10_000;
+      }
+    }
+
+    @Test
+    void testTxnAllocatesNothingPerDataConnInSteadyState() throws Exception {
+      long bytes2 = allocatedBytesPerTxn(2);
+      long bytes16 = allocatedBytesPerTxn(16);
+      assertThat(bytes16 - bytes2).isLessThan(64L);
+      assertThat(bytes2).isLessThan(512L);
+    }
+  }
+
+  @Nested
+  @SuppressWarnings("try")
+  class TestGlobals {
+
+    @Test
+    void testUsesAndSetupAndOk() {
+      var logger = new ArrayList<String>();
+      try {
+        resetGlobals();
+
+        assertThat(DataHubInner.GLOBAL_DATA_SRCS_FIXED.get()).isFalse();
+        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.local).isFalse();
+        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listUnready).isEmpty();
+        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listReady).isEmpty();
+
+        uses("foo", new MyDataSrc(1, Failure.None, logger));
+
+        assertThat(DataHubInner.GLOBAL_DATA_SRCS_FIXED.get()).isFalse();
+        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.local).isFalse();
+        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listUnready).hasSize(1);
+        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listReady).hasSize(0);
+
+        try (var ac = setup()) {
+          assertThat(DataHubInner.GLOBAL_DATA_SRCS_FIXED.get()).isTrue();
+          assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.local).isFalse();
+          assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listUnready).hasSize(0);
+          assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listReady).hasSize(1);
+          var snapshot = DataHubInner.GLOBAL_DATA_SRC_MANAGER.snapshot;
+          assertThat(snapshot.index.size()).isEqualTo(1);
+
+          var hub = new DataHubInner();
+          assertThat(hub.dataSrcMap).isEmpty();
+          hub.begin();
+          assertThat(hub.globalDataSrcs).isSameAs(snapshot.index);
+          assertThat(snapshot.pins.sum()).isEqualTo(1L);
+          assertThat(hub.getDataConn("foo", MyDataConn.class)).isNotNull();
+          hub.end();
+          assertThat(snapshot.pins.sum()).isEqualTo(0L);
+          hub.closeLocals();
+        }
+        assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.snapshot).isSameAs(DataSrcSnapshot.EMPTY);
+      } catch (Exception e) {
+        fail(e);
+      } finally {
+        resetGlobals();
+      }
+
+      assertThat(logger).hasSize(4);
+      var iter = logger.iterator();
+      assertThat(iter.next()).isEqualTo("MyDataSrc#setup 1");
+      assertThat(iter.next()).isEqualTo("MyDataSrc#createDataConn 1");
+      assertThat(iter.next()).isEqualTo("MyDataConn#close 1");
+      assertThat(iter.next()).isEqualTo("MyDataSrc#close 1");
+      assertThat(iter.hasNext()).isFalse();
+    }
+
+    @Test
+    void testReplaceAndRetireAfterSetup() {
+      var logger = new ArrayList<String>();
+      try {
+        resetGlobals();
+
+        uses("foo", new MyDataSrc(1, Failure.None, logger));
+        try (var ac = setup()) {
+          var running = new DataHubInner();
+          running.begin();
+          running.getDataConn("foo", MyDataConn.class);
+
+          Sabi.replace("foo", new MyDataSrc(2, Failure.None, logger));
+          Sabi.replace("bar", new MyDataSrc(3, Failure.None, logger));
+          assertThat(DataHubInner.GLOBAL_DATA_SRC_MANAGER.listReady).hasSize(2);
+          assertThat(logger)
+              .containsExactly(
+                  "MyDataSrc#setup 1",
+                  "MyDataSrc#createDataConn 1",
+                  "MyDataSrc#setup 2",
+                  "MyDataSrc#setup 3");
+
+          // The running hub keeps its snapshot until its logic ends.
+          assertThat(running.getDataConn("foo", MyDataConn.class)).isNotNull();
+          try {
+            running.getDataConn("bar", MyDataConn.class);
+            fail();
+          } catch (Err e) {
+            assertThat(e.getReason()).isInstanceOf(NoDataSrcToCreateDataConn.class);
+          }
+          running.end();
+          assertThat(logger.subList(4, logger.size()))
+              .containsExactly("MyDataConn#close 1", "MyDataSrc#close 1");
+          running.closeLocals();
+
+          var hub = new DataHubInner();
+          hub.begin();
+          hub.getDataConn("foo", MyDataConn.class);
+          hub.getDataConn("bar", MyDataConn.class);
+          hub.end();
+
+          Sabi.retire("bar");
+          hub.begin();
+          try {
+            hub.getDataConn("bar", MyDataConn.class);
+            fail();
+          } catch (Err e) {
+            assertThat(e.getReason()).isInstanceOf(NoDataSrcToCreateDataConn.class);
+          }
+          hub.end();
+          hub.closeLocals();
+        }
+      } catch (Exception e) {
+        fail(e);
+      } finally {
+        resetGlobals();
+      }
+
+      assertThat(logger.subList(6, logger.size()))
+          .containsExactly(
+              "MyDataSrc#createDataConn 2",
+              "MyDataSrc#createDataConn 3",
+              "MyDataConn#close 3",
+              "MyDataConn#close 2",
+              "MyDataSrc#close 3",
+              "MyDataSrc#close 2");
+    }
+
+    @Test
+    void testResetUnpinsGlobalsKeptForReuse() {
+      var logger = new ArrayList<String>();
+      try {
+        resetGlobals();
+
+        uses(
+            "foo",
+            new TxnTest.ReusableDataSrc(logger) {
+              @Override
+              public void close() {
+                this.logger.add("ReusableDataSrc#close");
+              }
+            });
+        try (var ac = setup()) {
+          var snapshot = DataHubInner.GLOBAL_DATA_SRC_MANAGER.snapshot;
+          var hub = new DataHubInner();
+          hub.reuseDataConns(10, null);
+          hub.begin();
+          hub.getDataConn("foo", TxnTest.ReusableDataConn.class);
+          hub.end();
+          assertThat(snapshot.pins.sum()).isEqualTo(1L);
+
+          hub.reset();
+          assertThat(snapshot.pins.sum()).isEqualTo(0L);
+          Sabi.replace("foo", new TxnTest.ReusableDataSrc(logger));
+          logger.add("replaced");
+          hub.closeLocals();
+        }
+      } catch (Exception e) {
+        fail(e);
+      } finally {
+        resetGlobals();
+      }
+
+      assertThat(logger)
+          .containsExactly(
+              "ReusableDataSrc#createDataConn 1",
+              "ReusableDataConn#resetForReuse 1",
+              "ReusableDataConn#close 1",
+              "ReusableDataSrc#close",
+              "replaced");
+    }
+
+    @Test
+    void testReplaceAfterSetupButFail() {
+      var logger = new ArrayList<String>();
+      try {
+        resetGlobals();
+
+        uses("foo", new MyDataSrc(1, Failure.None, logger));
+        try (var ac = setup()) {
+          try {
+            Sabi.replace("foo", new MyDataSrc(2, Failure.Setup, logger));
+            fail();
+          } catch (Err e) {
+            assertThat(e.getReason()).isInstanceOf(FailToSetupGlobalDataSrcs.class);
+          }
+          var hub = new DataHubInner();
+          hub.begin();
+          hub.getDataConn("foo", MyDataConn.class);
+          hub.end();
+          hub.closeLocals();
+        }
+      } catch (Exception e) {
+        fail(e);
+      } finally {
+        resetGlobals();
+      }
+
+      assertThat(logger)
+          .containsExactly(
+              "MyDataSrc#setup 1",
+              "MyDataSrc#setup 2 failed",
+              "MyDataSrc#createDataConn 1",
+              "MyDataConn#close 1",
+              "MyDataSrc#close 1");
+    }
+
     @Test
     void testUsesAndSetupButFail() {
       var logger = new ArrayList<String>();
@@ -0,0 +1,214 @@
+package com.github.sttk.sabi.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataHub;
+import com.github.sttk.sabi.DataHubPool;
+import com.github.sttk.sabi.DataSrc;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class DataHubPoolTest {
+  private DataHubPoolTest() {}
+
+  static class MyDataConn implements DataConn {
+    @Override
+    public boolean isCommitted() {
+      return false;
+    }
+
+    @Override
+    public void commit(AsyncGroup ag) {}
+
+    @Override
+    public void rollback(AsyncGroup ag) {}
+
+    @Override
+    public void close() {}
+  }
+
+  static class MyDataSrc implements DataSrc {
+    final List<String> logger;
+
+    MyDataSrc(List<String> logger) {
+      this.logger = logger;
+    }
+
+    @Override
+    public void setup(AsyncGroup ag) {
+      this.logger.add("setup");
+    }
+
+    @Override
+    public void close() {
+      this.logger.add("close");
+    }
+
+    @Override
+    public DataConn createDataConn() {
+      return new MyDataConn();
+    }
+  }
+
+  static class MyDataHub extends DataHub {
+    String user;
+
+    @Override
+    public void reset() {
+      this.user = null;
+      super.reset();
+    }
+  }
+
+  @Test
+  void testRecycleHubWithLocalDataSrcsSetUp() {
+    var logger = Collections.synchronizedList(new ArrayList<String>());
+    var created = new AtomicInteger();
+    try (var pool =
+        new DataHubPool<MyDataHub>(
+            () -> {
+              created.incrementAndGet();
+              var hub = new MyDataHub();
+              hub.uses("foo", new MyDataSrc(logger));
+              return hub;
+            },
+            2)) {
+      for (int i = 0; i < 5; i++) {
+        var hub = pool.acquire();
+        assertThat(hub.user).isNull();
+        hub.user = "user" + i;
+        hub.txn((MyDataHub data) -> data.getDataConn("foo", MyDataConn.class));
+        pool.release(hub);
+      }
+      pool.txn((DataHub data) -> data.getDataConn("foo", MyDataConn.class));
+    } catch (Err e) {
+      fail(e);
+    }
+    assertThat(created.get()).isEqualTo(1);
+    assertThat(logger).containsExactly("setup", "close");
+  }
+
+  @Test
+  void testCloseHubsBeyondCapacity() {
+    var logger = Collections.synchronizedList(new ArrayList<String>());
+    var pool =
+        new DataHubPool<DataHub>(
+            () -> {
+              var hub = new DataHub();
+              hub.uses("foo", new MyDataSrc(logger));
+              return hub;
+            },
+            1);
+    var hub1 = pool.acquire();
+    var hub2 = pool.acquire();
+    assertThat(hub1).isNotSameAs(hub2);
+    try {
+      hub1.run((DataHub data) -> {});
+      hub2.run((DataHub data) -> {});
+    } catch (Err e) {
+      fail(e);
+    }
+    assertThat(logger).containsExactly("setup", "setup");
+
+    pool.release(hub1);
+    pool.release(hub2);
+    assertThat(logger).containsExactly("setup", "setup", "close");
+    assertThat(pool.acquire()).isSameAs(hub1);
+    pool.release(hub1);
+
+    pool.close();
+    assertThat(logger).containsExactly("setup", "setup", "close", "close");
+  }
+
+  @Test
+  void testResetButLogicIsRunning() {
+    try (var hub = new DataHub()) {
+      hub.run(
+          (DataHub data) -> {
+            try {
+              data.reset();
+              fail();
+            } catch (IllegalStateException e) {
+              assertThat(e.getMessage()).isEqualTo("A logic is running in the DataHub");
+            }
+          });
+    } catch (Err e) {
+      fail(e);
+    }
+  }
+
+  static class StuckDataHub extends DataHub {
+    @Override
+    public void reset() {
+      throw new IllegalStateException("A logic is running in the DataHub");
+    }
+  }
+
+  @Test
+  void testDropHubWhichCannotBeResetWithoutClosingIt() {
+    var logger = Collections.synchronizedList(new ArrayList<String>());
+    try (var pool =
+        new DataHubPool<DataHub>(
+            () -> {
+              var hub = new StuckDataHub();
+              hub.uses("foo", new MyDataSrc(logger));
+              return hub;
+            },
+            1)) {
+      try {
+        pool.txn(
+            (DataHub data) -> {
+              data.getDataConn("foo", MyDataConn.class);
+              throw new Err("XXX");
+            });
+        fail();
+      } catch (Err e) {
+        assertThat(e.getReason()).isEqualTo("XXX");
+        assertThat(e.getSuppressed()[0]).isInstanceOf(IllegalStateException.class);
+      }
+      assertThat(logger).containsExactly("setup");
+
+      var hub = pool.acquire();
+      try {
+        pool.release(hub);
+        fail();
+      } catch (IllegalStateException e) {
+        assertThat(e.getMessage()).isEqualTo("A logic is running in the DataHub");
+      }
+      assertThat(logger).containsExactly("setup");
+      assertThat(pool.acquire()).isNotSameAs(hub);
+    }
+  }
+
+  @Test
+  void testRecycleHubsFromManyThreads() throws Exception {
+    try (var pool = new DataHubPool<DataHub>(DataHub::new, 4)) {
+      var threads = new ArrayList<Thread>();
+      var errors = new AtomicInteger();
+      for (int i = 0; i < 4; i++) {
+        threads.add(
+            Thread.startVirtualThread(
+                () -> {
+                  for (int j = 0; j < 1000; j++) {
+                    try {
+                      pool.txn((DataHub data) -> {});
+                    } catch (Err e) {
+                      errors.incrementAndGet();
+                    }
+                  }
+                }));
+      }
+      for (var th : threads) {
+        th.join();
+      }
+      assertThat(errors.get()).isEqualTo(0);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.github.sttk.sabi.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataSrc;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class DataSrcIndexTest {
+  private DataSrcIndexTest() {}
+
+  static class MyDataSrc implements DataSrc {
+    @Override
+    public void setup(AsyncGroup ag) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public DataConn createDataConn() {
+      return null;
+    }
+  }
+
+  static DataSrcContainer cont(String name) {
+    return new DataSrcContainer(false, name, new MyDataSrc());
+  }
+
+  @Test
+  void testEmpty() {
+    assertThat(DataSrcIndex.EMPTY.size()).isEqualTo(0);
+    assertThat(DataSrcIndex.EMPTY.get("foo")).isNull();
+    assertThat(DataSrcIndex.EMPTY.get("")).isNull();
+  }
+
+  @Test
+  void testGetManyNames() {
+    var list = new ArrayList<DataSrcContainer>();
+    for (int i = 0; i < 200; i++) {
+      list.add(cont("ds" + i));
+    }
+    var index = new DataSrcIndex(list);
+    assertThat(index.size()).isEqualTo(200);
+    for (var c : list) {
+      assertThat(index.get(c.name)).isSameAs(c);
+    }
+    assertThat(index.get("ds200")).isNull();
+    assertThat(index.get("foo")).isNull();
+  }
+
+  @Test
+  void testGetNamesHavingSameHashCode() {
+    // "Aa" and "BB" have the same hash code, and so do their concatenations.
+    var names = List.of("Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB");
+    var list = new ArrayList<DataSrcContainer>();
+    for (var name : names) {
+      list.add(cont(name));
+    }
+    var index = new DataSrcIndex(list);
+    assertThat(index.size()).isEqualTo(6);
+    for (var c : list) {
+      assertThat(index.get(c.name)).isSameAs(c);
+    }
+  }
+
+  @Test
+  void testGetManyNamesAmongWhichSomeHaveSameHashCode() {
+    var list = new ArrayList<DataSrcContainer>();
+    for (int i = 0; i < 100; i++) {
+      list.add(cont("ds" + i));
+    }
+    list.add(cont("Aa"));
+    list.add(cont("BB"));
+    var index = new DataSrcIndex(list);
+    assertThat(index.size()).isEqualTo(102);
+    for (var c : list) {
+      assertThat(index.get(c.name)).isSameAs(c);
+    }
+    assertThat(index.get("ds100")).isNull();
+    assertThat(index.get("AaBB")).isNull();
+  }
+
+  @Test
+  void testLaterOneTakesPrecedence() {
+    var first = cont("foo");
+    var second = cont("foo");
+    var index = new DataSrcIndex(List.of(first, cont("bar"), second));
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.get("foo")).isSameAs(second);
+  }
+}
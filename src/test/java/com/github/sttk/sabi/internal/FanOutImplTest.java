@@ -0,0 +1,314 @@
+package com.github.sttk.sabi.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataHub;
+import com.github.sttk.sabi.DataSrc;
+import com.github.sttk.sabi.FanOut;
+import com.github.sttk.sabi.Logic;
+import com.github.sttk.sabi.RunnerContext;
+import com.github.sttk.sabi.TxnFailureReport;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FanOutImplTest {
+  private FanOutImplTest() {}
+
+  static class SlowDataConn implements DataConn {
+    final String text;
+
+    SlowDataConn(String text) {
+      this.text = text;
+    }
+
+    String read() throws Err {
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        throw new Err("interrupted", e);
+      }
+      return this.text;
+    }
+
+    @Override
+    public void commit(AsyncGroup ag) throws Err {}
+
+    @Override
+    public boolean isCommitted() {
+      return false;
+    }
+
+    @Override
+    public void rollback(AsyncGroup ag) {}
+
+    @Override
+    public void onTxnFailure(AsyncGroup ag, List<TxnFailureReport> reports) {}
+
+    @Override
+    public void close() {}
+  }
+
+  static class SlowDataSrc implements DataSrc {
+    final String text;
+    final AtomicInteger created = new AtomicInteger();
+
+    SlowDataSrc(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public void setup(AsyncGroup ag) throws Err {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public DataConn createDataConn() throws Err {
+      this.created.incrementAndGet();
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        throw new Err("interrupted", e);
+      }
+      return new SlowDataConn(this.text);
+    }
+  }
+
+  static String read(DataHub hub, String name) throws Err {
+    return hub.getDataConn(name, SlowDataConn.class).read();
+  }
+
+  @BeforeEach
+  void beforeEach() {
+    DataHubInnerTest.resetGlobals();
+  }
+
+  @AfterEach
+  void afterEach() {
+    DataHubInnerTest.resetGlobals();
+  }
+
+  @Test
+  void run_data_accesses_in_parallel() {
+    var foo = new SlowDataSrc("FOO");
+    var bar = new SlowDataSrc("BAR");
+
+    String[] results = {null, null, null};
+    Logic<DataHub> logic =
+        hub -> {
+          var fan = hub.fanOut();
+          var r0 = fan.add("foo", () -> read(hub, "foo"));
+          var r1 = fan.add("bar", () -> read(hub, "bar"));
+          var r2 = fan.add("foo", () -> read(hub, "foo").length());
+          fan.join();
+          results[0] = r0.get();
+          results[1] = r1.get();
+          results[2] = String.valueOf(r2.get());
+        };
+
+    try (var hub = new DataHub()) {
+      hub.uses("foo", foo);
+      hub.uses("bar", bar);
+
+      long start = System.currentTimeMillis();
+      hub.txn(logic);
+      assertThat(System.currentTimeMillis() - start < 500).isTrue();
+    } catch (Err e) {
+      fail(e);
+    }
+
+    assertThat(results[0]).isEqualTo("FOO");
+    assertThat(results[1]).isEqualTo("BAR");
+    assertThat(results[2]).isEqualTo("3");
+    assertThat(foo.created.get()).isEqualTo(1);
+    assertThat(bar.created.get()).isEqualTo(1);
+  }
+
+  @Test
+  void get_result_before_join() {
+    Logic<DataHub> logic =
+        hub -> {
+          var fan = hub.fanOut();
+          var r0 = fan.add("foo", () -> read(hub, "foo"));
+          assertThat(r0.get()).isEqualTo("FOO");
+          fan.join();
+        };
+
+    try (var hub = new DataHub()) {
+      hub.uses("foo", new SlowDataSrc("FOO"));
+      hub.run(logic);
+    } catch (Err e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  void add_tasks_from_threads_of_logic() {
+    var indexes = new ConcurrentLinkedQueue<Integer>();
+    Logic<DataHub> logic =
+        hub -> {
+          var fan = hub.fanOut();
+          var start = new CountDownLatch(1);
+          var threads = new ArrayList<Thread>();
+          for (int i = 0; i < 8; i++) {
+            threads.add(
+                Thread.ofPlatform()
+                    .start(
+                        () -> {
+                          try {
+                            start.await();
+                          } catch (InterruptedException e) {
+                            return;
+                          }
+                          for (int j = 0; j < 250; j++) {
+                            fan.add("foo", () -> indexes.add(RunnerContext.current().index()));
+                          }
+                        }));
+          }
+          start.countDown();
+          try {
+            for (var t : threads) {
+              t.join();
+            }
+          } catch (InterruptedException e) {
+            throw new Err("interrupted", e);
+          }
+          fan.join();
+        };
+
+    try (var hub = new DataHub()) {
+      hub.allowConcurrentDataAccess(true);
+      hub.run(logic);
+    } catch (Err e) {
+      fail(e);
+    }
+
+    assertThat(indexes).hasSize(2000);
+    assertThat(new HashSet<>(indexes)).hasSize(2000);
+  }
+
+  @Test
+  void aggregate_errors_of_tasks() {
+    record FailToRead() {}
+
+    Logic<DataHub> logic =
+        hub -> {
+          var fan = hub.fanOut();
+          var r0 = fan.add("foo", () -> read(hub, "foo"));
+          var r1 =
+              fan.add(
+                  "bar",
+                  () -> {
+                    throw new Err(new FailToRead());
+                  });
+          var r2 =
+              fan.add(
+                  "baz",
+                  () -> {
+                    throw new IllegalStateException();
+                  });
+          try {
+            fan.join();
+            fail();
+          } finally {
+            assertThat(r0.get()).isEqualTo("FOO");
+            try {
+              r1.get();
+              fail();
+            } catch (Err e) {
+              switch (e.getReason()) {
+                case FailToRead r -> {}
+                default -> fail(e);
+              }
+            }
+            try {
+              r2.get();
+              fail();
+            } catch (Err e) {
+              switch (e.getReason()) {
+                case AsyncGroup.RuntimeExceptionOccured r -> {}
+                default -> fail(e);
+              }
+            }
+          }
+        };
+
+    try (var hub = new DataHub()) {
+      hub.uses("foo", new SlowDataSrc("FOO"));
+      hub.run(logic);
+      fail();
+    } catch (Err e) {
+      switch (e.getReason()) {
+        case FanOut.FailToRunInParallel r -> {
+          assertThat(r.errors()).hasSize(2);
+          var ee = r.errors().get(0).index == 1 ? r.errors().get(0) : r.errors().get(1);
+          assertThat(ee.index).isEqualTo(1);
+          assertThat(ee.name).isEqualTo("bar");
+          switch (ee.err.getReason()) {
+            case FailToRead rr -> {}
+            default -> fail(ee.err);
+          }
+        }
+        default -> fail(e);
+      }
+    }
+  }
+
+  @Test
+  void join_tasks_not_joined_by_logic_before_commit() {
+    List<FanOut.Result<String>> results = new ArrayList<>();
+    Logic<DataHub> logic =
+        hub -> {
+          var fan = hub.fanOut();
+          results.add(fan.add("foo", () -> read(hub, "foo")));
+        };
+
+    try (var hub = new DataHub()) {
+      hub.uses("foo", new SlowDataSrc("FOO"));
+      hub.txn(logic);
+      assertThat(results.get(0).get()).isEqualTo("FOO");
+      hub.reset();
+    } catch (Err e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  void cancel_tasks_not_joined_when_logic_fails() {
+    List<FanOut.Result<String>> results = new ArrayList<>();
+    Logic<DataHub> logic =
+        hub -> {
+          var fan = hub.fanOut();
+          results.add(fan.add("foo", () -> read(hub, "foo")));
+          throw new Err("XXX");
+        };
+
+    try (var hub = new DataHub()) {
+      hub.uses("foo", new SlowDataSrc("FOO"));
+      try {
+        hub.txn(logic);
+        fail();
+      } catch (Err e) {
+        assertThat(e.getReason()).isEqualTo("XXX");
+      }
+      try {
+        results.get(0).get();
+        fail();
+      } catch (Err e) {
+        // The task was interrupted while creating or reading the data connection.
+      }
+      hub.reset();
+    }
+  }
+}
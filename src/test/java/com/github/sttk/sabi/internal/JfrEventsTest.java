@@ -0,0 +1,171 @@
+package com.github.sttk.sabi.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataHub;
+import com.github.sttk.sabi.DataSrc;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+public class JfrEventsTest {
+  private JfrEventsTest() {}
+
+  static class MyDataConn implements DataConn {
+    final boolean failCommit;
+
+    MyDataConn(boolean failCommit) {
+      this.failCommit = failCommit;
+    }
+
+    @Override
+    public boolean isCommitted() {
+      return false;
+    }
+
+    @Override
+    public void commit(AsyncGroup ag) throws Err {
+      if (this.failCommit) {
+        throw new Err("commit error");
+      }
+    }
+
+    @Override
+    public void rollback(AsyncGroup ag) {}
+
+    @Override
+    public void close() {}
+  }
+
+  static class MyDataSrc implements DataSrc {
+    final boolean failCommit;
+
+    MyDataSrc(boolean failCommit) {
+      this.failCommit = failCommit;
+    }
+
+    @Override
+    public void setup(AsyncGroup ag) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public DataConn createDataConn() {
+      return new MyDataConn(this.failCommit);
+    }
+  }
+
+  static List<RecordedEvent> record(boolean failCommit) throws Exception {
+    var file = Files.createTempFile("sabi", ".jfr");
+    try (var rec = new Recording()) {
+      rec.enable("com.github.sttk.sabi.Txn");
+      rec.enable("com.github.sttk.sabi.TxnPhase");
+      rec.enable("com.github.sttk.sabi.DataConnPhase");
+      rec.enable("com.github.sttk.sabi.DataSrcSetup");
+      rec.start();
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", new MyDataSrc(false));
+        hub.uses("bar", new MyDataSrc(failCommit));
+        hub.txn(
+            (DataHub data) -> {
+              data.getDataConn("foo", MyDataConn.class);
+              data.getDataConn("bar", MyDataConn.class);
+            });
+        if (failCommit) {
+          fail();
+        }
+      } catch (Err e) {
+        if (!failCommit) {
+          fail(e);
+        }
+      }
+
+      rec.stop();
+      rec.dump(file);
+      return RecordingFile.readAllEvents(file);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  static List<String> summarize(List<RecordedEvent> events) {
+    var list = new ArrayList<String>();
+    for (var ev : events) {
+      switch (ev.getEventType().getName()) {
+        case "com.github.sttk.sabi.Txn" -> list.add("txn " + ev.getString("outcome"));
+        case "com.github.sttk.sabi.TxnPhase" ->
+            list.add(ev.getString("phase") + " " + ev.getString("outcome"));
+        case "com.github.sttk.sabi.DataConnPhase" ->
+            list.add(
+                ev.getString("phase")
+                    + " "
+                    + ev.getString("name")
+                    + " "
+                    + ev.getString("outcome")
+                    + " "
+                    + ev.getString("causeState"));
+        case "com.github.sttk.sabi.DataSrcSetup" ->
+            list.add("setup " + ev.getString("name") + " " + ev.getString("outcome"));
+        default -> {}
+      }
+    }
+    return list;
+  }
+
+  @Test
+  void testEventsOfCommittedTxn() throws Exception {
+    var events = summarize(record(false));
+    assertThat(events)
+        .containsExactlyInAnyOrder(
+            "setup foo Succeeded",
+            "setup bar Succeeded",
+            "Setup Succeeded",
+            "CreateDataConn foo Succeeded null",
+            "CreateDataConn bar Succeeded null",
+            "Commit foo Succeeded null",
+            "Commit bar Succeeded null",
+            "Commit Succeeded",
+            "Close foo Succeeded null",
+            "Close bar Succeeded null",
+            "txn Committed");
+  }
+
+  @Test
+  void testEventsOfRolledBackTxn() throws Exception {
+    var events = summarize(record(true));
+    assertThat(events)
+        .containsExactlyInAnyOrder(
+            "setup foo Succeeded",
+            "setup bar Succeeded",
+            "Setup Succeeded",
+            "CreateDataConn foo Succeeded null",
+            "CreateDataConn bar Succeeded null",
+            "Commit foo Succeeded NoneByUncommitted",
+            "Commit bar Failed CommitFailure",
+            "Commit Failed",
+            "Rollback foo Succeeded NoneByUncommitted",
+            "Rollback bar Succeeded CommitFailure",
+            "Rollback Succeeded",
+            "Close foo Succeeded null",
+            "Close bar Succeeded null",
+            "txn RolledBack");
+  }
+
+  @Test
+  void testNoEventWhileDisabled() {
+    assertThat(JfrEvents.beginTxn()).isNull();
+    assertThat(JfrEvents.beginPhase()).isNull();
+    assertThat(JfrEvents.dataConnEvents(1)).isNull();
+    assertThat(JfrEvents.dataSrcEvents(1)).isNull();
+  }
+}
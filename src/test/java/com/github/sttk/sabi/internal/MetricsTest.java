@@ -0,0 +1,205 @@
+package com.github.sttk.sabi.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataHub;
+import com.github.sttk.sabi.DataSrc;
+import com.github.sttk.sabi.Histogram;
+import com.github.sttk.sabi.MetricsExporter;
+import com.github.sttk.sabi.Sabi;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class MetricsTest {
+  private MetricsTest() {}
+
+  @AfterEach
+  void reset() {
+    Metrics.enabled = false;
+  }
+
+  static class MyDataConn implements DataConn {
+    final boolean failCommit;
+
+    MyDataConn(boolean failCommit) {
+      this.failCommit = failCommit;
+    }
+
+    @Override
+    public boolean isCommitted() {
+      return false;
+    }
+
+    @Override
+    public void commit(AsyncGroup ag) throws Err {
+      if (this.failCommit) {
+        throw new Err("commit error");
+      }
+    }
+
+    @Override
+    public void rollback(AsyncGroup ag) {}
+
+    @Override
+    public void close() {}
+  }
+
+  static class MyDataSrc implements DataSrc {
+    boolean failCommit;
+
+    @Override
+    public void setup(AsyncGroup ag) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public DataConn createDataConn() {
+      return new MyDataConn(this.failCommit);
+    }
+  }
+
+  static class MyExporter implements MetricsExporter {
+    final Map<String, Long> counters = new HashMap<>();
+    final Map<String, Histogram> histograms = new HashMap<>();
+
+    @Override
+    public void counter(String name, Map<String, String> tags, long value) {
+      this.counters.put(key(name, tags), value);
+    }
+
+    @Override
+    public void histogram(String name, Map<String, String> tags, Histogram histogram) {
+      this.histograms.put(key(name, tags), histogram);
+    }
+
+    static String key(String name, Map<String, String> tags) {
+      var list = new ArrayList<String>();
+      for (var e : tags.entrySet()) {
+        list.add(e.getKey() + "=" + e.getValue());
+      }
+      list.sort(null);
+      return name + list;
+    }
+  }
+
+  static MyExporter export() {
+    var exporter = new MyExporter();
+    Sabi.exportMetrics(exporter);
+    return exporter;
+  }
+
+  @Test
+  void testBucketsOfHistogram() {
+    for (long v : new long[] {0L, 1L, 7L, 8L, 9L, 15L, 16L, 17L, 1000L, 123_456_789L}) {
+      int i = Histogram.bucketOf(v);
+      assertThat(Histogram.bucketUpperBound(i)).isGreaterThanOrEqualTo(v);
+      if (i > 0) {
+        assertThat(Histogram.bucketUpperBound(i - 1)).isLessThan(v);
+      }
+    }
+    assertThat(Histogram.bucketOf(Long.MAX_VALUE)).isEqualTo(Histogram.BUCKETS - 1);
+    assertThat(Histogram.bucketUpperBound(Histogram.BUCKETS - 1)).isEqualTo(Long.MAX_VALUE);
+    assertThat(Histogram.bucketOf(-1L)).isEqualTo(0);
+  }
+
+  @Test
+  void testPercentilesOfHistogram() {
+    var h = new LogHistogram();
+    for (long v = 1L; v <= 1000L; v++) {
+      h.record(v * 1000L);
+    }
+    var snapshot = h.snapshot();
+    assertThat(snapshot.count()).isEqualTo(1000L);
+    assertThat(snapshot.sum()).isEqualTo(500_500_000L);
+    assertThat(snapshot.max()).isEqualTo(1_000_000L);
+    long p50 = snapshot.valueAtPercentile(50.0);
+    assertThat(p50).isGreaterThanOrEqualTo(500_000L);
+    assertThat(p50).isLessThanOrEqualTo(500_000L * 9 / 8);
+    assertThat(snapshot.valueAtPercentile(100.0)).isEqualTo(1_000_000L);
+    assertThat(new LogHistogram().snapshot().valueAtPercentile(99.0)).isEqualTo(0L);
+  }
+
+  @Test
+  void testRecordFromManyThreads() throws Exception {
+    var h = new LogHistogram();
+    var threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      threads.add(
+          Thread.startVirtualThread(
+              () -> {
+                for (int j = 0; j < 10_000; j++) {
+                  h.record(j);
+                }
+              }));
+    }
+    for (var th : threads) {
+      th.join();
+    }
+    assertThat(h.snapshot().count()).isEqualTo(80_000L);
+  }
+
+  @Test
+  void testExportMetricsOfTxns() {
+    var before = export();
+    Sabi.enableMetrics();
+
+    var ds = new MyDataSrc();
+    try (var hub = new DataHub()) {
+      hub.uses("metrics-foo", ds);
+      for (int i = 0; i < 3; i++) {
+        hub.txn((DataHub data) -> data.getDataConn("metrics-foo", MyDataConn.class));
+      }
+      ds.failCommit = true;
+      hub.txn((DataHub data) -> data.getDataConn("metrics-foo", MyDataConn.class));
+      fail();
+    } catch (Err e) {
+      assertThat(e.getReason()).isNotNull();
+    }
+
+    var after = export();
+    var committed = "sabi.txn.duration[outcome=Committed]";
+    var rolledBack = "sabi.txn.duration[outcome=RolledBack]";
+    assertThat(after.histograms.get(committed).count() - before.histograms.get(committed).count())
+        .isEqualTo(3L);
+    assertThat(
+            after.histograms.get(rolledBack).count() - before.histograms.get(rolledBack).count())
+        .isEqualTo(1L);
+
+    var commit = "sabi.dataconn.duration[name=metrics-foo, phase=Commit]";
+    assertThat(after.histograms.get(commit).count()).isEqualTo(4L);
+    var rollback = "sabi.dataconn.duration[name=metrics-foo, phase=Rollback]";
+    assertThat(after.histograms.get(rollback).count()).isEqualTo(1L);
+    assertThat(after.counters.get("sabi.dataconn.failures[name=metrics-foo, phase=Commit]"))
+        .isEqualTo(1L);
+
+    var cause = "sabi.txn.failure.cause[state=CommitFailure]";
+    assertThat(after.counters.get(cause) - before.counters.get(cause)).isEqualTo(1L);
+    var recovery =
+        "sabi.txn.failure.recovery[intent=commit, recovery=ResolveCauseThenRerunLogicAndCommit]";
+    assertThat(after.counters.get(recovery) - before.counters.get(recovery)).isEqualTo(1L);
+    assertThat(after.counters.get("sabi.txn.retries[]")).isNotNull();
+  }
+
+  @Test
+  void testNothingRecordedWhileDisabled() {
+    var ds = new MyDataSrc();
+    try (var hub = new DataHub()) {
+      hub.uses("metrics-bar", ds);
+      hub.txn((DataHub data) -> data.getDataConn("metrics-bar", MyDataConn.class));
+    } catch (Err e) {
+      fail(e);
+    }
+    List<String> names = new ArrayList<>(export().histograms.keySet());
+    names.removeIf(name -> !name.contains("metrics-bar"));
+    assertThat(names).isEmpty();
+  }
+}
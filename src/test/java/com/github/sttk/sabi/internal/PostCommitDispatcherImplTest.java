@@ -0,0 +1,398 @@
+package com.github.sttk.sabi.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.github.sttk.errs.Err;
+import com.github.sttk.sabi.AsyncGroup;
+import com.github.sttk.sabi.DataConn;
+import com.github.sttk.sabi.DataHub;
+import com.github.sttk.sabi.DataSrc;
+import com.github.sttk.sabi.PostCommitDispatcher;
+import com.github.sttk.sabi.Sabi;
+import com.github.sttk.sabi.TxnFailureRecovery;
+import com.github.sttk.sabi.TxnFailureReport;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PostCommitDispatcherImplTest {
+  private PostCommitDispatcherImplTest() {}
+
+  static class MyDataConn implements DataConn {
+    final MyDataSrc ds;
+    boolean committed;
+
+    MyDataConn(MyDataSrc ds) {
+      this.ds = ds;
+    }
+
+    @Override
+    public void commit(AsyncGroup ag) throws Err {
+      this.committed = true;
+      this.ds.logger.add("commit");
+    }
+
+    @Override
+    public void postCommit(AsyncGroup ag) throws Err {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        throw new Err("interrupted", e);
+      }
+      if (this.ds.failPostCommit) {
+        this.ds.logger.add("postCommit failed");
+        throw new Err("post-commit error");
+      }
+      this.ds.logger.add("postCommit");
+    }
+
+    @Override
+    public boolean isCommitted() {
+      return this.committed;
+    }
+
+    @Override
+    public void rollback(AsyncGroup ag) {}
+
+    @Override
+    public void onTxnFailure(AsyncGroup ag, List<TxnFailureReport> reports) {
+      for (var report : reports) {
+        this.ds.logger.add("onTxnFailure " + report.recoveryForCommit());
+      }
+    }
+
+    @Override
+    public String postCommitRecord() {
+      return "notify\tuser-1";
+    }
+
+    @Override
+    public void close() {
+      this.ds.logger.add("close");
+    }
+  }
+
+  static class MyDataSrc implements DataSrc {
+    final ConcurrentLinkedQueue<String> logger = new ConcurrentLinkedQueue<>();
+    boolean failPostCommit;
+
+    @Override
+    public void setup(AsyncGroup ag) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public DataConn createDataConn() {
+      return new MyDataConn(this);
+    }
+  }
+
+  Path file;
+
+  @BeforeEach
+  void createFile() throws Exception {
+    this.file = Files.createTempFile("sabi-post-commit", ".queue");
+    Files.delete(this.file);
+  }
+
+  @AfterEach
+  void deleteFile() throws Exception {
+    Files.deleteIfExists(this.file);
+  }
+
+  static String encode(String s) {
+    return Base64.getEncoder().encodeToString(s.getBytes(UTF_8));
+  }
+
+  @Test
+  void run_post_commit_in_background() {
+    var ds = new MyDataSrc();
+    try (var dispatcher = PostCommitDispatcher.open(this.file, Map.of())) {
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.offloadPostCommit(dispatcher);
+        hub.txn((DataHub data) -> data.getDataConn("foo", MyDataConn.class));
+        ds.logger.add("txn returned");
+      }
+    } catch (Exception e) {
+      fail(e);
+    }
+
+    assertThat(List.copyOf(ds.logger))
+        .containsExactly("commit", "txn returned", "postCommit", "close");
+  }
+
+  @Test
+  void close_local_data_src_after_post_commit_ends() {
+    var ds =
+        new MyDataSrc() {
+          @Override
+          public void close() {
+            this.logger.add("ds close");
+          }
+        };
+    try (var dispatcher = PostCommitDispatcher.open(this.file, Map.of())) {
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.offloadPostCommit(dispatcher);
+        hub.txn((DataHub data) -> data.getDataConn("foo", MyDataConn.class));
+      }
+      ds.logger.add("hub closed");
+    } catch (Exception e) {
+      fail(e);
+    }
+
+    assertThat(List.copyOf(ds.logger))
+        .containsExactly("commit", "postCommit", "close", "ds close", "hub closed");
+  }
+
+  @SuppressWarnings("try")
+  @Test
+  void keep_global_data_src_until_post_commit_ends() {
+    var ds =
+        new MyDataSrc() {
+          @Override
+          public void close() {
+            this.logger.add("retired");
+          }
+        };
+    DataHubInnerTest.resetGlobals();
+    try {
+      Sabi.uses("foo", ds);
+      try (var ac = Sabi.setup();
+          var dispatcher = PostCommitDispatcher.open(this.file, Map.of())) {
+        try (var hub = new DataHub()) {
+          hub.offloadPostCommit(dispatcher);
+          hub.txn((DataHub data) -> data.getDataConn("foo", MyDataConn.class));
+          Sabi.replace("foo", new MyDataSrc());
+          ds.logger.add("replaced");
+        }
+      }
+    } catch (Exception e) {
+      fail(e);
+    } finally {
+      DataHubInnerTest.resetGlobals();
+    }
+
+    assertThat(List.copyOf(ds.logger))
+        .containsExactly("commit", "replaced", "postCommit", "close", "retired");
+  }
+
+  @Test
+  void retry_failed_post_commit_with_backoff() {
+    var ds = new MyDataSrc();
+    ds.failPostCommit = true;
+    var records = new ConcurrentLinkedQueue<String>();
+    var succeeded = new CountDownLatch(1);
+    PostCommitDispatcher.Rerun rerun =
+        record -> {
+          records.add(record);
+          if (records.size() < 3) {
+            throw new Err("rerun error");
+          }
+          succeeded.countDown();
+        };
+
+    try (var dispatcher =
+        PostCommitDispatcher.open(
+            this.file, Map.of("foo", rerun), Duration.ofMillis(10), Duration.ofMillis(40))) {
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.offloadPostCommit(dispatcher);
+        hub.txn((DataHub data) -> data.getDataConn("foo", MyDataConn.class));
+      }
+      assertThat(succeeded.await(5, TimeUnit.SECONDS)).isTrue();
+    } catch (Exception e) {
+      fail(e);
+    }
+
+    assertThat(List.copyOf(ds.logger))
+        .containsExactly(
+            "commit",
+            "postCommit failed",
+            "onTxnFailure " + TxnFailureRecovery.ResolveCauseThenRerunPostCommit,
+            "close");
+    assertThat(List.copyOf(records))
+        .containsExactly("notify\tuser-1", "notify\tuser-1", "notify\tuser-1");
+
+    try {
+      var lines = Files.readAllLines(this.file, UTF_8);
+      assertThat(lines).hasSize(2);
+      assertThat(lines.get(0)).isEqualTo("A\t1\t" + encode("foo") + "\t" + encode("notify\tuser-1"));
+      assertThat(lines.get(1)).isEqualTo("D\t1");
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  void retry_records_left_by_former_process() {
+    var records = new ConcurrentLinkedQueue<String>();
+    var succeeded = new CountDownLatch(2);
+    PostCommitDispatcher.Rerun rerun =
+        record -> {
+          records.add(record);
+          succeeded.countDown();
+        };
+
+    try {
+      Files.write(
+          this.file,
+          List.of(
+              "A\t1\t" + encode("foo") + "\t" + encode("r1"),
+              "A\t2\t" + encode("foo") + "\t" + encode("r2"),
+              "D\t1",
+              "A\t3\t" + encode("foo") + "\t" + encode("r3"),
+              "A\t4\t" + encode("fo"),
+              "D"),
+          UTF_8);
+
+      var dispatcher = PostCommitDispatcher.open(this.file, Map.of("foo", rerun));
+      try {
+        assertThat(succeeded.await(5, TimeUnit.SECONDS)).isTrue();
+      } finally {
+        dispatcher.close();
+      }
+      assertThat(List.copyOf(records)).containsExactly("r2", "r3");
+
+      PostCommitDispatcher.open(this.file, Map.of("foo", rerun)).close();
+      assertThat(Files.readAllLines(this.file, UTF_8)).isEmpty();
+      assertThat(records).hasSize(2);
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  void hand_record_to_dead_letter_after_max_attempts() {
+    var ds = new MyDataSrc();
+    ds.failPostCommit = true;
+    var records = new ConcurrentLinkedQueue<String>();
+    var deadLetters = new ConcurrentLinkedQueue<Err>();
+    var exhausted = new CountDownLatch(1);
+    PostCommitDispatcher.Rerun rerun =
+        record -> {
+          records.add(record);
+          throw new Err("rerun error");
+        };
+    PostCommitDispatcher.DeadLetter deadLetter =
+        err -> {
+          deadLetters.add(err);
+          exhausted.countDown();
+        };
+
+    try (var dispatcher =
+        PostCommitDispatcher.open(
+            this.file,
+            Map.of("foo", rerun),
+            Duration.ofMillis(10),
+            Duration.ofMillis(40),
+            3,
+            deadLetter)) {
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.offloadPostCommit(dispatcher);
+        hub.txn((DataHub data) -> data.getDataConn("foo", MyDataConn.class));
+      }
+      assertThat(exhausted.await(5, TimeUnit.SECONDS)).isTrue();
+    } catch (Exception e) {
+      fail(e);
+    }
+
+    assertThat(records).hasSize(3);
+    assertThat(deadLetters).hasSize(1);
+    var err = deadLetters.peek();
+    switch (err.getReason()) {
+      case PostCommitDispatcher.PostCommitRetriesExhausted r -> {
+        assertThat(r.name()).isEqualTo("foo");
+        assertThat(r.record()).isEqualTo("notify\tuser-1");
+        assertThat(r.attempts()).isEqualTo(3);
+      }
+      default -> fail(err);
+    }
+    assertThat(err.getCause()).isInstanceOf(Err.class);
+
+    try {
+      var lines = Files.readAllLines(this.file, UTF_8);
+      assertThat(lines).hasSize(2);
+      assertThat(lines.get(1)).isEqualTo("D\t1");
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  void compact_queue_file_when_done_lines_pile_up() {
+    int n = PostCommitDispatcherImpl.COMPACT_MIN_DONE * 2;
+    var ds = new MyDataSrc();
+    ds.failPostCommit = true;
+    var succeeded = new CountDownLatch(n);
+    PostCommitDispatcher.Rerun rerun = record -> succeeded.countDown();
+
+    try (var dispatcher =
+        PostCommitDispatcher.open(
+            this.file, Map.of("foo", rerun), Duration.ofMillis(1), Duration.ofMillis(1))) {
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.offloadPostCommit(dispatcher);
+        for (int i = 0; i < n; i++) {
+          hub.txn((DataHub data) -> data.getDataConn("foo", MyDataConn.class));
+        }
+      }
+      assertThat(succeeded.await(5, TimeUnit.SECONDS)).isTrue();
+    } catch (Exception e) {
+      fail(e);
+    }
+
+    try {
+      var lines = Files.readAllLines(this.file, UTF_8);
+      assertThat(lines.size()).isLessThanOrEqualTo(n);
+      var pending = new HashSet<String>();
+      for (var line : lines) {
+        var fields = line.split("\t");
+        if (fields[0].equals("A")) {
+          pending.add(fields[1]);
+        } else {
+          pending.remove(fields[1]);
+        }
+      }
+      assertThat(pending).isEmpty();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  void run_post_commit_in_foreground_after_dispatcher_closed() {
+    var ds = new MyDataSrc();
+    try {
+      var dispatcher = PostCommitDispatcher.open(this.file, Map.of());
+      dispatcher.close();
+
+      try (var hub = new DataHub()) {
+        hub.uses("foo", ds);
+        hub.offloadPostCommit(dispatcher);
+        hub.txn((DataHub data) -> data.getDataConn("foo", MyDataConn.class));
+        ds.logger.add("txn returned");
+      }
+    } catch (Exception e) {
+      fail(e);
+    }
+
+    assertThat(List.copyOf(ds.logger))
+        .containsExactly("commit", "postCommit", "close", "txn returned");
+  }
+}
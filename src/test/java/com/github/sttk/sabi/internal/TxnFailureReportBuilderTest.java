@@ -83,6 +83,11 @@ public class TxnFailureReportBuilderTest {
     assertThat(report.cause.state).isEqualTo(TxnFailureCauseState.NoneByCommitted);
     assertThat(report.isCauseOfFailure()).isFalse();
 
+    builder.cause = new TxnFailureCause(TxnFailureCauseState.NoneByCancelled, new Err("fail"));
+    report = builder.build();
+    assertThat(report.cause.state).isEqualTo(TxnFailureCauseState.NoneByCancelled);
+    assertThat(report.isCauseOfFailure()).isFalse();
+
     builder.cause = new TxnFailureCause(TxnFailureCauseState.LogicFailure, new Err("fail"));
     report = builder.build();
     assertThat(report.cause.state).isEqualTo(TxnFailureCauseState.LogicFailure);
@@ -128,6 +133,29 @@ public class TxnFailureReportBuilderTest {
           .isEqualTo(TxnFailureRecovery.ResolveCauseAndInconsistency);
     }
 
+    builder.cause = new TxnFailureCause(TxnFailureCauseState.NoneByCancelled, null);
+    {
+      builder.rollback = new TxnFailureRollback(TxnFailureRollbackState.NoneByNotRolledBack, null);
+      var report = builder.build();
+      assertThat(report.cause.state).isEqualTo(TxnFailureCauseState.NoneByCancelled);
+      assertThat(report.rollback.state).isEqualTo(TxnFailureRollbackState.NoneByNotRolledBack);
+      assertThat(report.recoveryForCommit())
+          .isEqualTo(TxnFailureRecovery.InvestigateBecauseImpossible);
+
+      builder.rollback = new TxnFailureRollback(TxnFailureRollbackState.NoneByRolledBack, null);
+      report = builder.build();
+      assertThat(report.cause.state).isEqualTo(TxnFailureCauseState.NoneByCancelled);
+      assertThat(report.rollback.state).isEqualTo(TxnFailureRollbackState.NoneByRolledBack);
+      assertThat(report.recoveryForCommit()).isEqualTo(TxnFailureRecovery.RerunLogicAndCommit);
+
+      builder.rollback = new TxnFailureRollback(TxnFailureRollbackState.RollbackFailure, null);
+      report = builder.build();
+      assertThat(report.cause.state).isEqualTo(TxnFailureCauseState.NoneByCancelled);
+      assertThat(report.rollback.state).isEqualTo(TxnFailureRollbackState.RollbackFailure);
+      assertThat(report.recoveryForCommit())
+          .isEqualTo(TxnFailureRecovery.ResolveCauseAndInconsistency);
+    }
+
     builder.cause = new TxnFailureCause(TxnFailureCauseState.NoneByCommitted, null);
     {
       builder.rollback = new TxnFailureRollback(TxnFailureRollbackState.NoneByNotRolledBack, null);
@@ -253,6 +281,29 @@ public class TxnFailureReportBuilderTest {
           .isEqualTo(TxnFailureRecovery.ResolveCauseAndInconsistency);
     }
 
+    builder.cause = new TxnFailureCause(TxnFailureCauseState.NoneByCancelled, null);
+    {
+      builder.rollback = new TxnFailureRollback(TxnFailureRollbackState.NoneByNotRolledBack, null);
+      var report = builder.build();
+      assertThat(report.cause.state).isEqualTo(TxnFailureCauseState.NoneByCancelled);
+      assertThat(report.rollback.state).isEqualTo(TxnFailureRollbackState.NoneByNotRolledBack);
+      assertThat(report.recoveryForRollback())
+          .isEqualTo(TxnFailureRecovery.InvestigateBecauseImpossible);
+
+      builder.rollback = new TxnFailureRollback(TxnFailureRollbackState.NoneByRolledBack, null);
+      report = builder.build();
+      assertThat(report.cause.state).isEqualTo(TxnFailureCauseState.NoneByCancelled);
+      assertThat(report.rollback.state).isEqualTo(TxnFailureRollbackState.NoneByRolledBack);
+      assertThat(report.recoveryForRollback()).isEqualTo(TxnFailureRecovery.NoActionRequired);
+
+      builder.rollback = new TxnFailureRollback(TxnFailureRollbackState.RollbackFailure, null);
+      report = builder.build();
+      assertThat(report.cause.state).isEqualTo(TxnFailureCauseState.NoneByCancelled);
+      assertThat(report.rollback.state).isEqualTo(TxnFailureRollbackState.RollbackFailure);
+      assertThat(report.recoveryForRollback())
+          .isEqualTo(TxnFailureRecovery.ResolveCauseAndInconsistency);
+    }
+
     builder.cause = new TxnFailureCause(TxnFailureCauseState.NoneByCommitted, null);
     {
       builder.rollback = new TxnFailureRollback(TxnFailureRollbackState.NoneByNotRolledBack, null);